@@ -0,0 +1,123 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Results of a suite of device benchmarks, written as JSON alongside the logcat output so runs
+ * on different commits can be compared.
+ * <p>
+ * The report goes to the additionalTestOutputDir instrumentation argument when given, otherwise
+ * to the benchmarks directory of the app's external files, e.g.
+ * {@code adb pull /sdcard/Android/data/com.example.android.booklistingapp/files/benchmarks}.
+ */
+class BenchmarkReport {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mSuite;
+    private final JSONArray mResults = new JSONArray();
+
+    BenchmarkReport(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Adds the distribution of timed samples, in nanoseconds.
+     */
+    JSONObject addSamples(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        JSONObject result = add(name);
+        try {
+            result.put("samples", sorted.length);
+            result.put("minNanos", sorted[0]);
+            result.put("medianNanos", sorted[sorted.length / 2]);
+            result.put("p90Nanos", sorted[sorted.length * 9 / 10]);
+            result.put("p99Nanos", sorted[sorted.length * 99 / 100]);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        Log.i(mSuite, result.toString());
+        return result;
+    }
+
+    /**
+     * Adds a single measured value, e.g. a number of bytes.
+     */
+    JSONObject addValue(String name, String key, long value) {
+        JSONObject result = add(name);
+        try {
+            result.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        Log.i(mSuite, result.toString());
+        return result;
+    }
+
+    /**
+     * Writes the results of the suite, called once every benchmark of the suite ran.
+     */
+    void write() throws IOException, JSONException {
+        if (mResults.length() == 0) {
+            return;
+        }
+        JSONObject report = new JSONObject();
+        report.put("suite", mSuite);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("benchmarks", mResults);
+
+        File file = new File(getDirectory(), mSuite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(mSuite, "Results written to " + file);
+    }
+
+    private JSONObject add(String name) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("name", name);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mResults.put(result);
+        return result;
+    }
+
+    private static File getDirectory() throws IOException {
+        String outputDir = InstrumentationRegistry.getArguments().getString("additionalTestOutputDir");
+        File directory;
+        if (outputDir != null) {
+            directory = new File(outputDir);
+        } else {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            directory = context.getExternalFilesDir("benchmarks");
+        }
+        if (directory == null || (!directory.isDirectory() && !directory.mkdirs())) {
+            throw new IOException("Can't create " + directory);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.booklistingapp;
+
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the heap held by 10k books with the compact {@link Book} model and with the previous
+ * one, which held every field as a separate String and parsed the thumbnail Uri eagerly.
+ * Runs on a device, the results are written to logcat under the BookFootprintBenchmark tag and
+ * to BookFootprintBenchmark.json, see {@link BenchmarkReport}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookFootprintBenchmark {
+
+    private static final String TAG = BookFootprintBenchmark.class.getSimpleName();
+    private static final String[] WORDS = ("harry potter wizard stone chamber secrets prisoner "
+            + "goblet fire phoenix prince deathly hallows ring fellowship towers return king "
+            + "hobbit dragon dune desert spice empire foundation robot galaxy ocean island "
+            + "mystery murder detective garden history science cooking travel").split(" ");
+    private static final String[] LANGUAGES = {"en", "es", "fr", "de", "it"};
+    private static final int BOOKS = 10000;
+    private static final int RUNS = 5;
+
+    @Test
+    public void heapFootprint_10k() throws Exception {
+        long[] legacy = new long[RUNS];
+        long[] compact = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            legacy[run] = measure(false);
+            compact[run] = measure(true);
+        }
+        // The heap is only sampled around the allocations, keep the median of the runs
+        Arrays.sort(legacy);
+        Arrays.sort(compact);
+        long legacyBytes = legacy[RUNS / 2];
+        long compactBytes = compact[RUNS / 2];
+        BenchmarkReport report = new BenchmarkReport(TAG);
+        report.addValue("heap_10k_previous", "bytes", legacyBytes);
+        report.addValue("heap_10k_compact", "bytes", compactBytes);
+        report.write();
+        assertTrue(compactBytes < legacyBytes);
+    }
+
+    /**
+     * Returns the heap retained by the books, built from fresh strings as the parser would
+     */
+    private static long measure(boolean compact) {
+        Random random = new Random(BOOKS);
+        List<Object> books = new ArrayList<>(BOOKS);
+        long before = usedHeap();
+        for (int n = 0; n < BOOKS; n++) {
+            String id = "vol" + n;
+            String title = words(random, 3);
+            String url = "https://play.google.com/store/books/details?id=" + id + "&source=gbs_api";
+            String description = words(random, 80);
+            double amount = 1 + random.nextInt(3000) / 100.0;
+            String author = words(random, 2);
+            String language = new String(LANGUAGES[random.nextInt(LANGUAGES.length)]);
+            String currency = new String("USD");
+            String thumbnail = "http://books.google.com/books/content?id=" + id
+                    + "&printsec=frontcover&img=1&zoom=1&edge=curl&source=gbs_api";
+            if (compact) {
+                books.add(new Book(id, title, url, description, Book.toMicros(amount), author,
+                        language, currency, thumbnail));
+            } else {
+                books.add(new LegacyBook(id, title, url, description, String.valueOf(amount), author,
+                        language, currency, Uri.parse(thumbnail)));
+            }
+        }
+        long retained = usedHeap() - before;
+        // Keep the books reachable until they were measured
+        assertTrue(books.size() == BOOKS);
+        return retained;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * The previous book model, kept to compare against
+     */
+    private static class LegacyBook {
+        private final String mId;
+        private final String mTitle;
+        private final String mUrl;
+        private final String mDescription;
+        private final String mPrice;
+        private final String mAuthor;
+        private final String mLanguage;
+        private final String mCurrencyCode;
+        private final Uri mThumbnail;
+
+        LegacyBook(String id, String title, String url, String description, String price,
+                   String author, String language, String currency, Uri thumbnailImage) {
+            mId = id;
+            mTitle = title;
+            mUrl = url;
+            mDescription = description;
+            mPrice = price;
+            mAuthor = author;
+            mLanguage = language;
+            mCurrencyCode = currency;
+            mThumbnail = thumbnailImage;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Measures the query latency of the {@link BookIndex} with 10k and 100k indexed books.
+ * Runs on a device, the results are written to logcat under the BookIndexBenchmark tag and to
+ * BookIndexBenchmark.json, see {@link BenchmarkReport}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookIndexBenchmark {
+
+    private static final String TAG = BookIndexBenchmark.class.getSimpleName();
+    private static final String[] WORDS = ("harry potter wizard stone chamber secrets prisoner "
+            + "goblet fire phoenix prince deathly hallows ring fellowship towers return king "
+            + "hobbit dragon dune desert spice empire foundation robot galaxy ocean island "
+            + "mystery murder detective garden history science cooking travel").split(" ");
+    private static final String[] QUERIES = {"harry", "dragon king", "myst", "ocean travel history"};
+    private static final int BATCH_SIZE = 1000;
+    private static final int RUNS = 20;
+
+    private static final BenchmarkReport sReport = new BenchmarkReport(TAG);
+
+    private Context mContext;
+    private BookIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TAG);
+        mIndex = new BookIndex(mContext, TAG);
+    }
+
+    @After
+    public void tearDown() {
+        mIndex.close();
+        mContext.deleteDatabase(TAG);
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sReport.write();
+    }
+
+    @Test
+    public void queryLatency_10k() {
+        measure(10000);
+    }
+
+    @Test
+    public void queryLatency_100k() {
+        measure(100000);
+    }
+
+    private void measure(int size) {
+        Random random = new Random(size);
+        long start = System.nanoTime();
+        for (int indexed = 0; indexed < size; indexed += BATCH_SIZE) {
+            List<Book> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(randomBook(random, indexed + i));
+            }
+            mIndex.addAll(batch);
+        }
+        sReport.addValue("index_" + size, "nanos", System.nanoTime() - start);
+
+        for (String query : QUERIES) {
+            assertFalse(mIndex.search(query, 20).isEmpty());
+            long[] latencies = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                start = System.nanoTime();
+                mIndex.search(query, 20);
+                latencies[run] = System.nanoTime() - start;
+            }
+            sReport.addSamples("query_" + size + "_" + query.replace(' ', '_'), latencies);
+        }
+    }
+
+    private static Book randomBook(Random random, int n) {
+        return new Book("vol" + n, words(random, 3), "https://play.google.com/store/books/details?id=vol" + n,
+                words(random, 60), 9990000, words(random, 2), "en", "USD",
+                "https://books.google.com/books/content?id=vol" + n);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+}
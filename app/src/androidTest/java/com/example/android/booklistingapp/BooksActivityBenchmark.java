@@ -0,0 +1,150 @@
+package com.example.android.booklistingapp;
+
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time {@link BooksActivity} takes to show its first frame, and the frame times
+ * while its list of books is flung.
+ * Runs on a device, the results are written to logcat under the BooksActivityBenchmark tag and
+ * to BooksActivityBenchmark.json, see {@link BenchmarkReport}. The activity starts in the
+ * process of the test, so the start doesn't include the start of the process.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BooksActivityBenchmark {
+
+    private static final String TAG = BooksActivityBenchmark.class.getSimpleName();
+    private static final String[] WORDS = ("harry potter wizard stone chamber secrets prisoner "
+            + "goblet fire phoenix prince deathly hallows ring fellowship towers return king "
+            + "hobbit dragon dune desert spice empire foundation robot galaxy ocean island "
+            + "mystery murder detective garden history science cooking travel").split(" ");
+    private static final int STARTS = 10;
+    private static final int BOOKS = 400;
+    private static final int SCROLLED_FRAMES = 300;
+    private static final int SCROLL_PIXELS_PER_FRAME = 60;
+
+    private static final BenchmarkReport sReport = new BenchmarkReport(TAG);
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sReport.write();
+    }
+
+    @Test
+    public void timeToFirstFrame() throws Exception {
+        long[] nanos = new long[STARTS];
+        for (int run = 0; run < STARTS; run++) {
+            final CountDownLatch drawn = new CountDownLatch(1);
+            long start = System.nanoTime();
+            ActivityScenario<BooksActivity> scenario = ActivityScenario.launch(BooksActivity.class);
+            scenario.onActivity(new ActivityScenario.ActivityAction<BooksActivity>() {
+                @Override
+                public void perform(BooksActivity activity) {
+                    final ViewTreeObserver observer =
+                            activity.getWindow().getDecorView().getViewTreeObserver();
+                    observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            if (observer.isAlive()) {
+                                observer.removeOnPreDrawListener(this);
+                            }
+                            drawn.countDown();
+                            return true;
+                        }
+                    });
+                    activity.getWindow().getDecorView().invalidate();
+                }
+            });
+            assertTrue(drawn.await(10, TimeUnit.SECONDS));
+            nanos[run] = System.nanoTime() - start;
+            scenario.close();
+        }
+        sReport.addSamples("timeToFirstFrame", nanos);
+    }
+
+    @Test
+    public void scrollFrameTimes() throws Exception {
+        final long[] frameNanos = new long[SCROLLED_FRAMES];
+        final float[] refreshRate = new float[1];
+        final CountDownLatch scrolled = new CountDownLatch(1);
+        ActivityScenario<BooksActivity> scenario = ActivityScenario.launch(BooksActivity.class);
+        scenario.onActivity(new ActivityScenario.ActivityAction<BooksActivity>() {
+            @Override
+            public void perform(BooksActivity activity) {
+                refreshRate[0] = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+                final RecyclerView list = activity.findViewById(R.id.list);
+                ((BooksAdapter) list.getAdapter()).setBooks(randomBooks());
+                // Scroll a bit on every frame and record the time between frames
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private long mLastFrameNanos;
+                    private int mFrame = -1;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (mFrame >= 0) {
+                            frameNanos[mFrame] = frameTimeNanos - mLastFrameNanos;
+                        }
+                        mLastFrameNanos = frameTimeNanos;
+                        if (++mFrame == SCROLLED_FRAMES) {
+                            scrolled.countDown();
+                            return;
+                        }
+                        list.scrollBy(0, SCROLL_PIXELS_PER_FRAME);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        assertTrue(scrolled.await(60, TimeUnit.SECONDS));
+        scenario.close();
+
+        // A frame is janky when it took longer than one and a half refresh periods
+        long jankThresholdNanos = (long) (1.5e9 / refreshRate[0]);
+        int janky = 0;
+        for (long nanos : frameNanos) {
+            if (nanos > jankThresholdNanos) {
+                janky++;
+            }
+        }
+        JSONObject result = sReport.addSamples("scrollFrameTimes", frameNanos);
+        result.put("jankyFrames", janky);
+        result.put("refreshRate", refreshRate[0]);
+    }
+
+    private static List<Book> randomBooks() {
+        Random random = new Random(BOOKS);
+        List<Book> books = new ArrayList<>(BOOKS);
+        for (int n = 0; n < BOOKS; n++) {
+            books.add(new Book("vol" + n, words(random, 4),
+                    "https://play.google.com/store/books/details?id=vol" + n, words(random, 80),
+                    9990000, words(random, 2), "en", "USD",
+                    "https://books.google.com/books/content?id=vol" + n));
+        }
+        return books;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the work {@link BooksAdapter} does for each row shown while scrolling: binding a
+ * recycled row, creating a new one, and the measure and layout of a bound row. The
+ * _precomputed variants bind the {@link BookRowText} measured in background, as the adapter
+ * does once attached, the others measure the text while binding.
+ * Runs on a device with the AndroidX benchmark library, which writes its JSON results to the
+ * test output directory, against the benchmark build type, see app/build.gradle.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BooksAdapterBenchmark {
+
+    private static final String[] WORDS = ("harry potter wizard stone chamber secrets prisoner "
+            + "goblet fire phoenix prince deathly hallows ring fellowship towers return king "
+            + "hobbit dragon dune desert spice empire foundation robot galaxy ocean island "
+            + "mystery murder detective garden history science cooking travel").split(" ");
+    private static final int BOOKS = 100;
+    //A few covers, so they come from the memory cache as they would while scrolling back
+    private static final int THUMBNAILS = 5;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private BooksAdapter mAdapter;
+    private ViewGroup mParent;
+    private List<Book> mBooks;
+
+    @Before
+    public void setUp() {
+        Context context = new ContextThemeWrapper(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), R.style.AppTheme);
+        mParent = new FrameLayout(context);
+        mAdapter = new BooksAdapter();
+        Random random = new Random(BOOKS);
+        List<Book> books = new ArrayList<>(BOOKS);
+        for (int n = 0; n < BOOKS; n++) {
+            // Every few books without a price or an author, which hides their views
+            books.add(new Book("vol" + n, words(random, 4),
+                    "https://play.google.com/store/books/details?id=vol" + n, words(random, 80),
+                    n % 4 == 0 ? Book.NO_PRICE : 9990000, n % 5 == 0 ? "" : words(random, 2),
+                    "en", "USD",
+                    "https://books.google.com/books/content?id=vol" + (n % THUMBNAILS)));
+        }
+        mAdapter.setBooks(books);
+        mBooks = books;
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindRecycledRow() {
+        BooksAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(mParent, 0);
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            mAdapter.onBindViewHolder(holder, position);
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void createAndBindRow() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            BooksAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(mParent, 0);
+            mAdapter.onBindViewHolder(holder, position);
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindAndLayoutRow() {
+        BooksAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(mParent, 0);
+        View row = holder.itemView;
+        int width = mParent.getResources().getDisplayMetrics().widthPixels;
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            mAdapter.onBindViewHolder(holder, position);
+            row.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+            row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindRecycledRow_precomputed() {
+        BooksAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(mParent, 0);
+        BookRowText[] texts = precompute(holder);
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            holder.bind(mBooks.get(position), texts[position]);
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindAndLayoutRow_precomputed() {
+        BooksAdapter.BookViewHolder holder = mAdapter.onCreateViewHolder(mParent, 0);
+        BookRowText[] texts = precompute(holder);
+        View row = holder.itemView;
+        int width = mParent.getResources().getDisplayMetrics().widthPixels;
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            holder.bind(mBooks.get(position), texts[position]);
+            row.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+            row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    /**
+     * The work moved off the main thread, measuring the text of a row
+     */
+    @Test
+    public void precomputeRowText() {
+        PrecomputedTextCompat.Params[] params = textMetrics(
+                mAdapter.onCreateViewHolder(mParent, 0));
+        BenchmarkState state = mBenchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            BookRowText.compute(mBooks.get(position), params[0], params[1]);
+            position = (position + 1) % BOOKS;
+        }
+    }
+
+    private BookRowText[] precompute(BooksAdapter.BookViewHolder holder) {
+        PrecomputedTextCompat.Params[] params = textMetrics(holder);
+        BookRowText[] texts = new BookRowText[BOOKS];
+        for (int n = 0; n < BOOKS; n++) {
+            texts[n] = BookRowText.compute(mBooks.get(n), params[0], params[1]);
+        }
+        return texts;
+    }
+
+    private static PrecomputedTextCompat.Params[] textMetrics(BooksAdapter.BookViewHolder holder) {
+        return new PrecomputedTextCompat.Params[]{
+                TextViewCompat.getTextMetricsParams(
+                        (TextView) holder.itemView.findViewById(R.id.book_title)),
+                TextViewCompat.getTextMetricsParams(
+                        (TextView) holder.itemView.findViewById(R.id.description))};
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+}
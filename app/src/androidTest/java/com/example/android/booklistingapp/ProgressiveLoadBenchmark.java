@@ -0,0 +1,166 @@
+package com.example.android.booklistingapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time a {@link BookLoader} takes to hand the first books of a page to the main
+ * thread, and all of them, with and without streaming, against a local server sending its
+ * response at the pace of a slow mobile network.
+ * Runs on a device, the results are written to logcat under the ProgressiveLoadBenchmark tag
+ * and to ProgressiveLoadBenchmark.json, see {@link BenchmarkReport}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProgressiveLoadBenchmark {
+
+    private static final String TAG = ProgressiveLoadBenchmark.class.getSimpleName();
+    private static final int BOOKS = 40;
+    private static final int RUNS = 10;
+    //About 40 KB/s, a page of 40 books takes more than half a second to arrive
+    private static final long THROTTLE_BYTES = 2048;
+    private static final long THROTTLE_MILLIS = 50;
+
+    private static final BenchmarkReport sReport = new BenchmarkReport(TAG);
+
+    private MockWebServer mServer;
+    private FetchEngine mEngine;
+    private String mBody;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mEngine = new FetchEngine(new OkHttpTransport(), FetchEngine.MAX_PARALLEL_REQUESTS);
+        mBody = volumes(BOOKS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sReport.write();
+    }
+
+    @Test
+    public void timeToFirstBooks() throws Exception {
+        long[] streamedFirst = new long[RUNS];
+        long[] streamedAll = new long[RUNS];
+        long[] wholeFirst = new long[RUNS];
+        long[] wholeAll = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            List<Book> streamed = load(true, run, streamedFirst, streamedAll);
+            List<Book> whole = load(false, run, wholeFirst, wholeAll);
+
+            // Streaming only shows the books earlier, the page is the same
+            assertEquals(BOOKS, whole.size());
+            assertEquals(whole.size(), streamed.size());
+            for (int i = 0; i < whole.size(); i++) {
+                assertEquals(whole.get(i).getId(), streamed.get(i).getId());
+            }
+        }
+        sReport.addSamples("timeToFirstBooks_streamed", streamedFirst);
+        sReport.addSamples("timeToFirstBooks_whole", wholeFirst);
+        sReport.addSamples("timeToAllBooks_streamed", streamedAll);
+        sReport.addSamples("timeToAllBooks_whole", wholeAll);
+    }
+
+    /**
+     * Loads a throttled page on the main thread and records when its first books and all of
+     * them were delivered.
+     *
+     * @return the books of the page.
+     */
+    private List<Book> load(boolean streaming, final int run, final long[] firstNanos,
+                            final long[] allNanos) throws InterruptedException {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json; charset=UTF-8")
+                .setBody(mBody)
+                .throttleBody(THROTTLE_BYTES, THROTTLE_MILLIS, TimeUnit.MILLISECONDS));
+        // A new url each time, not to share the request of the previous run
+        String url = mServer.url("/books/v1/volumes?q=run" + run + streaming).toString();
+        final BookLoader loader = new BookLoader(mEngine, null, url, true,
+                FetchEngine.Priority.USER_SEARCH, null, streaming);
+        final Object[] books = new Object[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loader.start(new BookLoader.Callback() {
+                    @Override
+                    public void onPartialResult(BookLoader partialLoader, List<Book> partial) {
+                        if (firstNanos[run] == 0) {
+                            firstNanos[run] = System.nanoTime() - start;
+                        }
+                    }
+
+                    @Override
+                    public void onLoadFinished(BookLoader finishedLoader,
+                                               FetchResult<List<Book>> result) {
+                        allNanos[run] = System.nanoTime() - start;
+                        if (firstNanos[run] == 0) {
+                            firstNanos[run] = allNanos[run];
+                        }
+                        books[0] = result.getValue();
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        @SuppressWarnings("unchecked")
+        List<Book> page = (List<Book>) books[0];
+        return page;
+    }
+
+    /**
+     * @return a response of the volumes API with the given number of volumes.
+     */
+    private static String volumes(int count) throws JSONException {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            StringBuilder description = new StringBuilder();
+            for (int sentence = 0; sentence < 8; sentence++) {
+                description.append("Sentence ").append(sentence).append(" of the description of ")
+                        .append("book ").append(i).append(". ");
+            }
+            items.put(new JSONObject()
+                    .put("id", "volume" + i)
+                    .put("volumeInfo", new JSONObject()
+                            .put("title", "Book " + i)
+                            .put("authors", new JSONArray().put("Author " + i))
+                            .put("description", description.toString())
+                            .put("language", "en")
+                            .put("imageLinks", new JSONObject()
+                                    .put("thumbnail", "http://books.example.com/" + i + ".jpg")))
+                    .put("saleInfo", new JSONObject()
+                            .put("buyLink", "http://books.example.com/" + i)
+                            .put("retailPrice", new JSONObject()
+                                    .put("amount", 9.99)
+                                    .put("currencyCode", "USD"))));
+        }
+        return new JSONObject().put("totalItems", count).put("items", items).toString();
+    }
+}
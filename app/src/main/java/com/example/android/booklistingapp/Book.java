@@ -2,55 +2,122 @@ package com.example.android.booklistingapp;
 
 import android.net.Uri;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @link represents a book, with a title, description, price, author, language, url of the book,
  * and a picture's url.
+ * <p>
+ * Books are kept by the thousands during a session, so they are stored compactly: language and
+ * currency codes are shared between books, the price is a number of micros and the thumbnail url
+ * is only parsed when it is shown. The description is kept as a string, as UTF-8 bytes it would
+ * be decoded on each bind and take more room for CJK text; its truncated version shown in the
+ * list is computed once, and only for the books shown.
  */
 public class Book {
+
+    /**
+     * Value of the price micros for books without a price
+     */
+    public static final long NO_PRICE = -1;
+    /**
+     * Max number of characters of the description shown in the list
+     */
+    public static final int LIST_DESCRIPTION_LENGTH = 200;
+
+    /**
+     * Shared instances of the language and currency codes, a few dozen at most
+     */
+    private static final ConcurrentHashMap<String, String> CODES = new ConcurrentHashMap<>();
+
     //Variables definition:
 
+    //Google Books volume id
+    private final String mId;
+    //Volume id, or the title and author of the volumes without one
+    private final String mKey;
     //Book's title
-    private String mTitle;
+    private final String mTitle;
     //Url of the book;
-    private String mUrl;
+    private final String mUrl;
     //Book's description
-    private String mDescription;
-    //Book's price
-    private String mPrice;
+    private final String mDescription;
+    //Beginning of the description shown in the list, computed on first use
+    private String mListDescription;
+    //Book's price in millionths of the currency, or NO_PRICE
+    private final long mPriceMicros;
     //Book's author
-    private String mAuthor;
-    //Book's language
-    private String mLanguage;
-    //Currency code
-    private String mCurrencyCode;
+    private final String mAuthor;
+    //Book's language, shared code
+    private final String mLanguage;
+    //Currency code, shared code
+    private final String mCurrencyCode;
     //Thumbnail's url
+    private final String mThumbnailUrl;
+    //Thumbnail's url parsed on first use
     private Uri mThumbnail;
 
 
     /**
      * Constructs a new Attraction object including a Contact Phone Number
      *
-     * @param title       Book's title.
-     * @param url         Url of the book in google store.
-     * @param description Book's description.
-     * @param price       Book's price in google store.
-     * @param author      Book's author.
-     * @param language    Book's language
-     */
-    public Book(String title, String url, String description, String price, String author,
-                String language, String currency, Uri thumbnailImage) {
+     * @param id           Google Books volume id.
+     * @param title        Book's title.
+     * @param url          Url of the book in google store.
+     * @param description  Book's description.
+     * @param priceMicros  Book's price in google store in millionths of the currency, or
+     *                     {@link #NO_PRICE}.
+     * @param author       Book's author.
+     * @param language     Book's language
+     * @param currency     Currency code of the price, empty without a price.
+     * @param thumbnailUrl Url of the book's thumbnail, empty if it has none.
+     */
+    public Book(String id, String title, String url, String description, long priceMicros,
+                String author, String language, String currency, String thumbnailUrl) {
+        mId = id;
+        mKey = id.isEmpty() ? title + '\n' + author : id;
         mTitle = title;
         mUrl = url;
         mDescription = description;
-        mPrice = price;
+        mPriceMicros = priceMicros;
         mAuthor = author;
-        mLanguage = language;
-        mCurrencyCode = currency;
-        mThumbnail = thumbnailImage;
+        mLanguage = internCode(language);
+        mCurrencyCode = internCode(currency);
+        mThumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Returns the shared instance of a language or currency code
+     */
+    static String internCode(String code) {
+        String shared = CODES.putIfAbsent(code, code);
+        return shared != null ? shared : code;
+    }
+
+    /**
+     * Converts a price to millionths of the currency
+     */
+    public static long toMicros(double amount) {
+        return Math.round(amount * 1000000);
     }
 
     //Methods
 
+    /**
+     * @return the Google Books volume id, unique for each book
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return what tells the book apart from the others: its volume id, or its title and author
+     * for the few volumes returned without an id, which would all look like the same book.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
     /**
      * @return the title of the book
      */
@@ -73,10 +140,58 @@ public class Book {
     }
 
     /**
-     * @return the price of the book
+     * @return whether both books have the same description
+     */
+    public boolean hasSameDescription(Book other) {
+        return mDescription.equals(other.mDescription);
+    }
+
+    /**
+     * @return the beginning of the description, cut at a word boundary, to be shown in the list.
+     * It is computed on the first call, a race only computes it twice.
+     */
+    public String getListDescription() {
+        String listDescription = mListDescription;
+        if (listDescription == null) {
+            listDescription = truncate(mDescription);
+            mListDescription = listDescription;
+        }
+        return listDescription;
+    }
+
+    /**
+     * Cuts the description at a word boundary, short ones are returned as they are
+     */
+    private static String truncate(String description) {
+        if (description.length() <= LIST_DESCRIPTION_LENGTH) {
+            return description;
+        }
+        int end = description.lastIndexOf(' ', LIST_DESCRIPTION_LENGTH);
+        if (end <= 0) {
+            end = LIST_DESCRIPTION_LENGTH;
+        }
+        return description.substring(0, end) + "…";
+    }
+
+    /**
+     * @return whether the book has a price
+     */
+    public boolean hasPrice() {
+        return mPriceMicros != NO_PRICE && !mCurrencyCode.isEmpty();
+    }
+
+    /**
+     * @return the price of the book in millionths of the currency, or {@link #NO_PRICE}
+     */
+    public long getPriceMicros() {
+        return mPriceMicros;
+    }
+
+    /**
+     * @return the price of the book as a decimal number, empty without a price
      */
     public String getPrice() {
-        return mPrice;
+        return mPriceMicros == NO_PRICE ? "" : String.valueOf(mPriceMicros / 1000000.0);
     }
 
     /**
@@ -101,10 +216,23 @@ public class Book {
     }
 
     /**
-     * @return the thumbnail's drawable
+     * @return the thumbnail's url, without parsing it
+     */
+    public String getThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+
+    /**
+     * @return the thumbnail's drawable, or null if the volume has none.
      */
     public Uri getThumbnailImage() {
-        return mThumbnail;
+        // Parsed on first use, most books are never shown. Uri is immutable, a race only parses
+        // it twice.
+        Uri thumbnail = mThumbnail;
+        if (thumbnail == null && !mThumbnailUrl.isEmpty()) {
+            thumbnail = Uri.parse(mThumbnailUrl);
+            mThumbnail = thumbnail;
+        }
+        return thumbnail;
     }
 }
-
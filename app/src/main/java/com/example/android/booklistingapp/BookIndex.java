@@ -0,0 +1,470 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device full-text index of every {@link Book} fetched so far, backed by SQLite FTS4.
+ * <p>
+ * The books are stored in a plain table keyed by volume id and their title, author, description
+ * and language are indexed in an FTS4 table sharing the same rowid. Searches return the best
+ * matches first, ranked by SQLite with title hits weighing more than author, description and
+ * language hits.
+ * Writes are batched in one transaction per call and run on their own background thread, so
+ * they never delay a search.
+ * <p>
+ * The index also keeps the books of the last results of each request url, in order, so a
+ * search can show the results it got before right away, even offline, while they are
+ * revalidated over the network. When the oldest results are dropped, the books no result
+ * holds anymore are dropped with them.
+ */
+public class BookIndex extends SQLiteOpenHelper {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = BookIndex.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "book_index.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_FTS = "books_fts";
+    //Request urls with stored results, and the books of each result by position
+    private static final String TABLE_RESULTS = "results";
+    private static final String TABLE_RESULT_BOOKS = "result_books";
+
+    /**
+     * Max number of results stored, the least recently stored ones and the books only they held
+     * are dropped beyond it
+     */
+    static final int MAX_STORED_RESULTS = 200;
+
+    //Columns of the books table read into a book, from the table aliased b
+    private static final String BOOK_COLUMNS = "b.volume_id, b.title, b.url, b.description,"
+            + " b.price_micros, b.author, b.language, b.currency, b.thumbnail";
+
+    /**
+     * Columns of the FTS table and the weight of a hit in each of them
+     */
+    private static final String[] FTS_COLUMNS = {"title", "author", "description", "language"};
+    private static final double[] COLUMN_WEIGHTS = {10.0, 5.0, 1.0, 0.5};
+
+    private static BookIndex sInstance;
+
+    //Writes are queued on their own thread so a big batch doesn't delay the searches
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService mQueryExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Receives the results of {@link #searchAsync(String, int, Callback)} and
+     * {@link #getResultAsync(String, List, Callback)} on the main thread.
+     */
+    public interface Callback {
+        void onResults(String query, List<Book> books);
+    }
+
+    /**
+     * Constructs a new {@link BookIndex}.
+     *
+     * @param context to open the database with.
+     * @param name    of the database file, null for an in-memory database.
+     */
+    public BookIndex(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // Let the searches read while a batch is being written
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * @return the index shared by the whole app.
+     */
+    public static synchronized BookIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookIndex(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "volume_id TEXT NOT NULL UNIQUE, "
+                + "title TEXT, url TEXT, description TEXT, price_micros INTEGER, author TEXT, "
+                + "language TEXT, currency TEXT, thumbnail TEXT)");
+        // The FTS table only holds the indexed text, its docid is the rowid in the books table
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4("
+                + "title, author, description, language, prefix=\"2,3\")");
+        db.execSQL("CREATE TABLE " + TABLE_RESULTS + " ("
+                + "url TEXT PRIMARY KEY, stored_at INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_RESULT_BOOKS + " ("
+                + "url TEXT NOT NULL, position INTEGER NOT NULL, book_id INTEGER NOT NULL, "
+                + "PRIMARY KEY (url, position))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index only holds copies of fetched results, it can be rebuilt from scratch
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_RESULT_BOOKS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_RESULTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Indexes the books on the background write thread.
+     */
+    public void addAllAsync(List<Book> books) {
+        final List<Book> batch = new ArrayList<>(books);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                addAll(batch);
+            }
+        });
+    }
+
+    /**
+     * Indexes the books in a single transaction, replacing the ones already indexed.
+     * Must not be called on the main thread.
+     */
+    public void addAll(List<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            writeBooks(db, books);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores the books as the result of the request url on the background write thread.
+     */
+    public void putResultAsync(final String requestUrl, List<Book> books) {
+        final List<Book> batch = new ArrayList<>(books);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                putResult(requestUrl, batch, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Indexes the books and stores them as the result of the request url, replacing its
+     * previous result, in a single transaction. Must not be called on the main thread.
+     *
+     * @param storedAt when the result was received, the oldest results are dropped first.
+     */
+    public void putResult(String requestUrl, List<Book> books, long storedAt) {
+        String key = BooksCache.keyFor(requestUrl);
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insertResult = db.compileStatement("INSERT OR REPLACE INTO "
+                + TABLE_RESULTS + " (url, stored_at) VALUES (?, ?)");
+        SQLiteStatement insertResultBook = db.compileStatement("INSERT INTO " + TABLE_RESULT_BOOKS
+                + " (url, position, book_id) VALUES (?, ?, ?)");
+        String oldest = "SELECT url FROM " + TABLE_RESULTS
+                + " ORDER BY stored_at DESC LIMIT -1 OFFSET " + MAX_STORED_RESULTS;
+        SQLiteStatement deleteOldest = db.compileStatement(
+                "DELETE FROM " + TABLE_RESULTS + " WHERE url IN (" + oldest + ")");
+        db.beginTransaction();
+        try {
+            long[] rowIds = writeBooks(db, books);
+            db.delete(TABLE_RESULT_BOOKS, "url = ?", new String[]{key});
+            for (int position = 0; position < rowIds.length; position++) {
+                insertResultBook.bindString(1, key);
+                insertResultBook.bindLong(2, position);
+                insertResultBook.bindLong(3, rowIds[position]);
+                insertResultBook.executeInsert();
+            }
+            insertResult.bindString(1, key);
+            insertResult.bindLong(2, storedAt);
+            insertResult.executeInsert();
+
+            // Drop the oldest results beyond the max, and the books no other result holds
+            db.execSQL("DELETE FROM " + TABLE_RESULT_BOOKS + " WHERE url IN (" + oldest + ")");
+            if (deleteOldest.executeUpdateDelete() > 0) {
+                String held = "SELECT book_id FROM " + TABLE_RESULT_BOOKS;
+                db.execSQL("DELETE FROM " + TABLE_FTS + " WHERE docid NOT IN (" + held + ")");
+                db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE _id NOT IN (" + held + ")");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertResult.close();
+            insertResultBook.close();
+            deleteOldest.close();
+        }
+    }
+
+    /**
+     * Writes the books in the transaction of the caller, replacing the ones already indexed.
+     * A book fetched without its description or thumbnail, on a slow network, keeps the ones
+     * already indexed.
+     *
+     * @return the rowid of each book.
+     */
+    private static long[] writeBooks(SQLiteDatabase db, List<Book> books) {
+        long[] rowIds = new long[books.size()];
+        SQLiteStatement insertBook = db.compileStatement("INSERT INTO " + TABLE_BOOKS
+                + " (volume_id, title, url, description, price_micros, author, language, currency,"
+                + " thumbnail) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement updateBook = db.compileStatement("UPDATE " + TABLE_BOOKS
+                + " SET volume_id = ?, title = ?, url = ?,"
+                + " description = COALESCE(NULLIF(?, ''), description), price_micros = ?,"
+                + " author = ?, language = ?, currency = ?,"
+                + " thumbnail = COALESCE(NULLIF(?, ''), thumbnail) WHERE _id = ?");
+        SQLiteStatement deleteText = db.compileStatement(
+                "DELETE FROM " + TABLE_FTS + " WHERE docid = ?");
+        //The text is indexed as stored, with the description kept
+        SQLiteStatement insertText = db.compileStatement("INSERT INTO " + TABLE_FTS
+                + " (docid, title, author, description, language) SELECT _id, title, author,"
+                + " description, language FROM " + TABLE_BOOKS + " WHERE _id = ?");
+        try {
+            for (int i = 0; i < books.size(); i++) {
+                Book book = books.get(i);
+                // Books already indexed keep their rowid, their text is indexed again
+                long rowId = findRowId(db, book.getKey());
+                if (rowId == -1) {
+                    bindBook(insertBook, book);
+                    rowId = insertBook.executeInsert();
+                } else {
+                    bindBook(updateBook, book);
+                    updateBook.bindLong(10, rowId);
+                    updateBook.executeUpdateDelete();
+                    deleteText.bindLong(1, rowId);
+                    deleteText.executeUpdateDelete();
+                }
+                rowIds[i] = rowId;
+
+                insertText.bindLong(1, rowId);
+                insertText.executeInsert();
+            }
+        } finally {
+            insertBook.close();
+            updateBook.close();
+            deleteText.close();
+            insertText.close();
+        }
+        return rowIds;
+    }
+
+    /**
+     * @return the rowid of the indexed book with the volume id, or -1 if it isn't indexed.
+     */
+    private static long findRowId(SQLiteDatabase db, String volumeId) {
+        Cursor cursor = db.rawQuery("SELECT _id FROM " + TABLE_BOOKS + " WHERE volume_id = ?",
+                new String[]{volumeId});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Binds the fields of the book to the first nine parameters of the statement
+     */
+    private static void bindBook(SQLiteStatement statement, Book book) {
+        // The volumes without an id are indexed under their key, read back as their id
+        statement.bindString(1, book.getKey());
+        statement.bindString(2, book.getTitle());
+        statement.bindString(3, book.getUrl());
+        statement.bindString(4, book.getDescription());
+        statement.bindLong(5, book.getPriceMicros());
+        statement.bindString(6, book.getAuthor());
+        statement.bindString(7, book.getLanguage());
+        statement.bindString(8, book.getCurrencyCode());
+        statement.bindString(9, book.getThumbnailUrl());
+    }
+
+    /**
+     * Reads the stored results of the urls on a background thread and delivers them on the main
+     * thread, along with the query they are for.
+     */
+    public void getResultAsync(final String query, final List<String> requestUrls,
+                               final Callback callback) {
+        mQueryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Book> books = getResult(requestUrls);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResults(query, books);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the books stored as the results of the urls, in order and merged without
+     * duplicates, or an empty list if none of them has a stored result.
+     * Must not be called on the main thread.
+     */
+    public List<Book> getResult(List<String> requestUrls) {
+        List<Book> books = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        SQLiteDatabase db = getReadableDatabase();
+        for (String requestUrl : requestUrls) {
+            // One join reads every book of the result
+            Cursor cursor = db.rawQuery("SELECT " + BOOK_COLUMNS + " FROM " + TABLE_RESULT_BOOKS
+                            + " r JOIN " + TABLE_BOOKS + " b ON b._id = r.book_id"
+                            + " WHERE r.url = ? ORDER BY r.position",
+                    new String[]{BooksCache.keyFor(requestUrl)});
+            try {
+                while (cursor.moveToNext()) {
+                    Book book = readBook(cursor);
+                    if (ids.add(book.getKey())) {
+                        books.add(book);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Searches the index on a background thread and delivers the results on the main thread.
+     */
+    public void searchAsync(final String query, final int limit, final Callback callback) {
+        mQueryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Book> books = search(query, limit);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResults(query, books);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the indexed books matching every word of the query, best matches first.
+     * The last word matches as a prefix, as the user may still be typing it.
+     * Must not be called on the main thread.
+     */
+    public List<Book> search(String query, int limit) {
+        String match = toMatchExpression(query);
+        if (match == null) {
+            return new ArrayList<>();
+        }
+
+        // SQLite ranks the matches and only reads the best ones, joined with their books
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        String rank = toRankExpression(match, args);
+        args.add(String.valueOf(limit));
+        List<Book> books = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + BOOK_COLUMNS + " FROM " + TABLE_FTS
+                        + " JOIN " + TABLE_BOOKS + " b ON b._id = " + TABLE_FTS
+                        + ".docid WHERE " + TABLE_FTS + " MATCH ? ORDER BY " + rank + " DESC, "
+                        + TABLE_FTS + ".docid LIMIT ?",
+                args.toArray(new String[args.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                books.add(readBook(cursor));
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Problem searching the index for " + query, e);
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    /**
+     * @return the number of indexed books.
+     */
+    public long size() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_BOOKS);
+    }
+
+    /**
+     * Builds the book of the current row of a cursor over the {@link #BOOK_COLUMNS}
+     */
+    private static Book readBook(Cursor cursor) {
+        return new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), cursor.getLong(4), cursor.getString(5),
+                cursor.getString(6), cursor.getString(7), cursor.getString(8));
+    }
+
+    /**
+     * Turns the user input into an FTS MATCH expression requiring every word, or null if the
+     * input has no words. Everything but letters and digits is dropped so the input can't
+     * contain FTS operators.
+     */
+    static String toMatchExpression(String query) {
+        String[] words = query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word);
+        }
+        if (match.length() == 0) {
+            return null;
+        }
+        // The word being typed matches as a prefix
+        return match.append('*').toString();
+    }
+
+    /**
+     * Returns the SQL expression ranking a row of the FTS table for the match expression, adding
+     * its arguments. Each word found in a column counts the weight of the column, divided by the
+     * number of rows with the word in that column so rare words count more.
+     */
+    private static String toRankExpression(String match, List<String> args) {
+        StringBuilder rank = new StringBuilder();
+        for (int c = 0; c < FTS_COLUMNS.length; c++) {
+            for (String word : match.split(" ")) {
+                if (rank.length() > 0) {
+                    rank.append(" + ");
+                }
+                // Both sub-queries don't depend on the row, SQLite runs them once
+                String rows = " FROM " + TABLE_FTS + " WHERE " + TABLE_FTS + " MATCH ?";
+                rank.append("(CASE WHEN ").append(TABLE_FTS).append(".docid IN (SELECT docid")
+                        .append(rows).append(") THEN ").append(COLUMN_WEIGHTS[c])
+                        .append(" / (SELECT COUNT(*)").append(rows).append(") ELSE 0 END)");
+                args.add(FTS_COLUMNS[c] + ":" + word);
+                args.add(FTS_COLUMNS[c] + ":" + word);
+            }
+        }
+        return rank.toString();
+    }
+}
@@ -1,61 +1,265 @@
 package com.example.android.booklistingapp;
 
-import android.content.AsyncTaskLoader;
-import android.content.Context;
-import android.util.Log;
-
-import androidx.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-public class BookLoader extends AsyncTaskLoader {
+/**
+ * Loads a page of results on the {@link FetchEngine} and hands it to its {@link Callback} on
+ * the main thread.
+ * <p>
+ * A page with several urls is a fan-out search, their results are merged and the partial
+ * results are shown while the slowest sub-queries are still running. Without a connection only
+ * the cached results are served, even stale ones.
+ * <p>
+ * A streaming load shows the books of a response in batches while it is still being read, the
+ * first rows appear before the whole page is downloaded. The final result lists the same books
+ * in the same order, the batches only show them earlier.
+ * <p>
+ * A result loaded without downloading a byte came from the cache, if it was prefetched it counts
+ * as used in the {@link PrefetchLedger}.
+ */
+public class BookLoader {
 
     /**
      * Tag for the log messages
      */
     public static final String LOG_TAG = BookLoader.class.getSimpleName();
     /**
-     * String containing the Url
+     * Max time a fan-out search waits for its slowest sub-query
+     */
+    public static final long FAN_OUT_TIMEOUT_MILLIS = 8000;
+
+    private final FetchEngine mEngine;
+    private final BooksCache mCache;
+    /**
+     * Urls to load the data from, more than one for a fan-out search
+     */
+    private final List<String> mUrls;
+    /**
+     * Whether there is a network connection, when offline only cached results are served
+     */
+    private final boolean mConnected;
+    private final FetchEngine.Priority mPriority;
+    private final PrefetchLedger mLedger;
+    /**
+     * Whether the books are delivered in batches while the responses are read
+     */
+    private final boolean mStreaming;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private Callback mCallback;
+    private FanOutSearch mSearch;
+    /**
+     * Whether the load was cancelled or its result delivered, only accessed on the main thread
      */
-    private String mUrl;
+    private boolean mCancelled;
+    private boolean mFinished;
+
+    /**
+     * Receives the results of a load on the main thread, nothing is delivered once the load is
+     * cancelled.
+     */
+    public interface Callback {
+
+        /**
+         * Called with the books merged so far while the sub-queries of a fan-out search are
+         * still running, or while the response is read for a streaming load.
+         */
+        void onPartialResult(BookLoader loader, List<Book> books);
+
+        /**
+         * Called once with the books of the page, or why they couldn't be loaded.
+         */
+        void onLoadFinished(BookLoader loader, FetchResult<List<Book>> result);
+    }
 
     /**
      * Constructs a new {@link BookLoader}.
      *
-     * @param context of the activity
-     * @param url     to load data from
+     * @param cache     where results are looked for and stored.
+     * @param url       to load data from.
+     * @param connected whether the network can be used.
+     * @param priority  of the requests on the engine.
+     * @param ledger    where the use of the prefetched results is counted, null not to count it.
+     * @param streaming whether the books are delivered in batches while the response is read.
+     */
+    public BookLoader(FetchEngine engine, BooksCache cache, String url, boolean connected,
+                      FetchEngine.Priority priority, PrefetchLedger ledger, boolean streaming) {
+        this(engine, cache, Collections.singletonList(url), connected, priority, ledger,
+                streaming);
+    }
+
+    /**
+     * Constructs a new {@link BookLoader} for a fan-out search, the urls are fetched in parallel
+     * and their results merged.
+     *
+     * @param cache     where results are looked for and stored.
+     * @param urls      to load data from, the results of the first one are shown first.
+     * @param connected whether the network can be used.
+     * @param priority  of the requests on the engine.
+     * @param ledger    where the use of the prefetched results is counted, null not to count it.
+     * @param streaming whether the books are delivered in batches while the responses are read.
      */
-    public BookLoader(Context context, String url) {
-        super(context);
-        mUrl = url;
+    public BookLoader(FetchEngine engine, BooksCache cache, List<String> urls, boolean connected,
+                      FetchEngine.Priority priority, PrefetchLedger ledger, boolean streaming) {
+        mEngine = engine;
+        mCache = cache;
+        mUrls = urls;
+        mConnected = connected;
+        mPriority = priority;
+        mLedger = ledger;
+        mStreaming = streaming;
     }
 
     /**
-     * First method executed in the loader
-     * forceLoad() initiliazes the loader
+     * Starts the load, called on the main thread.
      */
-    @Override
-    protected void onStartLoading() {
-        forceLoad();
+    public void start(Callback callback) {
+        mCallback = callback;
+
+        List<FanOutSearch.SubQuery> subQueries = new ArrayList<>();
+        List<String> keys = null;
+        if (!mConnected) {
+            // Without a connection serve whatever was cached for the search, even stale results
+            subQueries.add(new FanOutSearch.SubQuery() {
+                @Override
+                public FetchEngine.Task<List<Book>> newTask(QueryUtils.BatchListener listener) {
+                    return new FetchEngine.Task<List<Book>>() {
+                        @Override
+                        public List<Book> run(Transport transport,
+                                              FetchEngine.Cancellation cancellation)
+                                throws IOException {
+                            return getStale();
+                        }
+                    };
+                }
+            });
+        } else {
+            // Performs a network request to each url, unless a fresh result is cached, and
+            // revalidates stale cached results. A url already in flight for another loader or
+            // a prefetch shares its request instead of downloading and parsing it again
+            keys = new ArrayList<>();
+            for (final String url : mUrls) {
+                keys.add(BooksCache.requestKeyFor(url));
+                subQueries.add(new FanOutSearch.SubQuery() {
+                    @Override
+                    public FetchEngine.Task<List<Book>> newTask(
+                            QueryUtils.BatchListener listener) {
+                        // Without streaming the books only come with the result
+                        QueryUtils.BatchListener batches = mStreaming ? listener : null;
+                        return mLedger != null ? countingUse(url, batches)
+                                : QueryUtils.fetchTask(url, mCache, batches);
+                    }
+                });
+            }
+        }
+
+        // Fan-out search, show the results of the fastest sub-queries while the others run
+        long timeoutMillis = subQueries.size() > 1 ? FAN_OUT_TIMEOUT_MILLIS : 0;
+        mSearch = FanOutSearch.startStreaming(mEngine, mPriority, keys, subQueries,
+                timeoutMillis, new FanOutSearch.Listener() {
+                    @Override
+                    public void onPartialResult(final List<Book> books) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!mCancelled && !mFinished) {
+                                    mCallback.onPartialResult(BookLoader.this, books);
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onComplete(final FetchResult<List<Book>> result) {
+                        final long completedAt = MetricsRegistry.now();
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!mCancelled && !mFinished) {
+                                    mFinished = true;
+                                    MetricsRegistry.record(MetricsRegistry.MAIN_DELIVER, completedAt);
+                                    mCallback.onLoadFinished(BookLoader.this, result);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Called on the main thread when a newer search replaces this load.
+     * Instead of letting the requests finish just to drop their result, the HTTP calls and the
+     * parsing of their responses are cancelled, unless another loader still waits for them.
+     */
+    public void cancel() {
+        if (mCancelled || mSearch == null) {
+            return;
+        }
+        mCancelled = true;
+        if (!mFinished) {
+            SearchMetrics.get().onCancelled();
+        }
+        mSearch.cancel();
     }
 
-    @Nullable
-    @Override
-    public Object loadInBackground() {
-        try {
-            if (mUrl == null) {
-                return null;
+    /**
+     * Returns the task fetching the url, which tells the ledger when its result was served from
+     * the cache: fresh, revalidated with a 304 or stale while the server is overloaded
+     *
+     * @param listener receives the books in batches while they are parsed, may be null.
+     */
+    private FetchEngine.Task<List<Book>> countingUse(final String url,
+                                                     QueryUtils.BatchListener listener) {
+        final FetchEngine.Task<List<Book>> task = QueryUtils.fetchTask(url, mCache, listener);
+        return new FetchEngine.Task<List<Book>>() {
+            @Override
+            public List<Book> run(Transport transport, FetchEngine.Cancellation cancellation)
+                    throws IOException, FetchException {
+                ByteCountingTransport counting = new ByteCountingTransport(transport);
+                List<Book> books = task.run(counting, cancellation);
+                if (counting.getBytesRead() == 0) {
+                    mLedger.onServedFromCache(url);
+                } else {
+                    mLedger.onDownloaded(url);
+                }
+                return books;
             }
+        };
+    }
 
-            /**
-             * Performs a network request to the string url passed.
-             * Returns a List with the data of the googleBooks API.
-             */
-            List<Book> result = QueryUtils.fetchBooks(mUrl);
-            return result;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Error while fetching data: " + e);
-            return null;
+    /**
+     * Returns the cached results of every url merged without duplicates
+     *
+     * @throws IOException if none is cached, there is nothing to show offline.
+     */
+    private List<Book> getStale() throws IOException {
+        List<Book> merged = null;
+        Set<String> ids = new HashSet<>();
+        for (String url : mUrls) {
+            List<Book> books = mCache.getStale(url);
+            if (books == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new ArrayList<>();
+            }
+            for (Book book : books) {
+                if (ids.add(book.getKey())) {
+                    merged.add(book);
+                }
+            }
+        }
+        if (merged == null) {
+            throw new IOException("No connection and no cached results");
         }
+        return merged;
     }
 }
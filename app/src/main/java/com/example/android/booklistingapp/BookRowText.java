@@ -0,0 +1,73 @@
+package com.example.android.booklistingapp;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+/**
+ * Text of the row of a book in the list, measured ahead of time off the main thread.
+ * <p>
+ * Measuring the glyphs of the title and of the description is most of the work of binding a
+ * row, {@link PrecomputedTextCompat} does it once in background so the row only has to be
+ * handed the result.
+ */
+final class BookRowText {
+
+    //Book the text was computed for
+    private final Book mBook;
+    private final PrecomputedTextCompat mTitle;
+    //Null without a description
+    private final PrecomputedTextCompat mDescription;
+    //Formatted price, null without a price
+    private final String mPrice;
+
+    private BookRowText(Book book, PrecomputedTextCompat title,
+                        PrecomputedTextCompat description, String price) {
+        mBook = book;
+        mTitle = title;
+        mDescription = description;
+        mPrice = price;
+    }
+
+    /**
+     * Measures the text of the row of the book, called on a background thread.
+     *
+     * @param titleParams       text metrics of the title view of the rows.
+     * @param descriptionParams text metrics of the description view of the rows.
+     */
+    static BookRowText compute(Book book, PrecomputedTextCompat.Params titleParams,
+                               PrecomputedTextCompat.Params descriptionParams) {
+        String description = book.getListDescription();
+        return new BookRowText(book,
+                PrecomputedTextCompat.create(book.getTitle(), titleParams),
+                description.isEmpty() ? null
+                        : PrecomputedTextCompat.create(description, descriptionParams),
+                book.hasPrice()
+                        ? PriceFormatter.format(book.getPriceMicros(), book.getCurrencyCode())
+                        : null);
+    }
+
+    /**
+     * @return whether the text was computed for this book, and not an older copy of it.
+     */
+    boolean isFor(Book book) {
+        return mBook == book;
+    }
+
+    PrecomputedTextCompat getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * @return whether the book has a description to show.
+     */
+    boolean hasDescription() {
+        return mDescription != null;
+    }
+
+    PrecomputedTextCompat getDescription() {
+        return mDescription;
+    }
+
+    String getPrice() {
+        return mPrice;
+    }
+}
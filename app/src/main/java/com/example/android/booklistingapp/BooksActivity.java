@@ -1,209 +1,292 @@
 package com.example.android.booklistingapp;
 
-import android.app.LoaderManager;
-import android.content.Context;
-import android.content.Loader;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.ProgressBar;
 import android.widget.SearchView;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
+import com.squareup.picasso.Picasso;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
-public class BooksActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>> {
+public class BooksActivity extends AppCompatActivity {
 
     /**
-     * Constant value for our loader ID
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = BooksActivity.class.getSimpleName();
+    /**
+     * The next page is requested when the user scrolls within this many rows of the end
      */
-    private static final int BOOK_LOADER_ID = 1;
+    private static final int PREFETCH_DISTANCE = 5;
     /**
      * Adapter for the list of books
      */
     private BooksAdapter mAdapter;
     /**
-     * URL for book data from the Google Books dataset
+     * Layout manager of the list showing the books
      */
-    private String google_request_url;
+    private LinearLayoutManager mLayoutManager;
     /**
-     * Boolean holding state of connection
+     * Search and books shown, kept across configuration changes and process death
      */
-    private boolean isConnected;
+    private BooksViewModel mViewModel;
+    /**
+     * Whether the list has to scroll back to the saved position once the books are shown
+     */
+    private boolean mRestoreScrollPosition;
+    /**
+     * Delays the searches triggered while the user types
+     */
+    private SearchDebouncer mSearchDebouncer;
+    /**
+     * When the last search was triggered, until the first frame with its books is drawn
+     */
+    private long mSearchStartNanos;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        MetricsRegistry.setEnabled(getResources().getBoolean(R.bool.search_metrics));
+        // Counted even while the stages aren't timed, see dump()
+        MetricsRegistry registry = MetricsRegistry.get();
+        registry.registerCounters("search", SearchMetrics.get());
+        registry.registerCounters("resilience", ResilienceMetrics.get());
+        registry.registerCounters("parse", ParseMetrics.get());
+        registry.registerCounters("fetch", FetchEngine.get());
+        registry.registerCounters("network", NetworkQuality.get());
         setContentView(R.layout.activity_main);
 
         //Find ProgressBar
-        ProgressBar mProgressCircle = findViewById(R.id.progress_circle);
-
-        // Find a reference to the {@link ListView} in the layout
-        ListView booksList = findViewById(R.id.list);
-
-        //Sets an empty state of the list view in case of no earthquakes
-        booksList.setEmptyView(findViewById(R.id.empty_state));
-
-        // Create a new adapter that takes an empty list of books as input
-        mAdapter = new BooksAdapter(this, new ArrayList<Book>());
-
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        final ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        //Check Connection
-        connected(connMgr);
-
-        // If there is a network connection initialize the loader
-        if (isConnected) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(BOOK_LOADER_ID, null, this);
-
-        } else {
-            // Otherwise, display error
-            noInternet();
-        }
-
-        //Find the view of the search button and add a listener to it, when clicked replace the
-        // query url.
+        final ProgressBar mProgressCircle = findViewById(R.id.progress_circle);
+
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView booksList = findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        booksList.setLayoutManager(mLayoutManager);
+
+        // Create a new adapter without books
+        mAdapter = new BooksAdapter();
+
+        // Get the view model of the search, after a rotation it still holds the books shown and
+        // after process death it reads them back from the cache
+        mViewModel = new ViewModelProvider(this).get(BooksViewModel.class);
+        mRestoreScrollPosition = savedInstanceState != null;
+
+        // Keep the results of the queries searched the most warm in the caches
+        PrefetchWorker.schedule(this);
+
+        //Search as the user types, once no key has been pressed for the debounce delay. The
+        // searches the user stays on are recorded, like the ones submitted
+        mSearchDebouncer = new SearchDebouncer(new Handler(Looper.getMainLooper()),
+                getResources().getInteger(R.integer.search_debounce_millis),
+                getResources().getInteger(R.integer.search_keep_millis),
+                new SearchDebouncer.Listener() {
+                    @Override
+                    public void onSearch(CharSequence query) {
+                        search(query);
+                    }
+
+                    @Override
+                    public void onSearchKept(CharSequence query) {
+                        QueryHistory.getInstance(BooksActivity.this).recordAsync(query);
+                    }
+                });
+
+        //Find the view of the search button and add a listener to it, when clicked search for
+        // the user input right away.
+        final SearchView searchView = findViewById(R.id.search_view);
         TextView searchButton = findViewById(R.id.search_button);
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                //Check the connection
-                connected(connMgr);
+                mSearchDebouncer.searchNow(searchView.getQuery());
+            }
+        });
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mSearchDebouncer.searchNow(query);
+                return true;
+            }
 
-                if (isConnected) {
-                    //Fetch the user input
-                    SearchView searchView = findViewById(R.id.search_view);
-                    //Add the query to the url
-                    google_request_url = toGoogleQueryUrl(searchView.getQuery());
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchDebouncer.onQueryChanged(newText);
+                return true;
+            }
+        });
 
-                    //Restart the loader so it downloads the new information
-                    restartLoader();
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        booksList.setAdapter(mAdapter);
 
-                } else {
-                    noInternet();
+        // Prefetch the next page of results when the user gets close to the end of the list
+        booksList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                //Don't decode thumbnails of rows flying by, only once the list slows down
+                Picasso picasso = ThumbnailLoader.get(BooksActivity.this);
+                if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                    picasso.pauseTag(ThumbnailLoader.TAG);
+                    return;
+                }
+                picasso.resumeTag(ThumbnailLoader.TAG);
+                //Once idle, get the thumbnails of the next screen ready
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    int first = mLayoutManager.findFirstVisibleItemPosition();
+                    int last = mLayoutManager.findLastVisibleItemPosition();
+                    if (first != RecyclerView.NO_POSITION) {
+                        mAdapter.prefetchThumbnails(BooksActivity.this, last + 1,
+                                last + 1 + (last - first + 1));
+                    }
                 }
-
             }
 
-            ;
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && mLayoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    mViewModel.loadNextPage();
+                }
+            }
         });
 
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        booksList.setAdapter(mAdapter);
-    }
-
-    /**
-     * Loader methods
-     */
+        // Show the books of the view model, only the rows that changed are updated
+        final RecyclerView list = booksList;
+        mViewModel.getBooks().observe(this, new Observer<List<Book>>() {
+            @Override
+            public void onChanged(List<Book> books) {
+                // The books are shown once the text of their rows is measured
+                final boolean restoreScrollPosition = mRestoreScrollPosition && !books.isEmpty();
+                if (restoreScrollPosition) {
+                    mRestoreScrollPosition = false;
+                }
+                // Time the search until the first frame showing its books
+                final long start = mSearchStartNanos;
+                mSearchStartNanos = 0;
+                mAdapter.setBooks(books, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (restoreScrollPosition) {
+                            mLayoutManager.scrollToPosition(mViewModel.getScrollPosition());
+                        }
+                        if (start != 0) {
+                            recordOnNextFrame(list, start);
+                        }
+                    }
+                });
+            }
+        });
 
-    @Override
-    public Loader<List<Book>> onCreateLoader(int i, Bundle bundle) {
-        //When the loader is initialized it creates a new loader that will download and parse the
-        //JSON data from google books api
-        return new BookLoader(this, google_request_url);
-    }
+        // Show the loading circle while the first page loads
+        mViewModel.isLoading().observe(this, new Observer<Boolean>() {
+            @Override
+            public void onChanged(Boolean loading) {
+                mProgressCircle.setVisibility(loading ? View.VISIBLE : View.GONE);
+            }
+        });
 
-    @Override
-    public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
-        //Find ProgressBar
-        ProgressBar mProgressCircle = findViewById(R.id.progress_circle);
-        //Hide the progress circle when finished loading
-        mProgressCircle.setVisibility(View.GONE);
-
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
-
-        // If there is a valid list of {@link books}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
-        } else {
-            // Set empty state text to display "No books found." Only if there is no books
-            TextView emptyStateView = findViewById(R.id.empty_state);
-            emptyStateView.setText(R.string.empty_state);
-        }
-    }
+        // Show the empty state when there are no books to show, and why
+        mViewModel.getMessage().observe(this, new Observer<Integer>() {
+            @Override
+            public void onChanged(Integer message) {
+                TextView emptyStateView = findViewById(R.id.empty_state);
+                if (message == 0) {
+                    emptyStateView.setVisibility(View.GONE);
+                } else {
+                    emptyStateView.setText(message);
+                    emptyStateView.setVisibility(View.VISIBLE);
+                }
+            }
+        });
 
-    @Override
-    public void onLoaderReset(Loader<List<Book>> loader) {
-        // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        // Offer to load the next page again when it failed, scrolling doesn't retry it
+        final TextView nextPageErrorView = findViewById(R.id.next_page_error);
+        nextPageErrorView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mViewModel.retryPage();
+            }
+        });
+        mViewModel.hasPageFailed().observe(this, new Observer<Boolean>() {
+            @Override
+            public void onChanged(Boolean failed) {
+                nextPageErrorView.setVisibility(failed ? View.VISIBLE : View.GONE);
+            }
+        });
     }
 
     /**
-     * Helper method that transforms a CharSequence google books query URL
+     * Starts a search for the query, timed when the metrics are enabled
      */
-    public String toGoogleQueryUrl(CharSequence userInput) {
-        //Transform the CharSequence to string
-        String userString = userInput.toString();
-        //Replace the spaces with + so it can work in the query
-        if (userString.contains(" ")) {
-            userString = userString.replaceAll("\\s", "+");
-        }
-        //Add the query to the url
-        return "https://www.googleapis.com/books/v1/volumes?q="
-                + userString + "&filter=paid-ebooks&maxResults=20";
+    private void search(CharSequence query) {
+        mSearchStartNanos = MetricsRegistry.now();
+        mViewModel.search(query);
     }
 
     /**
-     * Helper that checks the state of connection
+     * Records the time of the search once the next frame of the list is drawn
      */
-    private void connected(ConnectivityManager connectivityManager) {
-
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-
-        // If there is a network connection, set isConnected to true
-        if (networkInfo != null && networkInfo.isConnected()) {
-            isConnected = true;
-
-        } else {
-            isConnected = false;
-        }
+    private static void recordOnNextFrame(View list, final long searchStartNanos) {
+        final ViewTreeObserver observer = list.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                MetricsRegistry.record(MetricsRegistry.SEARCH_TOTAL, searchStartNanos);
+                return true;
+            }
+        });
+        list.invalidate();
     }
 
     /**
-     * Helper method that restarts the loader
+     * Adds the stages of the searches and the counters to
+     * {@code adb shell dumpsys activity <package>}
      */
-    private void restartLoader() {
-        //Find the empty state view
-        TextView emptyState = findViewById(R.id.empty_state);
-        //Hide it
-        emptyState.setVisibility(View.GONE);
-
-        //Find progressBar
-        ProgressBar mProgressCircle = findViewById(R.id.progress_circle);
-        //Show the loading circle
-        mProgressCircle.setVisibility(View.VISIBLE);
-
-        //Restart the loader
-        getLoaderManager().restartLoader(BOOK_LOADER_ID, null, BooksActivity.this);
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Search metrics"
+                + (MetricsRegistry.isEnabled() ? ":" : " (stages disabled):"));
+        for (String line : MetricsRegistry.get().dump().split("\n")) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(line);
+        }
     }
 
-    /**
-     * Helper method that shows no internet text on empty state
-     */
-    private void noInternet() {
-        //Find progress bar
-        ProgressBar mProgressCircle = findViewById(R.id.progress_circle);
-        // First, hide loading indicator so error message will be visible
-        mProgressCircle.setVisibility(View.GONE);
-        // Update empty state with no connection error message
-        TextView indicator = findViewById(R.id.empty_state);
-        indicator.setText(R.string.no_internet);
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        // Kept in the state of the view model, which is saved by the call to super
+        int position = mLayoutManager.findFirstVisibleItemPosition();
+        if (position != RecyclerView.NO_POSITION) {
+            mViewModel.setScrollPosition(position);
+        }
+        super.onSaveInstanceState(outState);
     }
 
-}
\ No newline at end of file
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Drop the pending search, the activity is going away
+        mSearchDebouncer.cancel();
+    }
+}
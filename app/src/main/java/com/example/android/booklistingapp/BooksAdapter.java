@@ -2,121 +2,300 @@ package com.example.android.booklistingapp;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.squareup.picasso.Picasso;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import java.util.ArrayList;
+/**
+ * Shows the books in the rows of a {@link RecyclerView}.
+ * <p>
+ * Once the adapter is attached, the text of the rows of a new list is measured on a background
+ * thread before the list is shown, so binding a row only hands it its {@link BookRowText}.
+ */
+public class BooksAdapter extends ListAdapter<Book, BooksAdapter.BookViewHolder> {
 
+    /**
+     * Books are the same item when they have the same key, the diff between two lists is
+     * computed by {@link ListAdapter} on a background thread.
+     */
+    static final DiffUtil.ItemCallback<Book> DIFF_CALLBACK = new DiffUtil.ItemCallback<Book>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.getKey().equals(newBook.getKey());
+        }
 
-public class BooksAdapter extends ArrayAdapter<Book> {
+        @Override
+        public boolean areContentsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.getTitle().equals(newBook.getTitle())
+                    && oldBook.getAuthor().equals(newBook.getAuthor())
+                    && oldBook.hasSameDescription(newBook)
+                    && oldBook.getLanguage().equals(newBook.getLanguage())
+                    && oldBook.getPriceMicros() == newBook.getPriceMicros()
+                    && oldBook.getCurrencyCode().equals(newBook.getCurrencyCode())
+                    && oldBook.getThumbnailUrl().equals(newBook.getThumbnailUrl());
+        }
+    };
 
     /**
-     * This is our own custom constructor (it doesn't mirror a superclass constructor).
-     * The context is used to inflate the layout file, and the list is the data we want
-     * to populate into the lists.
-     *
-     * @param context The current context. Used to inflate the layout file.
-     * @param books   A List of earthquake objects to display in a list.
+     * Measures the text of the rows, one list after the other
      */
-    public BooksAdapter(Context context, ArrayList<Book> books) {
+    private static final ExecutorService TEXT_EXECUTOR = Executors.newSingleThreadExecutor();
 
-        // Here, we initialize the ArrayAdapter's internal storage for the context and the list.
-        // the second argument is used when the ArrayAdapter is populating a single TextView.
-        // The adapter is not going to use this second argument,
-        // so it can be any value. Here, we used 0.
-        super(context, 0, books);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Text metrics of the title and description views of the rows, null until attached
+     */
+    private PrecomputedTextCompat.Params mTitleParams;
+    private PrecomputedTextCompat.Params mDescriptionParams;
+    /**
+     * Measured text of the rows of the list shown, by book key. Replaced along with the list,
+     * only accessed on the main thread.
+     */
+    private Map<String, BookRowText> mRowTexts = Collections.emptyMap();
+    /**
+     * Incremented for each list set, a list measured after a newer one was set is dropped
+     */
+    private int mGeneration;
+
+    /**
+     * Constructs a new empty {@link BooksAdapter}.
+     */
+    public BooksAdapter() {
+        super(DIFF_CALLBACK);
+        // Rows keep their identity across submitted lists, based on the book key
+        setHasStableIds(true);
     }
 
     /**
-     * Provides a view for an AdapterView (ListView, GridView, etc.)
-     *
-     * @param position    The position in the list of data that should be displayed in the
-     *                    list item view.
-     * @param convertView The recycled view to populate.
-     * @param parent      The parent ViewGroup that is used for inflation.
-     * @return The View for the position in the AdapterView.
+     * Shows the books, only the rows that changed are rebound.
+     */
+    public void setBooks(List<Book> books) {
+        setBooks(books, null);
+    }
+
+    /**
+     * Shows the books, onShown runs once the rows are updated. The text of the new rows is
+     * measured in background first, a list set meanwhile replaces this one.
+     */
+    public void setBooks(final List<Book> books, final Runnable onShown) {
+        final int generation = ++mGeneration;
+        final PrecomputedTextCompat.Params titleParams = mTitleParams;
+        final PrecomputedTextCompat.Params descriptionParams = mDescriptionParams;
+        if (titleParams == null) {
+            submitList(books, onShown);
+            return;
+        }
+        // The text of the books already shown is reused
+        final Map<String, BookRowText> previous = mRowTexts;
+        TEXT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, BookRowText> texts = new HashMap<>();
+                for (Book book : books) {
+                    BookRowText text = previous.get(book.getKey());
+                    if (text == null || !text.isFor(book)) {
+                        text = BookRowText.compute(book, titleParams, descriptionParams);
+                    }
+                    texts.put(book.getKey(), text);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mRowTexts = texts;
+                            submitList(books, onShown);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the text metrics of the rows from a row inflated in the list, so the text of the
+     * lists set from now on is measured ahead of time
      */
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        // Check if the existing view is being reused, otherwise inflate the view
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext())
-                    .inflate(R.layout.list_item, parent, false);
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (mTitleParams == null) {
+            BookViewHolder row = onCreateViewHolder(recyclerView, 0);
+            setTextMetrics(TextViewCompat.getTextMetricsParams(row.titleView),
+                    TextViewCompat.getTextMetricsParams(row.descriptionView));
         }
+    }
 
-        // Get the {@link currentBook} object located at this position in the list
-        Book currentBook = getItem(position);
-
-        // Find the Layout that contains the Title
-        TextView titleView = listItemView.findViewById(R.id.book_title);
-        // Set the title of the current book
-        titleView.setText(currentBook.getTitle());
-
-        // Find the Layout that contains the Author
-        TextView authorView = listItemView.findViewById(R.id.book_author);
-        // Set the author of the current book
-        // if no author found, hide the view
-        String author = currentBook.getAuthor();
-        if (author.isEmpty()) {
-            authorView.setVisibility(View.GONE);
-        } else {
-            authorView.setText(author);
+    /**
+     * Sets the text metrics of the title and description views of the rows
+     */
+    void setTextMetrics(PrecomputedTextCompat.Params titleParams,
+                        PrecomputedTextCompat.Params descriptionParams) {
+        mTitleParams = titleParams;
+        mDescriptionParams = descriptionParams;
+    }
+
+    /**
+     * The stable id is a 64 bit FNV-1a hash of the book key, collisions are negligible
+     */
+    @Override
+    public long getItemId(int position) {
+        String key = getItem(position).getKey();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
         }
+        return hash;
+    }
+
+    @NonNull
+    @Override
+    public BookViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new BookViewHolder(listItemView);
+    }
 
+    @Override
+    public void onBindViewHolder(@NonNull BookViewHolder holder, int position) {
+        long start = MetricsRegistry.begin(MetricsRegistry.ADAPTER_BIND);
+        Book book = getItem(position);
+        BookRowText text = mRowTexts.get(book.getKey());
+        holder.bind(book, text != null && text.isFor(book) ? text : null);
+        MetricsRegistry.end(MetricsRegistry.ADAPTER_BIND, start);
+    }
+
+    /**
+     * The thumbnail of a recycled row is no longer wanted, its request is cancelled
+     */
+    @Override
+    public void onViewRecycled(@NonNull BookViewHolder holder) {
+        ThumbnailLoader.cancel(holder.bookThumbnail);
+    }
 
-        // Find the Layout that contains the Description
-        TextView descriptionView = listItemView.findViewById(R.id.description);
-        // Set the description of the current book
-        // If no description found, hide the view
-        String description = currentBook.getDescription();
-        if (description.isEmpty()) {
-            descriptionView.setVisibility(View.GONE);
-        } else {
-            descriptionView.setText(currentBook.getDescription());
+    /**
+     * Prefetches the thumbnails of the books from position from, inclusive, to position to,
+     * exclusive. Positions past the end of the list are ignored.
+     */
+    public void prefetchThumbnails(Context context, int from, int to) {
+        List<Book> books = getCurrentList();
+        for (int position = Math.max(from, 0); position < Math.min(to, books.size()); position++) {
+            ThumbnailLoader.prefetch(context, books.get(position).getThumbnailImage());
         }
+    }
+
+    /**
+     * Caches the views of a row so binding doesn't have to look them up again.
+     */
+    static class BookViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView titleView;
+        private final TextView authorView;
+        private final TextView descriptionView;
+        private final TextView languageView;
+        private final TextView priceView;
+        private final TextView buyView;
+        private final ImageView bookThumbnail;
 
-        // Find the Layout that contains the language
-        TextView languageView = listItemView.findViewById(R.id.book_language);
-        // Set the language of the current book
-        languageView.setText(currentBook.getLanguage());
-
-        // Find the Layout that contains the price
-        TextView priceView = listItemView.findViewById(R.id.price);
-        // Set the price of the current book only if it has a price
-        // otherwise hide the views related to pricing
-        String price = currentBook.getPrice();
-        String currencyCode = currentBook.getCurrencyCode();
-        if (currencyCode.isEmpty() || price.isEmpty()) {
-            priceView.setVisibility(View.GONE);
-            TextView buyView = listItemView.findViewById(R.id.buy_text_view);
-            buyView.setVisibility(View.GONE);
-        } else {
-            price = currentBook.getCurrencyCode() + " " + currentBook.getPrice();
-            priceView.setText(price);
+        BookViewHolder(View listItemView) {
+            super(listItemView);
+            titleView = listItemView.findViewById(R.id.book_title);
+            authorView = listItemView.findViewById(R.id.book_author);
+            descriptionView = listItemView.findViewById(R.id.description);
+            languageView = listItemView.findViewById(R.id.book_language);
+            priceView = listItemView.findViewById(R.id.price);
+            buyView = listItemView.findViewById(R.id.buy_text_view);
+            bookThumbnail = listItemView.findViewById(R.id.book_thumbnail);
         }
 
-        // Find the imageView for the thumbnail of the book
-        ImageView bookThumbnail = listItemView.findViewById(R.id.book_thumbnail);
-        // Get the Url from the object and set it as the image
-        Uri image = currentBook.getThumbnailImage();
-        // Use picasso library to show the image in the view
-        Picasso.get().load(image).into(bookThumbnail);
+        /**
+         * Shows the book in the row. Rows are recycled, so every view hidden for a book has to
+         * be shown again for the next one.
+         *
+         * @param text measured text of the row, null to measure it now.
+         */
+        void bind(Book currentBook, BookRowText text) {
+            // Set the title of the current book
+            if (text != null) {
+                setText(titleView, text.getTitle());
+            } else {
+                titleView.setText(currentBook.getTitle());
+            }
 
+            // Set the author of the current book
+            // if no author found, hide the view
+            String author = currentBook.getAuthor();
+            if (author.isEmpty()) {
+                authorView.setVisibility(View.GONE);
+            } else {
+                authorView.setVisibility(View.VISIBLE);
+                authorView.setText(author);
+            }
 
-        // Return the whole list item layout so that it can be shown in
-        // the ListView.
-        return listItemView;
-    }
+            // Set the description of the current book
+            // If no description found, hide the view
+            if (text != null) {
+                if (text.hasDescription()) {
+                    descriptionView.setVisibility(View.VISIBLE);
+                    setText(descriptionView, text.getDescription());
+                } else {
+                    descriptionView.setVisibility(View.GONE);
+                }
+            } else {
+                String description = currentBook.getListDescription();
+                descriptionView.setVisibility(description.isEmpty() ? View.GONE : View.VISIBLE);
+                descriptionView.setText(description);
+            }
+
+            // Set the language of the current book
+            languageView.setText(currentBook.getLanguage());
 
+            // Set the price of the current book only if it has a price
+            // otherwise hide the views related to pricing
+            if (!currentBook.hasPrice()) {
+                priceView.setVisibility(View.GONE);
+                buyView.setVisibility(View.GONE);
+            } else {
+                priceView.setVisibility(View.VISIBLE);
+                buyView.setVisibility(View.VISIBLE);
+                priceView.setText(text != null ? text.getPrice()
+                        : PriceFormatter.format(currentBook.getPriceMicros(),
+                        currentBook.getCurrencyCode()));
+            }
+
+            // Get the Url from the object and set it as the image
+            Uri image = currentBook.getThumbnailImage();
+            // Decoded at the size of the view, the placeholder shows until it's loaded
+            ThumbnailLoader.load(bookThumbnail, image);
+        }
+
+        /**
+         * Sets the measured text, or measures it again if the view doesn't have the metrics it
+         * was measured with anymore, e.g. once attached in a right-to-left layout
+         */
+        private static void setText(TextView view, PrecomputedTextCompat text) {
+            try {
+                TextViewCompat.setPrecomputedText(view, text);
+            } catch (IllegalArgumentException e) {
+                view.setText(text.toString());
+            }
+        }
+    }
 }
@@ -0,0 +1,662 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Two-tier cache of parsed query results, keyed by the normalized request url.
+ * <p>
+ * The first tier is a bounded in-memory LRU of {@link Book} lists, the second one a size capped
+ * directory of compact serialized results, which survives the process so repeated searches
+ * can be answered without network. Entries older than their max-age (or the TTL when the server
+ * didn't send one) are not returned by {@link #get(String)} but keep their HTTP validators, so
+ * the fetch layer can revalidate them, and they can still be read with {@link #getStale(String)}
+ * when offline. An entry fetched for a lighter {@link NetworkQuality.Plan} than the request, with
+ * fewer books or fewer fields, is not fresh for it either.
+ * <p>
+ * Each result is written to a temporary file renamed over the previous one, so a crash in the
+ * middle of a write leaves the previous result, and the disk is read and written without
+ * holding the lock of the memory tier. A file that can't be read back is deleted and counts as
+ * a miss. Responses the server sent with no-store are not kept.
+ */
+public class BooksCache {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = BooksCache.class.getSimpleName();
+
+    /**
+     * Default configuration of the shared cache
+     */
+    public static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000;
+    public static final int DEFAULT_MEMORY_ENTRIES = 20;
+    public static final long DEFAULT_DISK_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Version of the disk format, files written with another version are ignored
+     */
+    private static final int DISK_FORMAT_VERSION = 5;
+    private static final String DIRECTORY_NAME = "books";
+    //Name of the files being written, renamed once complete
+    private static final String TEMP_PREFIX = "write-";
+    private static final String TEMP_SUFFIX = ".tmp";
+    //Age after which a file being written was left by a crash
+    private static final long TEMP_MAX_AGE_MILLIS = 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //Parameters of a request url set by the plan of the network, left out of the keys
+    private static final Pattern PLAN_PARAMETERS =
+            Pattern.compile("[?&](?:maxResults|fields)=[^&]*");
+    private static final Pattern MAX_RESULTS = Pattern.compile("[?&]maxResults=(\\d+)");
+    private static final Pattern FIELDS = Pattern.compile("[?&]fields=([^&]*)");
+    //Page size of the server when the request doesn't set maxResults
+    private static final int DEFAULT_MAX_RESULTS = 10;
+
+    private static BooksCache sInstance;
+
+    //Memory tier, an access ordered map so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> mMemory;
+    //Disk tier
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    //Time to live of the entries
+    private final long mTtlMillis;
+
+    //Counters, the stale hits are the lookups answered with an entry that is no longer fresh
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mStaleHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * Constructs a new {@link BooksCache}.
+     *
+     * @param directory     where the disk tier is stored.
+     * @param memoryEntries max number of results kept in memory.
+     * @param maxDiskBytes  max size of the disk tier.
+     * @param ttlMillis     time after which an entry is no longer fresh.
+     */
+    public BooksCache(File directory, final int memoryEntries, long maxDiskBytes, long ttlMillis) {
+        mMemory = new LinkedHashMap<String, Entry>(memoryEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > memoryEntries) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the cache shared by the whole app, stored in the app's cache directory.
+     */
+    public static synchronized BooksCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            sInstance = new BooksCache(directory, DEFAULT_MEMORY_ENTRIES, DEFAULT_DISK_BYTES,
+                    DEFAULT_TTL_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Normalizes a request url so equivalent queries share the same entry. The page size and the
+     * fields asked for follow the {@link NetworkQuality.Plan} of the request and are left out,
+     * the results fetched for a plan are served to the plans they cover, see
+     * {@link #covers(String, String)}.
+     */
+    public static String keyFor(String requestUrl) {
+        return PLAN_PARAMETERS.matcher(requestUrl.trim()).replaceAll("").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Normalizes a request url, plan included, so requests can share a response only if they
+     * ask for the same page size and fields.
+     */
+    public static String requestKeyFor(String requestUrl) {
+        return requestUrl.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Returns whether the result fetched with a url holds everything a request asks for: at
+     * least as many books, and the same fields or those of a richer plan.
+     *
+     * @param fetchedUrl url the result was fetched with, null if unknown.
+     */
+    static boolean covers(String fetchedUrl, String requestUrl) {
+        if (fetchedUrl == null) {
+            return true;
+        }
+        if (maxResultsOf(fetchedUrl) < maxResultsOf(requestUrl)) {
+            return false;
+        }
+        String fetched = fieldsOf(fetchedUrl);
+        String requested = fieldsOf(requestUrl);
+        // Without a fields parameter the server sent the full resources
+        if (fetched == null || fetched.equals(requested)) {
+            return true;
+        }
+        if (requested == null) {
+            return false;
+        }
+        int fetchedRank = rankOf(fetched);
+        int requestedRank = rankOf(requested);
+        return fetchedRank >= 0 && requestedRank >= 0 && fetchedRank >= requestedRank;
+    }
+
+    private static int maxResultsOf(String url) {
+        Matcher matcher = MAX_RESULTS.matcher(url);
+        if (!matcher.find()) {
+            return DEFAULT_MAX_RESULTS;
+        }
+        try {
+            return Integer.parseInt(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_RESULTS;
+        }
+    }
+
+    private static String fieldsOf(String url) {
+        Matcher matcher = FIELDS.matcher(url);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return the rank of the lightest plan asking for the fields, or -1 if none does.
+     */
+    private static int rankOf(String fields) {
+        for (NetworkQuality.Plan plan : NetworkQuality.Plan.values()) {
+            if (plan.getProjection().equals(fields)) {
+                return plan.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the fresh books cached for the url, or null if there are none.
+     */
+    public List<Book> get(String requestUrl) {
+        Entry entry = lookup(requestUrl, false);
+        return entry == null ? null : entry.getBooks();
+    }
+
+    /**
+     * @return the books cached for the url even if they are no longer fresh, or null.
+     */
+    public List<Book> getStale(String requestUrl) {
+        Entry entry = lookup(requestUrl, true);
+        return entry == null ? null : entry.getBooks();
+    }
+
+    /**
+     * @return the entry cached for the url, fresh or not, or null if there is none.
+     */
+    public Entry getEntry(String requestUrl) {
+        return lookup(requestUrl, true);
+    }
+
+    /**
+     * Stores the books for the url in both tiers, without HTTP validators.
+     */
+    public void put(String requestUrl, List<Book> books) {
+        put(requestUrl, new Entry(books, System.currentTimeMillis(), Entry.NO_MAX_AGE, null, null));
+    }
+
+    /**
+     * Stores the entry for the url in both tiers, along with the url so the plans it covers are
+     * known. An entry the server sent with no-store replaces nothing, the entry previously cached
+     * for the url is dropped.
+     */
+    public void put(String requestUrl, Entry entry) {
+        String key = keyFor(requestUrl);
+        if (entry.maxAgeMillis == Entry.NO_STORE) {
+            synchronized (this) {
+                mMemory.remove(key);
+            }
+            deleteFromDisk(key);
+            return;
+        }
+        entry = entry.fetchedWith(requestUrl);
+        synchronized (this) {
+            mMemory.put(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * @return whether the entry can be served without asking the server.
+     */
+    public boolean isFresh(Entry entry) {
+        long lifetime = entry.maxAgeMillis == Entry.NO_MAX_AGE ? mTtlMillis : entry.maxAgeMillis;
+        return System.currentTimeMillis() - entry.storedAt < lifetime;
+    }
+
+    /**
+     * @return whether the entry can be served for the url without asking the server, it is
+     * fresh and was fetched for a plan covering the one of the url.
+     */
+    public boolean isFreshFor(Entry entry, String requestUrl) {
+        return isFresh(entry) && covers(entry.requestUrl, requestUrl);
+    }
+
+    /**
+     * Helper method that looks for the url in memory first and then on disk
+     */
+    private Entry lookup(String requestUrl, boolean allowStale) {
+        String key = keyFor(requestUrl);
+        Entry entry;
+        synchronized (this) {
+            entry = mMemory.get(key);
+        }
+        // The memory tier holds the latest entry written, the disk is only read without it
+        boolean fromDisk = false;
+        if (entry == null) {
+            entry = readFromDisk(key);
+            fromDisk = entry != null;
+        }
+
+        synchronized (this) {
+            boolean fresh = entry != null && isFreshFor(entry, requestUrl);
+            if (entry == null || (!allowStale && !fresh)) {
+                mMisses++;
+                return null;
+            }
+            if (fromDisk && !mMemory.containsKey(key)) {
+                // Promote the entry to the memory tier, unless a newer one was put meanwhile
+                mMemory.put(key, entry);
+            }
+            if (!fresh) {
+                mStaleHits++;
+            } else if (fromDisk) {
+                mDiskHits++;
+            } else {
+                mMemoryHits++;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return the directory holding the disk tier.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Counters
+     */
+
+    public synchronized long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    /**
+     * @return the number of lookups answered with an entry that is no longer fresh, from either
+     * tier. They are not counted as memory nor disk hits.
+     */
+    public synchronized long getStaleHitCount() {
+        return mStaleHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return the number of entries evicted from both tiers.
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BooksCache[memoryHits=" + mMemoryHits + ",diskHits=" + mDiskHits
+                + ",staleHits=" + mStaleHits + ",misses=" + mMisses
+                + ",evictions=" + mEvictions + "]";
+    }
+
+    /**
+     * Disk tier helpers
+     */
+
+    private File fileFor(String key) {
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        // The whole file is read first, so the lengths it holds can be checked against its size
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading cached books", e);
+            return null;
+        }
+        try {
+            if (in.readInt() != DISK_FORMAT_VERSION) {
+                return null;
+            }
+            // The file name is only a hash, make sure it holds the same key
+            if (!key.equals(readString(in))) {
+                return null;
+            }
+            String requestUrl = readNullableString(in);
+            long storedAt = in.readLong();
+            long maxAgeMillis = in.readLong();
+            String eTag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            int size = readLength(in);
+            List<Book> books = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                books.add(readBook(in));
+            }
+            return new Entry(books, storedAt, maxAgeMillis, eTag, lastModified, requestUrl);
+        } catch (IOException e) {
+            // Truncated or overwritten, the result is fetched again
+            Log.w(LOG_TAG, "Deleting corrupt cached books " + file, e);
+            if (!file.delete()) {
+                Log.e(LOG_TAG, "Could not delete " + file);
+            }
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create the cache directory " + mDirectory);
+            return;
+        }
+
+        File file = fileFor(key);
+        File temp = null;
+        DataOutputStream out = null;
+        try {
+            // Each writer has its own temporary file, the last one renamed wins
+            temp = File.createTempFile(TEMP_PREFIX + file.getName(), TEMP_SUFFIX, mDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(DISK_FORMAT_VERSION);
+            writeString(out, key);
+            writeNullableString(out, entry.requestUrl);
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAgeMillis);
+            writeNullableString(out, entry.eTag);
+            writeNullableString(out, entry.lastModified);
+            out.writeInt(entry.books.size());
+            for (Book book : entry.books) {
+                writeBook(out, book);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+            temp = null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing cached books", e);
+        } finally {
+            closeQuietly(out);
+            if (temp != null && !temp.delete()) {
+                Log.e(LOG_TAG, "Could not delete " + temp);
+            }
+        }
+        trimDisk();
+    }
+
+    private void deleteFromDisk(String key) {
+        File file = fileFor(key);
+        if (file.exists() && !file.delete()) {
+            Log.e(LOG_TAG, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Deletes the least recently written files until the disk tier fits its max size, the files
+     * still being written are left alone and the ones left by a crash are deleted
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> complete = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (!file.getName().endsWith(TEMP_SUFFIX)) {
+                complete.add(file);
+                total += file.length();
+            } else if (now - file.lastModified() > TEMP_MAX_AGE_MILLIS && !file.delete()) {
+                Log.e(LOG_TAG, "Could not delete " + file);
+            }
+        }
+        if (total <= mMaxDiskBytes) {
+            return;
+        }
+
+        Collections.sort(complete, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < complete.size() && total > mMaxDiskBytes; i++) {
+            File file = complete.get(i);
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                synchronized (this) {
+                    mEvictions++;
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void writeBook(DataOutputStream out, Book book) throws IOException {
+        writeString(out, book.getId());
+        writeString(out, book.getTitle());
+        writeString(out, book.getUrl());
+        writeString(out, book.getDescription());
+        out.writeLong(book.getPriceMicros());
+        writeString(out, book.getAuthor());
+        writeString(out, book.getLanguage());
+        writeString(out, book.getCurrencyCode());
+        writeString(out, book.getThumbnailUrl());
+    }
+
+    private static Book readBook(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String title = readString(in);
+        String url = readString(in);
+        String description = readString(in);
+        long priceMicros = in.readLong();
+        String author = readString(in);
+        String language = readString(in);
+        String currency = readString(in);
+        String thumbnail = readString(in);
+        return new Book(id, title, url, description, priceMicros, author, language, currency,
+                thumbnail);
+    }
+
+    /**
+     * Strings are written as length prefixed UTF-8, writeUTF() can't hold long descriptions
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads a length, which can't be negative nor larger than the rest of the file
+     *
+     * @throws IOException if it is, the file is corrupt.
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length + ", " + in.available()
+                    + " bytes left");
+        }
+        return length;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing cache file", e);
+        }
+    }
+
+    /**
+     * A cached result with the time it was stored (or last revalidated) and the HTTP validators
+     * the server sent with it.
+     */
+    public static class Entry {
+        /**
+         * Value of maxAgeMillis when the server didn't send a max-age, the cache TTL applies
+         */
+        public static final long NO_MAX_AGE = -1;
+        /**
+         * Value of maxAgeMillis when the server sent no-store, the entry is never cached
+         */
+        public static final long NO_STORE = -2;
+
+        private final List<Book> books;
+        private final long storedAt;
+        private final long maxAgeMillis;
+        private final String eTag;
+        private final String lastModified;
+        //Url the result was fetched with, null until the entry is put in the cache
+        private final String requestUrl;
+
+        /**
+         * Constructs a new {@link Entry}.
+         *
+         * @param books        parsed result of the request.
+         * @param storedAt     time the result was received from the server.
+         * @param maxAgeMillis Cache-Control max-age, or {@link #NO_MAX_AGE}.
+         * @param eTag         ETag header of the response, or null.
+         * @param lastModified Last-Modified header of the response, or null.
+         */
+        public Entry(List<Book> books, long storedAt, long maxAgeMillis, String eTag,
+                     String lastModified) {
+            this(books, storedAt, maxAgeMillis, eTag, lastModified, null);
+        }
+
+        private Entry(List<Book> books, long storedAt, long maxAgeMillis, String eTag,
+                      String lastModified, String requestUrl) {
+            this.books = new ArrayList<>(books);
+            this.storedAt = storedAt;
+            this.maxAgeMillis = maxAgeMillis;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.requestUrl = requestUrl;
+        }
+
+        /**
+         * @return a copy of this entry confirmed by a 304 response, with the headers it carried.
+         */
+        public Entry revalidated(long storedAt, long maxAgeMillis, String eTag, String lastModified) {
+            return new Entry(books, storedAt, maxAgeMillis, eTag != null ? eTag : this.eTag,
+                    lastModified != null ? lastModified : this.lastModified, requestUrl);
+        }
+
+        private Entry fetchedWith(String requestUrl) {
+            return new Entry(books, storedAt, maxAgeMillis, eTag, lastModified, requestUrl);
+        }
+
+        public List<Book> getBooks() {
+            return books;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the url the result was fetched with, or null if it wasn't put in a cache.
+         */
+        public String getRequestUrl() {
+            return requestUrl;
+        }
+    }
+}
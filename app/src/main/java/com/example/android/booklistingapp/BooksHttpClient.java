@@ -0,0 +1,80 @@
+package com.example.android.booklistingapp;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Holds the single HTTP client shared by every request of the app.
+ * <p>
+ * Reusing one {@link OkHttpClient} keeps its connection pool alive between searches, so only the
+ * first request pays for the TCP and TLS handshakes. OkHttp also asks for gzip and decompresses
+ * the responses transparently, and negotiates HTTP/2 when the server and device support it.
+ */
+public final class BooksHttpClient {
+
+    /**
+     * Default timeouts, the same ones the app used with HttpURLConnection
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+    /**
+     * Default connection pool configuration
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    private static OkHttpClient sClient;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BooksHttpClient}
+     * object, the client is accessed through {@link #get()}.
+     */
+    private BooksHttpClient() {
+    }
+
+    /**
+     * @return the shared client, created with the default configuration on first use.
+     */
+    public static synchronized OkHttpClient get() {
+        if (sClient == null) {
+            sClient = build(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                    DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MILLIS);
+        }
+        return sClient;
+    }
+
+    /**
+     * Replaces the shared client with one using the given configuration, called before the
+     * first request to tune the client, e.g. from the application or a test.
+     *
+     * @param connectTimeoutMillis max time to establish a connection.
+     * @param readTimeoutMillis    max time between two reads of the response.
+     * @param maxIdleConnections   number of idle connections kept in the pool.
+     * @param keepAliveMillis      time an idle connection is kept in the pool.
+     */
+    public static synchronized void configure(long connectTimeoutMillis, long readTimeoutMillis,
+                                              int maxIdleConnections, long keepAliveMillis) {
+        if (sClient != null) {
+            // Close the idle connections of the previous pool
+            sClient.connectionPool().evictAll();
+        }
+        sClient = build(connectTimeoutMillis, readTimeoutMillis, maxIdleConnections,
+                keepAliveMillis);
+    }
+
+    private static OkHttpClient build(long connectTimeoutMillis, long readTimeoutMillis,
+                                      int maxIdleConnections, long keepAliveMillis) {
+        return new OkHttpClient.Builder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis,
+                        TimeUnit.MILLISECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .eventListenerFactory(HttpEventTimer.FACTORY)
+                .build();
+    }
+}
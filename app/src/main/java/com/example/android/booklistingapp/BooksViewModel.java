@@ -0,0 +1,660 @@
+package com.example.android.booklistingapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.SavedStateHandle;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the search of {@link BooksActivity} and the books loaded for it.
+ * <p>
+ * The view model outlives configuration changes, so a rotation redraws the books it holds
+ * without fetching or parsing anything, and a load in progress keeps running for the new
+ * activity. The query, the paging position, the scroll position and the urls of every page
+ * loaded are kept in the {@link SavedStateHandle}, so after process death the books are read
+ * back from the {@link BooksCache} under those urls instead of being fetched again.
+ * <p>
+ * A search first shows the results stored for it in the {@link BookIndex}, offline too, while
+ * they are revalidated over the network. The list is then replaced with the new results and the
+ * adapter only updates the rows that changed.
+ * <p>
+ * The size of the pages and the fields they ask for follow the {@link NetworkQuality.Plan} picked
+ * for the network when each page is requested.
+ */
+public class BooksViewModel extends AndroidViewModel {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = BooksViewModel.class.getSimpleName();
+    /**
+     * Max number of books held in the list, the oldest ones are dropped beyond it
+     */
+    public static final int MAX_BOOKS = 400;
+    /**
+     * Max number of matches shown from the local index before the network results arrive
+     */
+    private static final int LOCAL_RESULTS = 20;
+
+    //Keys of the state kept across process death
+    static final String KEY_QUERY = "query";
+    static final String KEY_PAGE_URLS = "page_urls";
+    static final String KEY_NEXT_START_INDEX = "next_start_index";
+    static final String KEY_LAST_PAGE_REACHED = "last_page_reached";
+    static final String KEY_SCROLL_POSITION = "scroll_position";
+
+    private final SavedStateHandle mState;
+    private final BooksCache mCache;
+    private final BookIndex mIndex;
+    private final boolean mFanOutSearch;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+
+    /**
+     * Books shown in the list
+     */
+    private final MutableLiveData<List<Book>> mBooks = new MutableLiveData<>();
+    /**
+     * Whether the first page of a search is loading and nothing is shown yet
+     */
+    private final MutableLiveData<Boolean> mLoading = new MutableLiveData<>();
+    /**
+     * String resource of the empty state message, 0 when the list isn't empty
+     */
+    private final MutableLiveData<Integer> mMessage = new MutableLiveData<>();
+    /**
+     * Whether the last page couldn't be loaded while books are shown, until it is tried again
+     */
+    private final MutableLiveData<Boolean> mPageFailed = new MutableLiveData<>(false);
+
+    /**
+     * Keys of every book added since the last new search, to drop duplicates across pages.
+     * Keys are kept for evicted books so they are not added back by later pages.
+     */
+    private final Set<String> mBookIds = new HashSet<>();
+    private List<Book> mBookList = new ArrayList<>();
+    /**
+     * Results stored for the current query, shown until the network ones arrive
+     */
+    private List<Book> mStoredResults = new ArrayList<>();
+    /**
+     * Matches of the current query found in the local index, when it has no stored results
+     */
+    private List<Book> mLocalMatches = new ArrayList<>();
+    /**
+     * Whether the first page of network results of the current query was shown
+     */
+    private boolean mFirstPageShown;
+    /**
+     * Whether a page is being loaded, and the urls, plan and connection state it is loaded with
+     */
+    private boolean mLoadingPage;
+    private List<String> mLoadingUrls;
+    private NetworkQuality.Plan mLoadingPlan;
+    private boolean mConnected;
+    /**
+     * Loader of the page being loaded
+     */
+    private BookLoader mLoader;
+    /**
+     * Whether partial results of the first page of the current search are shown
+     */
+    private boolean mPartialShown;
+    /**
+     * When the first page of the current search started loading, 0 once loaded or untimed
+     */
+    private long mSearchStartNanos;
+
+    /**
+     * Constructs the {@link BooksViewModel} of the app, called by the default factory.
+     */
+    public BooksViewModel(Application application, SavedStateHandle state) {
+        this(application, state, BooksCache.getInstance(application),
+                BookIndex.getInstance(application),
+                application.getResources().getBoolean(R.bool.fan_out_search),
+                AsyncTask.THREAD_POOL_EXECUTOR, new Executor() {
+                    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+                    @Override
+                    public void execute(Runnable runnable) {
+                        mHandler.post(runnable);
+                    }
+                });
+    }
+
+    /**
+     * Constructs a new {@link BooksViewModel}.
+     *
+     * @param state              kept across process death.
+     * @param cache              where the loaded pages are stored.
+     * @param index              local index of the fetched books, null to search without it.
+     * @param fanOutSearch       whether the first page of a search fans out to sub-queries.
+     * @param backgroundExecutor runs the reads of the cache.
+     * @param mainExecutor       runs their results on the main thread.
+     */
+    BooksViewModel(Application application, SavedStateHandle state, BooksCache cache,
+                   BookIndex index, boolean fanOutSearch, Executor backgroundExecutor,
+                   Executor mainExecutor) {
+        super(application);
+        mState = state;
+        mCache = cache;
+        mIndex = index;
+        mFanOutSearch = fanOutSearch;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        restore();
+    }
+
+    public LiveData<List<Book>> getBooks() {
+        return mBooks;
+    }
+
+    public LiveData<Boolean> isLoading() {
+        return mLoading;
+    }
+
+    public LiveData<Integer> getMessage() {
+        return mMessage;
+    }
+
+    public LiveData<Boolean> hasPageFailed() {
+        return mPageFailed;
+    }
+
+    /**
+     * @return the query searched for, null before the first search.
+     */
+    public String getQuery() {
+        return mState.get(KEY_QUERY);
+    }
+
+    /**
+     * @return the position of the first visible book, to scroll back to after a restore.
+     */
+    public int getScrollPosition() {
+        Integer position = mState.get(KEY_SCROLL_POSITION);
+        return position != null ? position : 0;
+    }
+
+    public void setScrollPosition(int position) {
+        mState.set(KEY_SCROLL_POSITION, position);
+    }
+
+    /**
+     * Starts a search for the first page of results of the query.
+     * The load of the previous search is cancelled if still in flight, unless it was for the
+     * same query, in which case the search waits for its result instead of starting another one.
+     */
+    public void search(CharSequence query) {
+        NetworkQuality.Plan plan = getPlan();
+        List<String> urls = toFirstPageUrls(query, mFanOutSearch, plan);
+        if (mLoadingPage && getNextStartIndex() == 0 && mLoadingUrls.get(0).equals(urls.get(0))) {
+            SearchMetrics.get().onCoalesced();
+            return;
+        }
+
+        //Start again from the first page of results
+        String queryString = query.toString();
+        mState.set(KEY_QUERY, queryString);
+        mState.set(KEY_NEXT_START_INDEX, 0);
+        mState.set(KEY_LAST_PAGE_REACHED, false);
+        mState.set(KEY_PAGE_URLS, new ArrayList<String>());
+        mState.set(KEY_SCROLL_POSITION, 0);
+
+        mMessage.setValue(0);
+        mLoading.setValue(true);
+        mPageFailed.setValue(false);
+        mPartialShown = false;
+        SearchMetrics.get().onRequest();
+        mSearchStartNanos = MetricsRegistry.now();
+        load(urls, plan);
+
+        //Meanwhile show the results stored for the search, or the matches of the books
+        //fetched by previous searches
+        mStoredResults = new ArrayList<>();
+        mLocalMatches = new ArrayList<>();
+        mFirstPageShown = false;
+        if (mIndex != null) {
+            mIndex.getResultAsync(queryString, urls, new BookIndex.Callback() {
+                @Override
+                public void onResults(String query, List<Book> books) {
+                    if (!books.isEmpty()) {
+                        showStoredResults(query, books);
+                    } else if (TextUtils.equals(query, getQuery()) && !mFirstPageShown) {
+                        mIndex.searchAsync(query, LOCAL_RESULTS, new BookIndex.Callback() {
+                            @Override
+                            public void onResults(String query, List<Book> books) {
+                                showLocalMatches(query, books);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the next page of results of the current query, unless one is already being loaded,
+     * there are no more results or the last one failed, see {@link #retryPage()}
+     */
+    public void loadNextPage() {
+        if (Boolean.TRUE.equals(mPageFailed.getValue())) {
+            return;
+        }
+        String query = getQuery();
+        if (query == null || mLoadingPage || Boolean.TRUE.equals(mState.get(KEY_LAST_PAGE_REACHED))) {
+            return;
+        }
+        //The list stays visible, without the loading circle
+        NetworkQuality.Plan plan = getPlan();
+        int startIndex = getNextStartIndex();
+        //Without any page loaded the first one failed, the books shown are the stored ones
+        load(startIndex == 0 ? toFirstPageUrls(query, mFanOutSearch, plan)
+                : Collections.singletonList(toGoogleQueryUrl(query, startIndex, plan)), plan);
+    }
+
+    /**
+     * Loads again the page that couldn't be loaded, called when the user asks for it
+     */
+    public void retryPage() {
+        mPageFailed.setValue(false);
+        loadNextPage();
+    }
+
+    private int getNextStartIndex() {
+        Integer startIndex = mState.get(KEY_NEXT_START_INDEX);
+        return startIndex != null ? startIndex : 0;
+    }
+
+    /**
+     * Cancels the page being loaded, if any, and starts loading the urls, built for the plan
+     */
+    private void load(List<String> urls, NetworkQuality.Plan plan) {
+        cancelLoad();
+        mLoadingPage = true;
+        mLoadingUrls = urls;
+        mLoadingPlan = plan;
+        //Offline the page can still come from the cache
+        mConnected = isConnected();
+        startLoad(urls, mConnected);
+    }
+
+    /**
+     * Starts a {@link BookLoader} for the urls, its results are handed to
+     * {@link #onPageLoaded(FetchResult)} and {@link #onPartialResult(List)} on the main thread.
+     * The first page of a search goes ahead of the next pages, which are loaded ahead of time
+     * while the user scrolls.
+     */
+    void startLoad(List<String> urls, boolean connected) {
+        FetchEngine.Priority priority = getNextStartIndex() == 0
+                ? FetchEngine.Priority.USER_SEARCH : FetchEngine.Priority.PREFETCH;
+        BookLoader loader = new BookLoader(FetchEngine.get(), mCache, urls, connected, priority,
+                PrefetchLedger.getInstance(getApplication()),
+                getApplication().getResources().getBoolean(R.bool.progressive_results));
+        mLoader = loader;
+        loader.start(new BookLoader.Callback() {
+            @Override
+            public void onPartialResult(BookLoader partialLoader, List<Book> books) {
+                if (partialLoader == mLoader) {
+                    BooksViewModel.this.onPartialResult(books);
+                }
+            }
+
+            @Override
+            public void onLoadFinished(BookLoader finishedLoader, FetchResult<List<Book>> result) {
+                if (finishedLoader == mLoader) {
+                    mLoader = null;
+                    onPageLoaded(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the request of the page being loaded, its result is dropped
+     */
+    void cancelLoad() {
+        mLoadingPage = false;
+        if (mLoader != null) {
+            BookLoader loader = mLoader;
+            mLoader = null;
+            loader.cancel();
+        }
+    }
+
+    /**
+     * @return whether there is a network connection, without one only cached results are served.
+     */
+    boolean isConnected() {
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                getApplication().getSystemService(Context.CONNECTIVITY_SERVICE);
+        // Get details on the currently active default data network
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * @return the plan of the next page, for the network measured so far and the active link.
+     */
+    NetworkQuality.Plan getPlan() {
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                getApplication().getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkQuality quality = NetworkQuality.get();
+        quality.onLink(connectivityManager);
+        return quality.getPlan(System.currentTimeMillis());
+    }
+
+    /**
+     * Called on the main thread with the books of the page loaded, or why they couldn't be.
+     */
+    void onPageLoaded(FetchResult<List<Book>> result) {
+        if (!result.isSuccess()) {
+            Log.e(LOG_TAG, "Error while fetching data: " + result);
+        }
+        List<Book> books = result.getValue();
+        mLoadingPage = false;
+        mLoading.setValue(false);
+        int startIndex = getNextStartIndex();
+        boolean firstPage = startIndex == 0;
+        if (firstPage) {
+            mFirstPageShown = true;
+            MetricsRegistry.record(MetricsRegistry.SEARCH_LOAD, mSearchStartNanos);
+            mSearchStartNanos = 0;
+        }
+
+        // The first page replaces the previous search and the local matches are kept after it,
+        // the next pages are appended
+        if (books != null && !books.isEmpty()) {
+            mMessage.setValue(0);
+            if (firstPage) {
+                setBooks(mergeLocalMatches(books));
+            } else {
+                appendBooks(books);
+            }
+            mState.set(KEY_NEXT_START_INDEX, startIndex + countPaged(books));
+            // The page can be read back from the cache under its urls after process death
+            ArrayList<String> pageUrls = new ArrayList<>(getPageUrls());
+            pageUrls.addAll(mLoadingUrls);
+            mState.set(KEY_PAGE_URLS, pageUrls);
+            // Store the page in background, for the next searches of the query and to be
+            // found by the others
+            if (mIndex != null) {
+                mIndex.putResultAsync(mLoadingUrls.get(0), books);
+            }
+            return;
+        }
+
+        // Only an empty page ends the search, a failed one can be loaded again. Its books are
+        // kept, the user is offered to try again instead of scrolling into more failures
+        if (result.isSuccess()) {
+            mState.set(KEY_LAST_PAGE_REACHED, true);
+        }
+        if (!firstPage) {
+            mPageFailed.setValue(!result.isSuccess());
+            return;
+        }
+        // The part of the page that arrived before the failure is kept
+        if (mPartialShown) {
+            mPageFailed.setValue(!result.isSuccess());
+            return;
+        }
+        // Keep showing the stored results if the search failed, or the local matches, if any
+        if (!result.isSuccess() && !mStoredResults.isEmpty()) {
+            setBooks(mStoredResults);
+            mPageFailed.setValue(true);
+            return;
+        }
+        if (!mLocalMatches.isEmpty()) {
+            setBooks(mLocalMatches);
+            mPageFailed.setValue(!result.isSuccess());
+            return;
+        }
+        setBooks(new ArrayList<Book>());
+        // Nothing cached for this search offline, no books found, or the search failed
+        if (!mConnected || result.getStatus() == FetchResult.Status.NETWORK_ERROR) {
+            mMessage.setValue(R.string.no_internet);
+        } else if (result.isSuccess()) {
+            mMessage.setValue(R.string.empty_state);
+        } else {
+            mMessage.setValue(R.string.search_error);
+        }
+    }
+
+    /**
+     * Called on the main thread with the books merged so far of a fan-out search, or parsed so
+     * far of a streaming load
+     */
+    void onPartialResult(List<Book> books) {
+        if (!mLoadingPage || getNextStartIndex() != 0 || books.isEmpty()) {
+            return;
+        }
+        //The local matches are not shown anymore once network results are
+        mFirstPageShown = true;
+        mPartialShown = true;
+        mLoading.setValue(false);
+        mMessage.setValue(0);
+        setBooks(mergeLocalMatches(books));
+    }
+
+    /**
+     * Shows the results stored for a query, unless the user searched for something else since
+     * or the network results already arrived
+     */
+    private void showStoredResults(String query, List<Book> books) {
+        if (!TextUtils.equals(query, getQuery()) || mFirstPageShown) {
+            return;
+        }
+        mStoredResults = books;
+        mLoading.setValue(false);
+        mMessage.setValue(0);
+        setBooks(books);
+    }
+
+    /**
+     * Shows the local matches of a query, unless the user searched for something else since or
+     * the network results already arrived
+     */
+    private void showLocalMatches(String query, List<Book> books) {
+        if (!TextUtils.equals(query, getQuery()) || mFirstPageShown || books.isEmpty()) {
+            return;
+        }
+        mLocalMatches = books;
+        mLoading.setValue(false);
+        mMessage.setValue(0);
+        setBooks(books);
+    }
+
+    /**
+     * Returns the number of results of the paged query the page loaded, the next page starts
+     * after them. A page served from the cache may come from another plan, with another size.
+     */
+    private int countPaged(List<Book> books) {
+        if (mLoadingUrls.size() == 1) {
+            return books.size();
+        }
+        // The next pages follow the first sub-query of a fan-out search, its page was cached
+        List<Book> firstPage = mCache != null ? mCache.getStale(mLoadingUrls.get(0)) : null;
+        return firstPage != null ? firstPage.size() : mLoadingPlan.getPageSize();
+    }
+
+    /**
+     * Returns the first page of network results followed by the local matches it doesn't contain
+     */
+    private List<Book> mergeLocalMatches(List<Book> books) {
+        List<Book> merged = new ArrayList<>(books);
+        Set<String> ids = new HashSet<>();
+        for (Book book : books) {
+            ids.add(book.getKey());
+        }
+        for (Book match : mLocalMatches) {
+            if (ids.add(match.getKey())) {
+                merged.add(match);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Replaces the books shown with the first page of a new search
+     */
+    private void setBooks(List<Book> books) {
+        mBookIds.clear();
+        mBookList = new ArrayList<>();
+        appendBooks(books);
+    }
+
+    /**
+     * Appends a page of books after the ones already shown, skipping the books that were already
+     * added. Past {@link #MAX_BOOKS} the books at the top are evicted.
+     */
+    private void appendBooks(List<Book> books) {
+        List<Book> newBooks = new ArrayList<>(mBookList);
+        for (Book book : books) {
+            if (mBookIds.add(book.getKey())) {
+                newBooks.add(book);
+            }
+        }
+
+        // Keep the memory held by the list bounded, dropping the oldest books.
+        // The layout manager keeps the visible rows in place.
+        int evicted = Math.max(newBooks.size() - MAX_BOOKS, 0);
+        if (evicted > 0) {
+            newBooks = new ArrayList<>(newBooks.subList(evicted, newBooks.size()));
+        }
+
+        mBookList = newBooks;
+        mBooks.setValue(newBooks);
+    }
+
+    private List<String> getPageUrls() {
+        List<String> pageUrls = mState.get(KEY_PAGE_URLS);
+        return pageUrls != null ? pageUrls : Collections.<String>emptyList();
+    }
+
+    /**
+     * After process death, reads the pages loaded before back from the cache. If none of them
+     * is cached anymore the search starts again.
+     */
+    private void restore() {
+        final String query = getQuery();
+        if (query == null) {
+            return;
+        }
+        final List<String> pageUrls = new ArrayList<>(getPageUrls());
+        mLoading.setValue(true);
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Book> books = new ArrayList<>();
+                for (String url : pageUrls) {
+                    List<Book> page = mCache.getStale(url);
+                    if (page != null) {
+                        books.addAll(page);
+                    }
+                }
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRestored(query, books);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRestored(String query, List<Book> books) {
+        // A new search started in the meantime
+        if (!query.equals(getQuery()) || mLoadingPage) {
+            return;
+        }
+        if (books.isEmpty()) {
+            Log.d(LOG_TAG, "Pages of \"" + query + "\" are not cached anymore, searching again");
+            search(query);
+            return;
+        }
+        mFirstPageShown = true;
+        mLoading.setValue(false);
+        setBooks(books);
+    }
+
+    @Override
+    protected void onCleared() {
+        cancelLoad();
+    }
+
+    /**
+     * Helper method that transforms a CharSequence google books query URL for the page of
+     * results starting at startIndex, as large as the plan and asking for its fields
+     */
+    public static String toGoogleQueryUrl(CharSequence userInput, int startIndex,
+                                          NetworkQuality.Plan plan) {
+        return toGoogleQueryUrl(toQueryTerms(userInput), "paid-ebooks", startIndex, plan);
+    }
+
+    /**
+     * Helper method that returns the urls of the first page of results of a search, the
+     * sub-queries of a fan-out search or the single query
+     */
+    public static List<String> toFirstPageUrls(CharSequence userInput, boolean fanOut,
+                                               NetworkQuality.Plan plan) {
+        return fanOut ? toFanOutUrls(userInput, plan)
+                : Collections.singletonList(toGoogleQueryUrl(userInput, 0, plan));
+    }
+
+    /**
+     * Helper method that returns the urls of the sub-queries of a fan-out search for the first
+     * page: the paid ebooks, which also page afterwards, then the free ebooks and the paid
+     * ebooks matching the input in their title or author
+     */
+    public static List<String> toFanOutUrls(CharSequence userInput, NetworkQuality.Plan plan) {
+        String terms = toQueryTerms(userInput);
+        List<String> urls = new ArrayList<>();
+        urls.add(toGoogleQueryUrl(terms, "paid-ebooks", 0, plan));
+        urls.add(toGoogleQueryUrl(terms, "free-ebooks", 0, plan));
+        urls.add(toGoogleQueryUrl("intitle:" + terms, "paid-ebooks", 0, plan));
+        urls.add(toGoogleQueryUrl("inauthor:" + terms, "paid-ebooks", 0, plan));
+        return urls;
+    }
+
+    /**
+     * Helper method that transforms the user input into the terms of the query
+     */
+    private static String toQueryTerms(CharSequence userInput) {
+        //Transform the CharSequence to string, trimmed so equivalent queries share the same url
+        String userString = userInput.toString().trim().replaceAll("\\s+", " ");
+        //Encode the terms so & # + and the like are searched for, the spaces become +
+        try {
+            return URLEncoder.encode(userString, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every platform supports UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toGoogleQueryUrl(String terms, String filter, int startIndex,
+                                           NetworkQuality.Plan plan) {
+        //Add the query to the url, asking only for the fields the plan reads
+        return VolumeFields.project("https://www.googleapis.com/books/v1/volumes?q=" + terms
+                + "&filter=" + filter + "&maxResults=" + plan.getPageSize()
+                + "&startIndex=" + startIndex, plan);
+    }
+}
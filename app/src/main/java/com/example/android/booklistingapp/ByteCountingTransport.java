@@ -0,0 +1,98 @@
+package com.example.android.booklistingapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Transport} counting the bytes of the response bodies read through it, e.g. to charge a
+ * prefetch to its budget or to know whether a result came from the cache.
+ */
+public class ByteCountingTransport implements Transport {
+
+    private final Transport mDelegate;
+    private final AtomicLong mBytesRead = new AtomicLong();
+
+    public ByteCountingTransport(Transport delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * @return the number of body bytes read so far, 0 if every request was answered without a
+     * body, e.g. with 304 Not Modified.
+     */
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    @Override
+    public Call newCall(String url, Map<String, String> headers) {
+        final Call call = mDelegate.newCall(url, headers);
+        return new Call() {
+            @Override
+            public Response execute() throws IOException {
+                final Response response = call.execute();
+                return new Response() {
+                    @Override
+                    public int code() {
+                        return response.code();
+                    }
+
+                    @Override
+                    public String header(String name) {
+                        return response.header(name);
+                    }
+
+                    @Override
+                    public InputStream body() throws IOException {
+                        return new CountingInputStream(response.body());
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        response.close();
+                    }
+                };
+            }
+
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
+        };
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                mBytesRead.incrementAndGet();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mBytesRead.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mBytesRead.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Stops sending requests to a server that keeps answering that it is overloaded.
+ * <p>
+ * After {@link #getFailureThreshold()} failures in a row the breaker opens and requests are
+ * refused without reaching the server, for the open time or as long as the server asked with
+ * Retry-After. Then a single trial request is let through: if it succeeds the breaker closes,
+ * if it fails it opens again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    //Time the breaker stops refusing requests, in System.nanoTime()
+    private long mOpenUntilNanos;
+    private boolean mTrialInFlight;
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold number of failures in a row that opens the breaker.
+     * @param openMillis       time requests are refused once open, at least.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    public int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return whether a request can be sent now. When it returns true after the open time, the
+     * request is the trial one and its outcome must be reported.
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.OPEN) {
+            if (System.nanoTime() - mOpenUntilNanos < 0) {
+                return false;
+            }
+            mState = State.HALF_OPEN;
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialInFlight) {
+                return false;
+            }
+            mTrialInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * @return the time left before requests are let through again, 0 if they are.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, (mOpenUntilNanos - System.nanoTime()) / 1000000);
+    }
+
+    /**
+     * The request was answered normally.
+     *
+     * @return whether the breaker closed, after a successful trial request.
+     */
+    public synchronized boolean onSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+        boolean closed = mState != State.CLOSED;
+        mState = State.CLOSED;
+        return closed;
+    }
+
+    /**
+     * The server answered that it is overloaded.
+     *
+     * @param retryAfterMillis time the server asked to wait before the next request, or -1.
+     * @return whether the breaker opened, false if it stays closed or was already open.
+     */
+    public synchronized boolean onFailure(long retryAfterMillis) {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            return open(Math.max(mOpenMillis, retryAfterMillis));
+        }
+        return false;
+    }
+
+    /**
+     * The request failed without telling anything about the server, e.g. it was cancelled.
+     * A trial request can be sent again.
+     */
+    public synchronized void onIgnored() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Refuses requests for the given time, e.g. the Retry-After of a throttled request.
+     *
+     * @return whether the breaker opened, false if it was already open.
+     */
+    public synchronized boolean open(long millis) {
+        long until = System.nanoTime() + millis * 1000000;
+        boolean opened = mState != State.OPEN;
+        // Never shortens the time asked by the server before
+        if (opened || until - mOpenUntilNanos > 0) {
+            mOpenUntilNanos = until;
+        }
+        mState = State.OPEN;
+        return opened;
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Runs several sub-queries of a search at the same time on the {@link FetchEngine} and merges
+ * their results.
+ * <p>
+ * A search takes as long as its slowest sub-query instead of the sum of all of them. Results
+ * are merged in the order they arrive and books already returned by another sub-query are
+ * dropped. Sub-queries that fail are skipped and the ones still running at the deadline are
+ * cancelled, the search ends with what it has.
+ * <p>
+ * Started with {@link #startStreaming}, the books of a sub-query are merged in batches while its
+ * response is still being read, so the first rows show before the whole page arrived. The
+ * merged books keep the order they were first seen in, a batch never moves nor repeats them.
+ */
+public final class FanOutSearch {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = FanOutSearch.class.getSimpleName();
+
+    /**
+     * Receives the progress of a search, on the threads of the engine, one call at a time.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the books merged so far each time a sub-query adds new ones, except for
+         * the last one.
+         */
+        void onPartialResult(List<Book> books);
+
+        /**
+         * Called once with the merged books, or with the failure of the first sub-query that
+         * failed if none of them succeeded. Not called if the search is cancelled.
+         */
+        void onComplete(FetchResult<List<Book>> result);
+    }
+
+    /**
+     * Creates the task of a sub-query whose books are merged while it runs.
+     */
+    public interface SubQuery {
+
+        /**
+         * @param listener to hand the books to while they are parsed, on the thread of the task.
+         * @return the task of the sub-query, its result is merged when it completes.
+         */
+        FetchEngine.Task<List<Book>> newTask(QueryUtils.BatchListener listener);
+    }
+
+    private final Listener mListener;
+    private final List<FetchEngine.Job<List<Book>>> mJobs = new ArrayList<>();
+    private final Map<String, Book> mMerged = new LinkedHashMap<>();
+    private int mPending;
+    private boolean mAnySucceeded;
+    private FetchResult<List<Book>> mFirstFailure;
+    private boolean mDone;
+    private ScheduledFuture<?> mDeadline;
+
+    private FanOutSearch(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts the sub-queries of a search.
+     *
+     * @param tasks         of the sub-queries, their results are merged in the order they arrive.
+     * @param timeoutMillis time after which the sub-queries still running are cancelled, 0 to
+     *                      wait for all of them.
+     * @param listener      notified of the progress of the search.
+     * @return the search, to cancel it.
+     */
+    public static FanOutSearch start(FetchEngine engine, FetchEngine.Priority priority,
+                                     List<FetchEngine.Task<List<Book>>> tasks, long timeoutMillis,
+                                     Listener listener) {
+        return start(engine, priority, null, tasks, timeoutMillis, listener);
+    }
+
+    /**
+     * Starts the sub-queries of a search, each one sharing the request of the other callers
+     * with the same key on the engine, see {@link FetchEngine#submitShared}.
+     *
+     * @param keys          normalized requests of the tasks, in the same order, null not to
+     *                      share them.
+     * @param tasks         of the sub-queries, their results are merged in the order they arrive.
+     * @param timeoutMillis time after which the sub-queries still running are cancelled, 0 to
+     *                      wait for all of them.
+     * @param listener      notified of the progress of the search.
+     * @return the search, to cancel it.
+     */
+    public static FanOutSearch start(FetchEngine engine, FetchEngine.Priority priority,
+                                     List<String> keys, List<FetchEngine.Task<List<Book>>> tasks,
+                                     long timeoutMillis, Listener listener) {
+        List<SubQuery> subQueries = new ArrayList<>();
+        for (final FetchEngine.Task<List<Book>> task : tasks) {
+            subQueries.add(new SubQuery() {
+                @Override
+                public FetchEngine.Task<List<Book>> newTask(QueryUtils.BatchListener listener) {
+                    return task;
+                }
+            });
+        }
+        return startStreaming(engine, priority, keys, subQueries, timeoutMillis, listener);
+    }
+
+    /**
+     * Starts the sub-queries of a search, merging their books in batches while they are parsed.
+     * A sub-query sharing the request of another caller gets no batches, only its result.
+     *
+     * @param keys          normalized requests of the sub-queries, in the same order, null not
+     *                      to share them.
+     * @param subQueries    of the search, their books are merged in the order they arrive.
+     * @param timeoutMillis time after which the sub-queries still running are cancelled, 0 to
+     *                      wait for all of them.
+     * @param listener      notified of the progress of the search, a partial result for each
+     *                      batch adding new books.
+     * @return the search, to cancel it.
+     */
+    public static FanOutSearch startStreaming(FetchEngine engine, FetchEngine.Priority priority,
+                                              List<String> keys, List<SubQuery> subQueries,
+                                              long timeoutMillis, Listener listener) {
+        final FanOutSearch search = new FanOutSearch(listener);
+        FetchEngine.Callback<List<Book>> callback = new FetchEngine.Callback<List<Book>>() {
+            @Override
+            public void onResult(FetchResult<List<Book>> result) {
+                search.onSubQueryResult(result);
+            }
+        };
+        // The sub-queries report to the search once every one of them is submitted
+        QueryUtils.BatchListener batchListener = new QueryUtils.BatchListener() {
+            @Override
+            public void onBatch(List<Book> batch) {
+                search.onSubQueryBatch(batch);
+            }
+        };
+        synchronized (search) {
+            search.mPending = subQueries.size();
+            for (int i = 0; i < subQueries.size(); i++) {
+                FetchEngine.Task<List<Book>> task = subQueries.get(i).newTask(batchListener);
+                search.mJobs.add(keys != null
+                        ? engine.submitShared(keys.get(i), priority, task, callback)
+                        : engine.submit(priority, task, callback));
+            }
+            if (timeoutMillis > 0 && !search.mDone) {
+                search.mDeadline = engine.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        search.onDeadline();
+                    }
+                }, timeoutMillis);
+            }
+        }
+        return search;
+    }
+
+    /**
+     * Cancels every sub-query, the listener is not called anymore.
+     */
+    public synchronized void cancel() {
+        if (!mDone) {
+            mDone = true;
+            stop();
+        }
+    }
+
+    private synchronized void onSubQueryBatch(List<Book> batch) {
+        if (mDone) {
+            return;
+        }
+        // The sub-query is still running, there is always more to come
+        if (merge(batch)) {
+            mListener.onPartialResult(new ArrayList<>(mMerged.values()));
+        }
+    }
+
+    private synchronized void onSubQueryResult(FetchResult<List<Book>> result) {
+        if (mDone) {
+            return;
+        }
+        mPending--;
+        if (result.isSuccess()) {
+            mAnySucceeded = true;
+            if (merge(result.getValue()) && mPending > 0) {
+                mListener.onPartialResult(new ArrayList<>(mMerged.values()));
+            }
+        } else {
+            Log.e(LOG_TAG, "Sub-query failed: " + result);
+            if (mFirstFailure == null) {
+                mFirstFailure = result;
+            }
+        }
+        if (mPending == 0) {
+            complete();
+        }
+    }
+
+    /**
+     * Adds the books not merged yet after the merged ones.
+     *
+     * @return whether any book was added.
+     */
+    private boolean merge(List<Book> books) {
+        int sizeBefore = mMerged.size();
+        for (Book book : books) {
+            if (!mMerged.containsKey(book.getKey())) {
+                mMerged.put(book.getKey(), book);
+            }
+        }
+        return mMerged.size() > sizeBefore;
+    }
+
+    private synchronized void onDeadline() {
+        if (mDone) {
+            return;
+        }
+        Log.w(LOG_TAG, mPending + " sub-queries timed out");
+        complete();
+    }
+
+    private void complete() {
+        mDone = true;
+        // Stop whatever is still running, its results are no longer wanted
+        stop();
+        if (mAnySucceeded) {
+            mListener.onComplete(FetchResult.success((List<Book>) new ArrayList<>(mMerged.values())));
+        } else if (mFirstFailure != null) {
+            mListener.onComplete(mFirstFailure);
+        } else {
+            // Nothing came back before the deadline
+            mListener.onComplete(FetchResult.<List<Book>>failure(FetchResult.Status.NETWORK_ERROR,
+                    0, new SocketTimeoutException("Sub-queries timed out")));
+        }
+    }
+
+    private void stop() {
+        if (mDeadline != null) {
+            mDeadline.cancel(false);
+        }
+        for (FetchEngine.Job<List<Book>> job : mJobs) {
+            job.cancel();
+        }
+    }
+}
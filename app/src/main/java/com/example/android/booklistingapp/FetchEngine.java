@@ -0,0 +1,457 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the requests of the app on a bounded pool of threads.
+ * <p>
+ * At most {@link #MAX_PARALLEL_REQUESTS} jobs run at the same time. The ones waiting are taken
+ * by {@link Priority}, so a search typed by the user never waits behind a prefetch or a
+ * background refresh, and in submission order within a priority. A job is cancelled through its
+ * {@link Cancellation}, which closes the socket of its request, and ends with a
+ * {@link FetchResult} telling network, HTTP status and parse failures apart.
+ * <p>
+ * Jobs submitted with the same key while one of them is in flight share its request, see
+ * {@link #submitShared}.
+ * <p>
+ * The engine doesn't depend on Android, requests go through a {@link Transport}.
+ */
+public class FetchEngine {
+
+    /**
+     * Max number of jobs running at the same time
+     */
+    public static final int MAX_PARALLEL_REQUESTS = 4;
+
+    /**
+     * Lanes of the jobs, waiting jobs of a lane run before the ones of the lanes below it
+     */
+    public enum Priority {
+        USER_SEARCH,
+        PREFETCH,
+        BACKGROUND_REFRESH
+    }
+
+    /**
+     * Work of a job, e.g. a request and the parsing of its response.
+     *
+     * @param <T> type of the value of the job.
+     */
+    public interface Task<T> {
+
+        /**
+         * Called on a thread of the engine.
+         *
+         * @param transport    sends the requests, through {@link #open}.
+         * @param cancellation cancelled when the job is, long work should check it.
+         * @throws IOException    if a request fails, reported as a network error.
+         * @throws FetchException if a response can't be used, reported with its status.
+         */
+        T run(Transport transport, Cancellation cancellation) throws IOException, FetchException;
+    }
+
+    /**
+     * Receives the result of a job, once, on the thread that ran it, or on the thread that
+     * cancelled it if it never ran.
+     */
+    public interface Callback<T> {
+        void onResult(FetchResult<T> result);
+    }
+
+    private static FetchEngine sInstance;
+
+    private final Transport mTransport;
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledExecutorService mTimer;
+    private final AtomicLong mSequence = new AtomicLong();
+    //Shared jobs in flight by key, also the lock of their subscribers
+    private final Map<String, Flight<?>> mFlights = new HashMap<>();
+    //Jobs that joined a shared job already in flight instead of sending their own request
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    /**
+     * @return the engine of the app, created on first use.
+     */
+    public static synchronized FetchEngine get() {
+        if (sInstance == null) {
+            sInstance = new FetchEngine(new ResilientTransport(new OkHttpTransport()),
+                    MAX_PARALLEL_REQUESTS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link FetchEngine}.
+     *
+     * @param transport   sends the requests of the jobs.
+     * @param maxParallel max number of jobs running at the same time.
+     */
+    public FetchEngine(Transport transport, int maxParallel) {
+        mTransport = transport;
+        mExecutor = new ThreadPoolExecutor(maxParallel, maxParallel, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory("fetch"));
+        // Idle threads are not kept around between searches
+        mExecutor.allowCoreThreadTimeOut(true);
+        ScheduledThreadPoolExecutor timer =
+                new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("fetch-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        mTimer = timer;
+    }
+
+    /**
+     * Queues a job, it runs once a thread is free and no job of a higher priority is waiting.
+     *
+     * @param callback receives the result of the job, may be null.
+     * @return the job, to cancel it or wait for its result.
+     */
+    public <T> Job<T> submit(Priority priority, Task<T> task, Callback<T> callback) {
+        Job<T> job = new Job<>(priority, mSequence.getAndIncrement(), task, callback);
+        mExecutor.execute(job);
+        return job;
+    }
+
+    /**
+     * Queues a job shared by every caller submitting the same key until it ends, e.g. the same
+     * request made by a rotated screen, a second tap on search and a background refresh.
+     * <p>
+     * The first caller's task runs, the others join it and get the same result, which must not
+     * be modified. Each caller gets its own job: cancelling it only cancels the request once
+     * every other caller sharing it has cancelled too. A caller of a higher priority joining a
+     * job still waiting moves it up to its priority.
+     *
+     * @param key      normalized request, e.g. {@link BooksCache#requestKeyFor(String)} of its url.
+     * @param callback receives the result of the job, may be null.
+     * @return the job of this caller, to cancel it or wait for its result.
+     */
+    public <T> Job<T> submitShared(String key, Priority priority, Task<T> task,
+                                   Callback<T> callback) {
+        Job<T> toRun = null;
+        Job<T> subscriber;
+        synchronized (mFlights) {
+            @SuppressWarnings("unchecked")
+            Flight<T> flight = (Flight<T>) mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<>(key, task);
+                mFlights.put(key, flight);
+                toRun = flight.start(priority);
+            } else {
+                mCoalesced.incrementAndGet();
+                // Taken out of the queue and queued again with the higher priority
+                if (priority.compareTo(flight.mJob.getPriority()) < 0
+                        && mExecutor.remove(flight.mJob)) {
+                    toRun = flight.start(priority);
+                }
+            }
+            subscriber = new Job<>(priority, mSequence.getAndIncrement(), null, callback, flight);
+            flight.mSubscribers.add(subscriber);
+        }
+        if (toRun != null) {
+            mExecutor.execute(toRun);
+        }
+        return subscriber;
+    }
+
+    /**
+     * @return the number of jobs that shared a request already in flight, since the engine was
+     * created.
+     */
+    public long getCoalesced() {
+        return mCoalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FetchEngine[coalesced=" + mCoalesced.get() + "]";
+    }
+
+    /**
+     * Runs the runnable on the timer thread of the engine after a delay, e.g. to cancel jobs
+     * past a deadline. It must return quickly.
+     */
+    public ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return mTimer.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request on behalf of a task, cancelling the job cancels the request.
+     *
+     * @param headers request headers, may be empty.
+     * @throws IOException if the request fails or the job was cancelled.
+     */
+    public static Transport.Response open(Transport transport, String url,
+                                          Map<String, String> headers,
+                                          Cancellation cancellation) throws IOException {
+        final Transport.Call call = transport.newCall(url, headers);
+        // Cancelling closes the socket, so a read of the body in progress fails right away.
+        // If the job was already cancelled the call is cancelled before it starts.
+        cancellation.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        });
+        cancellation.throwIfCancelled();
+        return call.execute();
+    }
+
+    /**
+     * A job of the engine, ordered by priority then submission.
+     */
+    public final class Job<T> implements Runnable, Comparable<Job<?>> {
+
+        private final Priority mPriority;
+        private final long mSequence;
+        private final Task<T> mTask;
+        private final Callback<T> mCallback;
+        //Shared job this one subscribes to, null for a job running its own task
+        private final Flight<T> mFlight;
+        private final Cancellation mCancellation = new Cancellation();
+        private final AtomicBoolean mCompleted = new AtomicBoolean();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final long mQueuedAt = MetricsRegistry.now();
+        private volatile FetchResult<T> mResult;
+
+        private Job(Priority priority, long sequence, Task<T> task, Callback<T> callback) {
+            this(priority, sequence, task, callback, null);
+        }
+
+        private Job(Priority priority, long sequence, Task<T> task, Callback<T> callback,
+                    Flight<T> flight) {
+            mPriority = priority;
+            mSequence = sequence;
+            mTask = task;
+            mCallback = callback;
+            mFlight = flight;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Cancels the job. A waiting job is dropped right away, a running one has its request
+         * closed. Either way its result is {@link FetchResult.Status#CANCELLED}.
+         */
+        public void cancel() {
+            mCancellation.cancel();
+            if (mFlight != null) {
+                complete(FetchResult.<T>cancelled());
+                mFlight.unsubscribe(this);
+                return;
+            }
+            if (mExecutor.remove(this)) {
+                complete(FetchResult.<T>cancelled());
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancellation.isCancelled();
+        }
+
+        /**
+         * Waits for the result of the job.
+         *
+         * @return the result, or null if the job didn't end in time.
+         */
+        public FetchResult<T> await(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDone.await(timeout, unit) ? mResult : null;
+        }
+
+        @Override
+        public void run() {
+            if (mCancellation.isCancelled()) {
+                complete(FetchResult.<T>cancelled());
+                return;
+            }
+            MetricsRegistry.record(MetricsRegistry.FETCH_QUEUE, mQueuedAt);
+            FetchResult<T> result;
+            long start = MetricsRegistry.begin(MetricsRegistry.FETCH_RUN);
+            try {
+                result = FetchResult.success(mTask.run(mTransport, mCancellation));
+            } catch (FetchException e) {
+                result = e.toResult();
+            } catch (IOException e) {
+                result = FetchResult.failure(FetchResult.Status.NETWORK_ERROR, 0, e);
+            } catch (RuntimeException e) {
+                result = FetchResult.failure(FetchResult.Status.UNEXPECTED_ERROR, 0, e);
+            } finally {
+                mCancellation.setOnCancel(null);
+                MetricsRegistry.end(MetricsRegistry.FETCH_RUN, start);
+            }
+            // A cancelled request usually fails, that is not an error worth reporting
+            if (mCancellation.isCancelled()) {
+                result = FetchResult.cancelled();
+            }
+            complete(result);
+        }
+
+        private void complete(FetchResult<T> result) {
+            if (!mCompleted.compareAndSet(false, true)) {
+                return;
+            }
+            mResult = result;
+            mDone.countDown();
+            if (mCallback != null) {
+                mCallback.onResult(result);
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * A job run once for every caller of {@link #submitShared} with the same key
+     */
+    private final class Flight<T> implements Callback<T> {
+
+        private final String mKey;
+        private final Task<T> mTask;
+        //Jobs of the callers still waiting for the result, guarded by mFlights
+        private final List<Job<T>> mSubscribers = new ArrayList<>();
+        //Job running the task, replaced when moved up to a higher priority
+        private Job<T> mJob;
+
+        Flight(String key, Task<T> task) {
+            mKey = key;
+            mTask = task;
+        }
+
+        /**
+         * Creates the job running the task, called holding mFlights
+         *
+         * @return the job, to queue once the lock is released.
+         */
+        Job<T> start(Priority priority) {
+            mJob = new Job<>(priority, mSequence.getAndIncrement(), mTask, this);
+            return mJob;
+        }
+
+        /**
+         * Called when the job of a caller is cancelled, the last one cancels the request
+         */
+        void unsubscribe(Job<T> subscriber) {
+            Job<T> toCancel = null;
+            synchronized (mFlights) {
+                if (mSubscribers.remove(subscriber) && mSubscribers.isEmpty()
+                        && mFlights.get(mKey) == this) {
+                    mFlights.remove(mKey);
+                    toCancel = mJob;
+                }
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+        }
+
+        @Override
+        public void onResult(FetchResult<T> result) {
+            List<Job<T>> subscribers;
+            synchronized (mFlights) {
+                // A job submitted from now on sends a new request
+                if (mFlights.get(mKey) == this) {
+                    mFlights.remove(mKey);
+                }
+                subscribers = new ArrayList<>(mSubscribers);
+                mSubscribers.clear();
+            }
+            for (Job<T> subscriber : subscribers) {
+                subscriber.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Cancellation state of a job, shared with its task.
+     */
+    public static final class Cancellation {
+
+        private boolean mCancelled;
+        private Runnable mOnCancel;
+
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @throws InterruptedIOException if the job was cancelled.
+         */
+        public void throwIfCancelled() throws InterruptedIOException {
+            if (isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+        }
+
+        /**
+         * Cancels the job and runs the cancel action, once.
+         */
+        public void cancel() {
+            Runnable onCancel;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                onCancel = mOnCancel;
+            }
+            if (onCancel != null) {
+                onCancel.run();
+            }
+        }
+
+        /**
+         * Sets the action run on cancel, replacing the previous one, e.g. closing the current
+         * request. It runs right away if the job was already cancelled. Null removes it.
+         */
+        public void setOnCancel(Runnable onCancel) {
+            synchronized (this) {
+                mOnCancel = onCancel;
+                if (!mCancelled || onCancel == null) {
+                    return;
+                }
+            }
+            onCancel.run();
+        }
+    }
+
+    /**
+     * Names the threads of the engine, they don't keep the process alive
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
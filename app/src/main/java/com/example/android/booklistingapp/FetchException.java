@@ -0,0 +1,49 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Thrown by the tasks of the {@link FetchEngine} when a response is received but can't be used,
+ * so it is reported with its own {@link FetchResult.Status} instead of as a network error.
+ */
+public class FetchException extends Exception {
+
+    private final FetchResult.Status mStatus;
+    private final int mHttpCode;
+
+    private FetchException(FetchResult.Status status, int httpCode, String message,
+                           Throwable cause) {
+        super(message, cause);
+        mStatus = status;
+        mHttpCode = httpCode;
+    }
+
+    /**
+     * The server answered with an unexpected status code
+     */
+    public static FetchException httpStatus(int httpCode) {
+        return new FetchException(FetchResult.Status.HTTP_ERROR, httpCode,
+                "Error response code: " + httpCode, null);
+    }
+
+    /**
+     * The body of the response is malformed
+     */
+    public static FetchException parse(Throwable cause) {
+        return new FetchException(FetchResult.Status.PARSE_ERROR, 0,
+                "Malformed response: " + cause.getMessage(), cause);
+    }
+
+    public FetchResult.Status getStatus() {
+        return mStatus;
+    }
+
+    public int getHttpCode() {
+        return mHttpCode;
+    }
+
+    /**
+     * @return the failed result of the job that threw it.
+     */
+    public <T> FetchResult<T> toResult() {
+        return FetchResult.failure(mStatus, mHttpCode, this);
+    }
+}
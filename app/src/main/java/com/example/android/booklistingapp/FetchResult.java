@@ -0,0 +1,90 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Outcome of a job of the {@link FetchEngine}: its value, or why it failed.
+ *
+ * @param <T> type of the value of a successful job.
+ */
+public final class FetchResult<T> {
+
+    /**
+     * Why a job ended
+     */
+    public enum Status {
+        SUCCESS,
+        //The job was cancelled, its result is not wanted
+        CANCELLED,
+        //The request couldn't be sent or the response couldn't be read
+        NETWORK_ERROR,
+        //The server answered with an unexpected status code
+        HTTP_ERROR,
+        //The response was received but is malformed
+        PARSE_ERROR,
+        //The job threw an unexpected exception
+        UNEXPECTED_ERROR
+    }
+
+    private final Status mStatus;
+    private final T mValue;
+    private final int mHttpCode;
+    private final Throwable mError;
+
+    private FetchResult(Status status, T value, int httpCode, Throwable error) {
+        mStatus = status;
+        mValue = value;
+        mHttpCode = httpCode;
+        mError = error;
+    }
+
+    public static <T> FetchResult<T> success(T value) {
+        return new FetchResult<>(Status.SUCCESS, value, 0, null);
+    }
+
+    public static <T> FetchResult<T> cancelled() {
+        return new FetchResult<>(Status.CANCELLED, null, 0, null);
+    }
+
+    /**
+     * @param httpCode status code of the response for {@link Status#HTTP_ERROR}, 0 otherwise.
+     */
+    public static <T> FetchResult<T> failure(Status status, int httpCode, Throwable error) {
+        return new FetchResult<>(status, null, httpCode, error);
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public boolean isSuccess() {
+        return mStatus == Status.SUCCESS;
+    }
+
+    /**
+     * @return the value of a successful job, null otherwise.
+     */
+    public T getValue() {
+        return mValue;
+    }
+
+    /**
+     * @return the status code of the response for {@link Status#HTTP_ERROR}, 0 otherwise.
+     */
+    public int getHttpCode() {
+        return mHttpCode;
+    }
+
+    /**
+     * @return the cause of the failure, may be null.
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    @Override
+    public String toString() {
+        if (mStatus == Status.HTTP_ERROR) {
+            return mStatus + " " + mHttpCode;
+        }
+        return mError != null ? mStatus + ": " + mError : mStatus.toString();
+    }
+}
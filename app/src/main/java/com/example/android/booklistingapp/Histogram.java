@@ -0,0 +1,134 @@
+package com.example.android.booklistingapp;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations, recorded without locking from any thread.
+ * <p>
+ * Durations are counted in buckets of microseconds: one bucket per microsecond below 16us, then
+ * 8 buckets per power of two, so a percentile is within about 6% of the recorded value
+ * whatever its magnitude, in a fixed amount of memory.
+ */
+public final class Histogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //Up to 2^40us, 12 days, longer durations all go in one last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 4) * SUB_BUCKETS + 1;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public Histogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a duration.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos / 1000));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * Returns the duration below which the fraction of the recorded durations falls, e.g. 0.95
+     * for the 95th percentile, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double fraction) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // The middle of the bucket, but never more than the longest duration recorded
+                long lower = lowerBoundMicros(i);
+                long upper = i + 1 < BUCKETS ? lowerBoundMicros(i + 1) : lower;
+                return Math.min((lower + upper) * 1000 / 2, mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Forgets every recorded duration. Durations recorded meanwhile may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s count=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                mName, getCount(), getPercentileNanos(0.5) / 1e6, getPercentileNanos(0.95) / 1e6,
+                getPercentileNanos(0.99) / 1e6, getMaxNanos() / 1e6);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        // The bits following the leading one pick the sub-bucket
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundMicros(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+}
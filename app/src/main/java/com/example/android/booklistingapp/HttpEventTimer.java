@@ -0,0 +1,95 @@
+package com.example.android.booklistingapp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Times the steps of an HTTP call from the events of OkHttp into the {@link MetricsRegistry}:
+ * DNS lookup, TCP connection, TLS handshake, server time and download. A call reusing a pooled
+ * connection has no DNS, connection or handshake.
+ */
+final class HttpEventTimer extends EventListener {
+
+    /**
+     * Creates a timer for each call while the registry is enabled
+     */
+    static final EventListener.Factory FACTORY = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            return MetricsRegistry.isEnabled() ? new HttpEventTimer() : EventListener.NONE;
+        }
+    };
+
+    //Start of each step, the events of a call are sequential
+    private long mDnsStart;
+    private long mConnectStart;
+    private long mTlsStart;
+    private long mRequestSent;
+    private long mBodyStart;
+
+    private HttpEventTimer() {
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        mDnsStart = MetricsRegistry.now();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+        MetricsRegistry.record(MetricsRegistry.HTTP_DNS, mDnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+        mConnectStart = MetricsRegistry.now();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        // The TCP connection is established
+        MetricsRegistry.record(MetricsRegistry.HTTP_CONNECT, mConnectStart);
+        mConnectStart = 0;
+        mTlsStart = MetricsRegistry.now();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        MetricsRegistry.record(MetricsRegistry.HTTP_TLS, mTlsStart);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+        // Only recorded here for cleartext connections
+        MetricsRegistry.record(MetricsRegistry.HTTP_CONNECT, mConnectStart);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        mRequestSent = MetricsRegistry.now();
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        MetricsRegistry.record(MetricsRegistry.HTTP_SERVER, mRequestSent);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        mBodyStart = MetricsRegistry.now();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        MetricsRegistry.record(MetricsRegistry.HTTP_DOWNLOAD, mBodyStart);
+    }
+}
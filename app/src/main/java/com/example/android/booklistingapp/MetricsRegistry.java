@@ -0,0 +1,204 @@
+package com.example.android.booklistingapp;
+
+import android.os.Build;
+import android.os.Trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times the stages of a search, from the click to the first frame showing its results, so a
+ * slow search can be broken down into where its time went.
+ * <p>
+ * Each stage is an {@link android.os.Trace} section, visible in systrace and Perfetto, and its
+ * durations are kept in a {@link Histogram} of the registry, dumped with
+ * {@code adb shell dumpsys activity com.example.android.booklistingapp} or exported as JSON.
+ * The counters registered, e.g. {@link SearchMetrics}, are dumped after the stages.
+ * <p>
+ * While disabled, the default, timing a stage costs a read of a volatile field.
+ */
+public final class MetricsRegistry {
+
+    /**
+     * Stages of a search, see where they are timed
+     */
+    //From the search triggered in BooksActivity to the first frame drawn with its books
+    public static final String SEARCH_TOTAL = "search.total";
+    //From the search in BooksViewModel to the page of results handed back to it
+    public static final String SEARCH_LOAD = "search.load";
+    //Time a job waits in the queue of the FetchEngine, then runs on one of its threads
+    public static final String FETCH_QUEUE = "fetch.queue";
+    public static final String FETCH_RUN = "fetch.run";
+    //A request and the parsing of its response in QueryUtils.makeHttpRequest
+    public static final String HTTP_REQUEST = "http.request";
+    //Steps of the HTTP call, from the events of OkHttp
+    public static final String HTTP_DNS = "http.dns";
+    public static final String HTTP_CONNECT = "http.connect";
+    public static final String HTTP_TLS = "http.tls";
+    //From the request sent to the headers of the response received
+    public static final String HTTP_SERVER = "http.server";
+    //Reading the body, which overlaps the streaming parse
+    public static final String HTTP_DOWNLOAD = "http.download";
+    public static final String PARSE_EXTRACT_BOOKS = "parse.extractBooks";
+    public static final String PARSE_READ_FROM_STREAM = "parse.readFromStream";
+    //From the result of a load to its delivery on the main thread
+    public static final String MAIN_DELIVER = "main.deliver";
+    public static final String ADAPTER_BIND = "adapter.bind";
+    //From the request of a thumbnail to it being shown
+    public static final String THUMBNAIL_LOAD = "thumbnail.load";
+
+    private static final MetricsRegistry sInstance = new MetricsRegistry();
+    private static volatile boolean sEnabled;
+
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    //Counters dumped after the stages, by name
+    private final ConcurrentHashMap<String, Object> mCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Create a private constructor, the histograms are shared through {@link #get()}.
+     */
+    private MetricsRegistry() {
+    }
+
+    /**
+     * @return the registry of the whole process.
+     */
+    public static MetricsRegistry get() {
+        return sInstance;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Starts timing a stage running on the current thread, and its trace section.
+     *
+     * @return the start of the stage, to pass to {@link #end(String, long)} on the same thread.
+     */
+    public static long begin(String stage) {
+        if (!sEnabled) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(stage);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the stage started by {@link #begin(String)} and records its duration.
+     */
+    public static void end(String stage, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        sInstance.histogram(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the current time to start timing a stage spanning threads, or 0 while disabled.
+     */
+    public static long now() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the duration of a stage started with {@link #now()}, on any thread.
+     */
+    public static void record(String stage, long startNanos) {
+        if (startNanos == 0 || !sEnabled) {
+            return;
+        }
+        sInstance.histogram(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the histogram of the stage, created on first use.
+     */
+    public Histogram histogram(String stage) {
+        Histogram histogram = mHistograms.get(stage);
+        if (histogram == null) {
+            Histogram created = new Histogram(stage);
+            histogram = mHistograms.putIfAbsent(stage, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Adds counters to the dump, written with their {@link Object#toString()} on each dump.
+     * Counters registered under the same name replace the previous ones.
+     */
+    public void registerCounters(String name, Object counters) {
+        mCounters.put(name, counters);
+    }
+
+    /**
+     * Forgets the durations recorded so far.
+     */
+    public void reset() {
+        for (Histogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return a line per stage timed, then a line per counters registered, in the order of
+     * their names.
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (Histogram histogram : sorted()) {
+            dump.append(histogram).append('\n');
+        }
+        List<String> names = new ArrayList<>(mCounters.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            dump.append(name).append(": ").append(mCounters.get(name)).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * @return the percentiles of every stage timed, in nanoseconds, by stage.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Histogram histogram : sorted()) {
+            JSONObject stage = new JSONObject();
+            stage.put("count", histogram.getCount());
+            stage.put("meanNanos", histogram.getMeanNanos());
+            stage.put("p50Nanos", histogram.getPercentileNanos(0.5));
+            stage.put("p95Nanos", histogram.getPercentileNanos(0.95));
+            stage.put("p99Nanos", histogram.getPercentileNanos(0.99));
+            stage.put("maxNanos", histogram.getMaxNanos());
+            json.put(histogram.getName(), stage);
+        }
+        return json;
+    }
+
+    private List<Histogram> sorted() {
+        List<String> stages = new ArrayList<>(mHistograms.keySet());
+        Collections.sort(stages);
+        List<Histogram> histograms = new ArrayList<>();
+        for (String stage : stages) {
+            histograms.add(mHistograms.get(stage));
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.android.booklistingapp;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Estimates the quality of the network from the recent fetches and from what the system knows
+ * of the link, and picks the {@link Plan} of the next requests: how many results a page has,
+ * whether the descriptions and the thumbnails are asked for and at which resolution.
+ * <p>
+ * On a 2G-class link a small page without descriptions nor thumbnails shows the first results
+ * quickly, on Wi-Fi the pages are fuller. The bandwidth is measured on the decoded bodies of the
+ * responses, the time to their headers stands for the round trip time. Each plan picked is
+ * counted, see {@link #toString()}.
+ */
+public final class NetworkQuality {
+
+    /**
+     * Plan used while nothing is known of the network, the requests of the app before it adapted
+     * them
+     */
+    public static final Plan DEFAULT_PLAN = Plan.GOOD;
+
+    /**
+     * Weight of a new sample in the estimates, the older ones fade away
+     */
+    static final double SAMPLE_WEIGHT = 0.3;
+    /**
+     * Min size of a body to measure the bandwidth, smaller ones mostly measure the latency
+     */
+    static final long MIN_SAMPLE_BYTES = 8 * 1024;
+    /**
+     * Age after which the samples are not trusted anymore, e.g. the user moved to another network
+     */
+    static final long SAMPLE_MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    //Bandwidth below which the link is 2G-class, then 3G-class, and above which pages are full
+    static final double POOR_KBPS = 150;
+    static final double MODERATE_KBPS = 700;
+    static final double EXCELLENT_KBPS = 5000;
+    //Time to the response headers above which the link is 2G-class, then 3G-class
+    static final double POOR_RESPONSE_MILLIS = 2000;
+    static final double MODERATE_RESPONSE_MILLIS = 1000;
+    //Bandwidth assumed for the 2G links the system doesn't give a bandwidth for
+    private static final int LINK_2G_KBPS = 50;
+
+    /**
+     * What the requests ask for, from the lightest to the fullest
+     */
+    public enum Plan {
+        POOR(10, false, null),
+        MODERATE(20, true, VolumeFields.SMALL_THUMBNAIL),
+        GOOD(20, true, VolumeFields.THUMBNAIL),
+        EXCELLENT(40, true, VolumeFields.THUMBNAIL);
+
+        private final int mPageSize;
+        private final boolean mDescriptions;
+        private final String mThumbnailField;
+        private final String mProjection;
+
+        Plan(int pageSize, boolean descriptions, String thumbnailField) {
+            mPageSize = pageSize;
+            mDescriptions = descriptions;
+            mThumbnailField = thumbnailField;
+            mProjection = VolumeFields.spec(descriptions, thumbnailField).childrenToString();
+        }
+
+        /**
+         * @return the number of results asked for each page.
+         */
+        public int getPageSize() {
+            return mPageSize;
+        }
+
+        public boolean hasDescriptions() {
+            return mDescriptions;
+        }
+
+        /**
+         * @return {@link VolumeFields#THUMBNAIL} or {@link VolumeFields#SMALL_THUMBNAIL}, null
+         * if the thumbnails are not asked for.
+         */
+        public String getThumbnailField() {
+            return mThumbnailField;
+        }
+
+        /**
+         * @return the value of the fields parameter of the requests.
+         */
+        public String getProjection() {
+            return mProjection;
+        }
+    }
+
+    private static final NetworkQuality sInstance = new NetworkQuality();
+
+    //Estimates from the samples, -1 until measured
+    private double mBandwidthKbps = -1;
+    private double mResponseMillis = -1;
+    private long mLastSampleAt;
+    //What the system knows of the active link, -1 if it doesn't give a bandwidth
+    private int mLinkKbps = -1;
+    private boolean mUnmetered;
+    //Number of times each plan was picked
+    private final long[] mDecisions = new long[Plan.values().length];
+
+    /**
+     * Create a package-private constructor, the estimates are shared through {@link #get()} and
+     * tests start from new ones.
+     */
+    NetworkQuality() {
+    }
+
+    /**
+     * @return the estimates of the whole process.
+     */
+    public static NetworkQuality get() {
+        return sInstance;
+    }
+
+    /**
+     * Called when the headers of a response arrived.
+     *
+     * @param responseMillis time from the request to the headers.
+     * @param now            current time in milliseconds.
+     */
+    public synchronized void onResponse(long responseMillis, long now) {
+        expire(now);
+        mResponseMillis = average(mResponseMillis, responseMillis);
+        mLastSampleAt = now;
+    }
+
+    /**
+     * Called when the body of a response was read.
+     *
+     * @param bytes     read from the body.
+     * @param readNanos time spent waiting for them.
+     * @param now       current time in milliseconds.
+     */
+    public synchronized void onBody(long bytes, long readNanos, long now) {
+        if (bytes < MIN_SAMPLE_BYTES || readNanos <= 0) {
+            return;
+        }
+        expire(now);
+        double kbps = bytes * 8 * 1000000.0 / readNanos;
+        mBandwidthKbps = average(mBandwidthKbps, kbps);
+        mLastSampleAt = now;
+    }
+
+    /**
+     * Called with what the system knows of the active link.
+     *
+     * @param linkKbps  its downstream bandwidth, -1 if unknown.
+     * @param unmetered whether it is unmetered, e.g. Wi-Fi.
+     */
+    public synchronized void onLink(int linkKbps, boolean unmetered) {
+        mLinkKbps = linkKbps;
+        mUnmetered = unmetered;
+    }
+
+    /**
+     * Reads the active link from the {@link NetworkCapabilities}, or from the type of the
+     * network before Android 6.0.
+     */
+    @SuppressWarnings("deprecation")
+    public void onLink(ConnectivityManager connectivityManager) {
+        int linkKbps = -1;
+        boolean unmetered = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = connectivityManager.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null
+                    ? connectivityManager.getNetworkCapabilities(network) : null;
+            if (capabilities != null) {
+                linkKbps = capabilities.getLinkDownstreamBandwidthKbps();
+                unmetered = capabilities.hasCapability(
+                        NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            }
+        } else {
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            if (networkInfo != null) {
+                unmetered = !connectivityManager.isActiveNetworkMetered();
+                if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE
+                        && is2G(networkInfo.getSubtype())) {
+                    linkKbps = LINK_2G_KBPS;
+                }
+            }
+        }
+        onLink(linkKbps > 0 ? linkKbps : -1, unmetered);
+    }
+
+    /**
+     * Picks the plan of the next requests and counts it.
+     *
+     * @param now current time in milliseconds.
+     */
+    public synchronized Plan getPlan(long now) {
+        Plan plan = choose(now);
+        mDecisions[plan.ordinal()]++;
+        return plan;
+    }
+
+    /**
+     * @return the number of times the plan was picked.
+     */
+    public synchronized long getDecisions(Plan plan) {
+        return mDecisions[plan.ordinal()];
+    }
+
+    /**
+     * @return the measured bandwidth in kbps, -1 if not measured.
+     */
+    public synchronized double getBandwidthKbps() {
+        return mBandwidthKbps;
+    }
+
+    /**
+     * @return the measured time to the response headers in milliseconds, -1 if not measured.
+     */
+    public synchronized double getResponseMillis() {
+        return mResponseMillis;
+    }
+
+    private Plan choose(long now) {
+        // Recent samples tell more than the system, which only knows the link to the first hop
+        boolean measured = mLastSampleAt > 0 && now - mLastSampleAt < SAMPLE_MAX_AGE_MILLIS;
+        double kbps = measured && mBandwidthKbps >= 0 ? mBandwidthKbps : mLinkKbps;
+        double responseMillis = measured ? mResponseMillis : -1;
+        if ((kbps >= 0 && kbps < POOR_KBPS) || responseMillis >= POOR_RESPONSE_MILLIS) {
+            return Plan.POOR;
+        }
+        if ((kbps >= 0 && kbps < MODERATE_KBPS) || responseMillis >= MODERATE_RESPONSE_MILLIS) {
+            return Plan.MODERATE;
+        }
+        if (kbps >= EXCELLENT_KBPS || (kbps < 0 && mUnmetered)) {
+            return Plan.EXCELLENT;
+        }
+        return kbps < 0 ? DEFAULT_PLAN : Plan.GOOD;
+    }
+
+    /**
+     * Forgets the estimates once the samples are too old, the next ones start them again
+     */
+    private void expire(long now) {
+        if (mLastSampleAt > 0 && now - mLastSampleAt >= SAMPLE_MAX_AGE_MILLIS) {
+            mBandwidthKbps = -1;
+            mResponseMillis = -1;
+        }
+    }
+
+    /**
+     * @return the moving average with the sample added, the sample if there was none.
+     */
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SAMPLE_WEIGHT * (sample - average);
+    }
+
+    /**
+     * @return whether the mobile network type is 2G-class.
+     */
+    private static boolean is2G(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("NetworkQuality[bandwidthKbps=")
+                .append(Math.round(mBandwidthKbps))
+                .append(",responseMillis=").append(Math.round(mResponseMillis))
+                .append(",linkKbps=").append(mLinkKbps)
+                .append(",unmetered=").append(mUnmetered);
+        for (Plan plan : Plan.values()) {
+            builder.append(',').append(plan.name().toLowerCase(Locale.US)).append('=')
+                    .append(mDecisions[plan.ordinal()]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Body of a response counting its bytes and the time spent waiting for them, not the time
+     * spent parsing them between reads
+     */
+    static final class MeasuringInputStream extends FilterInputStream {
+
+        private long mBytes;
+        private long mReadNanos;
+
+        MeasuringInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getBytes() {
+            return mBytes;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int read = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (read != -1) {
+                mBytes++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytes += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import okhttp3.Request;
+
+/**
+ * {@link Transport} sending the requests through the client of {@link BooksHttpClient}, so they
+ * share its connection pool and gzip handling.
+ */
+public class OkHttpTransport implements Transport {
+
+    @Override
+    public Call newCall(String url, Map<String, String> headers) {
+        Request.Builder request = new Request.Builder().get();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.header(header.getKey(), header.getValue());
+        }
+        try {
+            request.url(url);
+        } catch (IllegalArgumentException e) {
+            return new FailedCall(new IOException("Invalid url " + url, e));
+        }
+        final okhttp3.Call call = BooksHttpClient.get().newCall(request.build());
+        return new Call() {
+            @Override
+            public Response execute() throws IOException {
+                final okhttp3.Response response = call.execute();
+                return new Response() {
+                    @Override
+                    public int code() {
+                        return response.code();
+                    }
+
+                    @Override
+                    public String header(String name) {
+                        return response.header(name);
+                    }
+
+                    @Override
+                    public InputStream body() {
+                        return response.body().byteStream();
+                    }
+
+                    @Override
+                    public void close() {
+                        // Returns the connection to the pool instead of tearing it down
+                        response.close();
+                    }
+                };
+            }
+
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
+        };
+    }
+
+    /**
+     * Call of a request that can't be sent
+     */
+    private static class FailedCall implements Call {
+
+        private final IOException mError;
+
+        FailedCall(IOException error) {
+            mError = error;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            throw mError;
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
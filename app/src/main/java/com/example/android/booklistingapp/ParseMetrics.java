@@ -0,0 +1,60 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Counters of the volumes parsed by {@link QueryUtils}, to see how often Google Books sends
+ * volumes that miss fields or have unexpected values.
+ */
+public final class ParseMetrics {
+
+    private static final ParseMetrics sInstance = new ParseMetrics();
+
+    //Volumes turned into books with every field
+    private long mComplete;
+    //Volumes turned into books with defaults for missing or malformed fields
+    private long mPartial;
+    //Volumes dropped, without a title or not even an object
+    private long mSkipped;
+
+    /**
+     * Create a private constructor, the counters are shared through {@link #get()}.
+     */
+    private ParseMetrics() {
+    }
+
+    /**
+     * @return the counters of the whole process.
+     */
+    public static ParseMetrics get() {
+        return sInstance;
+    }
+
+    public synchronized void onComplete() {
+        mComplete++;
+    }
+
+    public synchronized void onPartial() {
+        mPartial++;
+    }
+
+    public synchronized void onSkipped() {
+        mSkipped++;
+    }
+
+    public synchronized long getComplete() {
+        return mComplete;
+    }
+
+    public synchronized long getPartial() {
+        return mPartial;
+    }
+
+    public synchronized long getSkipped() {
+        return mSkipped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ParseMetrics[complete=" + mComplete + ",partial=" + mPartial
+                + ",skipped=" + mSkipped + "]";
+    }
+}
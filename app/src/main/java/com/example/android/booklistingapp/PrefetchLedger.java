@@ -0,0 +1,233 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accounts for the bytes downloaded by the {@link PrefetchWorker}: how much of the daily budget
+ * is spent, and how much of the prefetched results was then served to a search from the cache,
+ * without downloading them again.
+ * <p>
+ * Kept in a file of the app, the searches served by a prefetch usually run after the process
+ * that prefetched was gone.
+ */
+public class PrefetchLedger {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PrefetchLedger.class.getSimpleName();
+    /**
+     * Max bytes the prefetch downloads each day
+     */
+    public static final long DEFAULT_DAILY_BUDGET_BYTES = 2 * 1024 * 1024;
+    /**
+     * Max number of prefetched results whose use is tracked, the oldest ones are dropped beyond it
+     */
+    public static final int MAX_TRACKED_RESULTS = 100;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "prefetch_ledger";
+
+    private static PrefetchLedger sInstance;
+
+    private final File mFile;
+    private final long mDailyBudgetBytes;
+    private boolean mLoaded;
+
+    //Day of the bytes spent, since the epoch in UTC
+    private long mDay;
+    private long mSpentToday;
+    //Totals since the app was installed
+    private long mPrefetchedBytes;
+    private long mUsedBytes;
+    //Bytes of the prefetched results not served yet, by cache key
+    private final LinkedHashMap<String, Long> mUnused = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new {@link PrefetchLedger}.
+     *
+     * @param file             where the ledger is stored.
+     * @param dailyBudgetBytes max bytes the prefetch downloads each day.
+     */
+    public PrefetchLedger(File file, long dailyBudgetBytes) {
+        mFile = file;
+        mDailyBudgetBytes = dailyBudgetBytes;
+    }
+
+    /**
+     * @return the ledger of the app, stored in the app's files directory.
+     */
+    public static synchronized PrefetchLedger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PrefetchLedger(new File(context.getApplicationContext().getFilesDir(),
+                    FILE_NAME), DEFAULT_DAILY_BUDGET_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the bytes the prefetch can still download today, 0 once the budget is spent.
+     */
+    public synchronized long getRemainingBytes(long nowMillis) {
+        load();
+        rollOver(nowMillis);
+        return Math.max(0, mDailyBudgetBytes - mSpentToday);
+    }
+
+    /**
+     * Charges the download of a page of results to the budget, its use is tracked.
+     */
+    public synchronized void onPrefetched(String url, long bytes, long nowMillis) {
+        load();
+        rollOver(nowMillis);
+        mSpentToday += bytes;
+        mPrefetchedBytes += bytes;
+        String key = BooksCache.keyFor(url);
+        mUnused.remove(key);
+        mUnused.put(key, bytes);
+        Iterator<String> oldest = mUnused.keySet().iterator();
+        while (mUnused.size() > MAX_TRACKED_RESULTS) {
+            oldest.next();
+            oldest.remove();
+        }
+        save();
+    }
+
+    /**
+     * Charges a download whose use isn't tracked to the budget, e.g. a thumbnail.
+     */
+    public synchronized void onSpent(long bytes, long nowMillis) {
+        load();
+        rollOver(nowMillis);
+        mSpentToday += bytes;
+        mPrefetchedBytes += bytes;
+        save();
+    }
+
+    /**
+     * Called when a search served the results of the url from the cache. If they were
+     * prefetched, their bytes count as used, once.
+     */
+    public synchronized void onServedFromCache(String url) {
+        load();
+        Long bytes = mUnused.remove(BooksCache.keyFor(url));
+        if (bytes != null) {
+            mUsedBytes += bytes;
+            save();
+        }
+    }
+
+    /**
+     * Called when a search downloaded the results of the url again, their prefetch was not used.
+     */
+    public synchronized void onDownloaded(String url) {
+        load();
+        if (mUnused.remove(BooksCache.keyFor(url)) != null) {
+            save();
+        }
+    }
+
+    public synchronized long getPrefetchedBytes() {
+        load();
+        return mPrefetchedBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        load();
+        return mUsedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        load();
+        return "PrefetchLedger[spentToday=" + mSpentToday + ",prefetched=" + mPrefetchedBytes
+                + ",used=" + mUsedBytes + "]";
+    }
+
+    /**
+     * Starts a new budget on a new day
+     */
+    private void rollOver(long nowMillis) {
+        long day = nowMillis / DAY_MILLIS;
+        if (day != mDay) {
+            mDay = day;
+            mSpentToday = 0;
+        }
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            mDay = in.readLong();
+            mSpentToday = in.readLong();
+            mPrefetchedBytes = in.readLong();
+            mUsedBytes = in.readLong();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = in.readUTF();
+                mUnused.put(key, in.readLong());
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the prefetch ledger", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(mDay);
+            out.writeLong(mSpentToday);
+            out.writeLong(mPrefetchedBytes);
+            out.writeLong(mUsedBytes);
+            out.writeInt(mUnused.size());
+            for (Map.Entry<String, Long> entry : mUnused.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the prefetch ledger", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the caches with the first page of results of the queries the user searches for most
+ * recently and most often, so they show instantly, even offline.
+ * <p>
+ * Runs periodically on an unmetered network while the device charges. The results are fetched
+ * on the lowest lane of the {@link FetchEngine} into the {@link BooksCache} and the
+ * {@link BookIndex}, along with the thumbnails of the first books into the disk cache of the
+ * {@link ThumbnailLoader}. Every download is charged to the daily budget of the
+ * {@link PrefetchLedger}, the prefetch stops once it is spent.
+ */
+public class PrefetchWorker extends Worker {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PrefetchWorker.class.getSimpleName();
+    /**
+     * Number of most recent and most frequent queries prefetched
+     */
+    public static final int RECENT_QUERIES = 5;
+    public static final int FREQUENT_QUERIES = 5;
+    /**
+     * Number of books of each query whose thumbnail is prefetched, the ones visible first
+     */
+    public static final int THUMBNAILS_PER_QUERY = 10;
+    /**
+     * Time between two prefetches
+     */
+    public static final long PERIOD_HOURS = 12;
+
+    private static final String WORK_NAME = "prefetch";
+    private static final long FETCH_TIMEOUT_SECONDS = 60;
+
+    public PrefetchWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Schedules the prefetch, unless it is already scheduled.
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(PrefetchWorker.class,
+                PERIOD_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        BooksCache cache = BooksCache.getInstance(context);
+        PrefetchLedger ledger = PrefetchLedger.getInstance(context);
+        boolean fanOut = context.getResources().getBoolean(R.bool.fan_out_search);
+
+        // Fetched with the urls a search on this network asks for
+        NetworkQuality quality = NetworkQuality.get();
+        quality.onLink((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE));
+        NetworkQuality.Plan plan = quality.getPlan(System.currentTimeMillis());
+
+        List<String> queries = QueryHistory.getInstance(context)
+                .getQueriesToPrefetch(RECENT_QUERIES, FREQUENT_QUERIES);
+        for (String query : queries) {
+            for (String url : BooksViewModel.toFirstPageUrls(query, fanOut, plan)) {
+                if (isStopped() || ledger.getRemainingBytes(System.currentTimeMillis()) == 0) {
+                    Log.d(LOG_TAG, "Prefetch stopped: " + ledger);
+                    return Result.success();
+                }
+                BooksCache.Entry entry = cache.getEntry(url);
+                if (entry != null && cache.isFreshFor(entry, url)) {
+                    continue;
+                }
+                try {
+                    prefetch(context, cache, ledger, url);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Result.success();
+                }
+            }
+        }
+        Log.d(LOG_TAG, "Prefetch done: " + ledger);
+        return Result.success();
+    }
+
+    /**
+     * Fetches the results of the url into the caches and the index, and the thumbnails of its
+     * first books
+     */
+    private void prefetch(Context context, BooksCache cache, PrefetchLedger ledger, String url)
+            throws InterruptedException {
+        final ByteCountingTransport[] counting = new ByteCountingTransport[1];
+        final FetchEngine.Task<List<Book>> task = QueryUtils.fetchTask(url, cache);
+        // Shares the request of a search for the same url already in flight, if any
+        FetchEngine.Job<List<Book>> job = FetchEngine.get().submitShared(
+                BooksCache.requestKeyFor(url), FetchEngine.Priority.BACKGROUND_REFRESH,
+                new FetchEngine.Task<List<Book>>() {
+                    @Override
+                    public List<Book> run(Transport transport,
+                                          FetchEngine.Cancellation cancellation)
+                            throws IOException, FetchException {
+                        counting[0] = new ByteCountingTransport(transport);
+                        return task.run(counting[0], cancellation);
+                    }
+                }, null);
+        FetchResult<List<Book>> result = job.await(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (result == null) {
+            job.cancel();
+            return;
+        }
+        long bytes = counting[0] != null ? counting[0].getBytesRead() : 0;
+        if (!result.isSuccess()) {
+            Log.e(LOG_TAG, "Error while prefetching " + url + ": " + result);
+            ledger.onSpent(bytes, System.currentTimeMillis());
+            return;
+        }
+        // A revalidated result downloads nothing, nor does one shared with a search, there is
+        // nothing new to count as used
+        if (bytes > 0) {
+            ledger.onPrefetched(url, bytes, System.currentTimeMillis());
+        }
+
+        List<Book> books = result.getValue();
+        // Stored as the result of the url, shown first by the next search for it
+        BookIndex.getInstance(context).putResult(url, books, System.currentTimeMillis());
+        for (int i = 0; i < books.size() && i < THUMBNAILS_PER_QUERY; i++) {
+            if (isStopped() || ledger.getRemainingBytes(System.currentTimeMillis()) == 0) {
+                return;
+            }
+            String thumbnail = books.get(i).getThumbnailUrl();
+            if (TextUtils.isEmpty(thumbnail)) {
+                continue;
+            }
+            try {
+                ledger.onSpent(ThumbnailLoader.warm(context, Uri.parse(thumbnail)),
+                        System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while prefetching a thumbnail", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.booklistingapp;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats the prices of the books in the currency of each one, e.g. $9.99 or 9,99 €, as the
+ * default locale writes them.
+ * <p>
+ * Creating a currency format loads locale data, so one format per currency is kept and reused
+ * until the default locale changes.
+ */
+public final class PriceFormatter {
+
+    //Formats of the currencies seen so far, for the locale they were created for
+    private static final Map<String, NumberFormat> sFormats = new HashMap<>();
+    private static Locale sLocale;
+
+    /**
+     * Create a private constructor, the formats are shared through {@link #format(long, String)}.
+     */
+    private PriceFormatter() {
+    }
+
+    /**
+     * @param priceMicros  the price in millionths of the currency.
+     * @param currencyCode ISO 4217 code of the currency.
+     * @return the price with its currency, or the code followed by the amount if the currency
+     * isn't known.
+     */
+    public static synchronized String format(long priceMicros, String currencyCode) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(sLocale)) {
+            sFormats.clear();
+            sLocale = locale;
+        }
+        NumberFormat format = sFormats.get(currencyCode);
+        if (format == null) {
+            format = NumberFormat.getCurrencyInstance(locale);
+            try {
+                Currency currency = Currency.getInstance(currencyCode);
+                format.setCurrency(currency);
+                // With the decimals of the currency, e.g. none for yens
+                if (currency.getDefaultFractionDigits() >= 0) {
+                    format.setMinimumFractionDigits(currency.getDefaultFractionDigits());
+                    format.setMaximumFractionDigits(currency.getDefaultFractionDigits());
+                }
+            } catch (IllegalArgumentException e) {
+                // Unknown currency, its code is written before the amount
+                DecimalFormat decimal = new DecimalFormat("0.00",
+                        DecimalFormatSymbols.getInstance(locale));
+                decimal.setPositivePrefix(currencyCode + " ");
+                format = decimal;
+            }
+            sFormats.put(currencyCode, format);
+        }
+        return format.format(priceMicros / 1000000.0);
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The queries the user searched for, how many times and when last, so the most recent and most
+ * frequent ones can be prefetched by the {@link PrefetchWorker}.
+ * <p>
+ * The history is small and kept in a file of the app, rewritten on each search.
+ */
+public class QueryHistory {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = QueryHistory.class.getSimpleName();
+    /**
+     * Max number of queries kept, the least recently searched ones are dropped beyond it
+     */
+    public static final int MAX_QUERIES = 50;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "query_history";
+
+    private static QueryHistory sInstance;
+
+    private final File mFile;
+    //Count and time of the last search of each query, read from the file on first use
+    private Map<String, long[]> mQueries;
+
+    /**
+     * Constructs a new {@link QueryHistory}.
+     *
+     * @param file where the history is stored.
+     */
+    public QueryHistory(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the history of the app, stored in the app's files directory.
+     */
+    public static synchronized QueryHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QueryHistory(new File(context.getApplicationContext().getFilesDir(),
+                    FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the query as it is kept, equivalent queries are counted together as they share
+     * the same cached results.
+     */
+    static String normalize(CharSequence query) {
+        return query.toString().trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Records a search of the query in background.
+     */
+    public void recordAsync(CharSequence query) {
+        //The text of the search view may change before it runs
+        final String text = query.toString();
+        final long now = System.currentTimeMillis();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                record(text, now);
+            }
+        });
+    }
+
+    /**
+     * Records a search of the query.
+     */
+    public synchronized void record(CharSequence query, long nowMillis) {
+        String key = normalize(query);
+        if (key.isEmpty()) {
+            return;
+        }
+        Map<String, long[]> queries = load();
+        long[] stats = queries.get(key);
+        if (stats == null) {
+            stats = new long[2];
+            queries.put(key, stats);
+        }
+        stats[0]++;
+        stats[1] = nowMillis;
+
+        // Drop the queries not searched for the longest
+        while (queries.size() > MAX_QUERIES) {
+            queries.remove(byRecency(queries).get(queries.size() - 1));
+        }
+        save(queries);
+    }
+
+    /**
+     * Returns the queries to prefetch: the most recent ones first, then the most frequent ones
+     * not already returned.
+     *
+     * @param recent   number of most recent queries.
+     * @param frequent number of most frequent queries.
+     */
+    public synchronized List<String> getQueriesToPrefetch(int recent, int frequent) {
+        final Map<String, long[]> queries = load();
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        List<String> byRecency = byRecency(queries);
+        result.addAll(byRecency.subList(0, Math.min(recent, byRecency.size())));
+
+        // Most searched first, the most recent first between equally searched ones
+        List<String> byFrequency = new ArrayList<>(byRecency);
+        Collections.sort(byFrequency, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long countA = queries.get(a)[0];
+                long countB = queries.get(b)[0];
+                return countA > countB ? -1 : (countA == countB ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < byFrequency.size() && i < frequent; i++) {
+            result.add(byFrequency.get(i));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the queries, the most recently searched first
+     */
+    private static List<String> byRecency(final Map<String, long[]> queries) {
+        List<String> keys = new ArrayList<>(queries.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long timeA = queries.get(a)[1];
+                long timeB = queries.get(b)[1];
+                return timeA > timeB ? -1 : (timeA == timeB ? 0 : 1);
+            }
+        });
+        return keys;
+    }
+
+    private Map<String, long[]> load() {
+        if (mQueries != null) {
+            return mQueries;
+        }
+        mQueries = new TreeMap<>();
+        if (!mFile.exists()) {
+            return mQueries;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return mQueries;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String query = in.readUTF();
+                mQueries.put(query, new long[]{in.readLong(), in.readLong()});
+            }
+        } catch (IOException e) {
+            // Start over, a corrupted history only makes the prefetch less useful
+            Log.e(LOG_TAG, "Error reading the query history", e);
+            mQueries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return mQueries;
+    }
+
+    private void save(Map<String, long[]> queries) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(queries.size());
+            for (Map.Entry<String, long[]> entry : queries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the query history", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
@@ -1,23 +1,26 @@
 package com.example.android.booklistingapp;
 
-import android.net.Uri;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from Google Books API.
@@ -26,6 +29,30 @@ public final class QueryUtils {
 
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //Initial size of the buffer responses are read into
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+
+    /**
+     * Number of books handed to a {@link BatchListener} at a time, about a screenful of rows
+     */
+    public static final int BATCH_SIZE = 5;
+
+    /**
+     * Receives the books of a response while it is still being downloaded and parsed, so they
+     * can be shown before the whole page arrived.
+     */
+    public interface BatchListener {
+
+        /**
+         * Called on the thread parsing the response, each time {@link #BATCH_SIZE} more books
+         * were parsed. The books left at the end of the response only come with the result.
+         *
+         * @param batch the books parsed since the previous batch, in the order of the response.
+         */
+        void onBatch(List<Book> batch);
+    }
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -35,30 +62,135 @@ public final class QueryUtils {
     }
 
     /**
-     * Query the Google API dataset and return an {@link Book} object to represent a single earthquake.
+     * Query the Google API dataset and return a list of {@link Book} objects.
      */
     public static List<Book> fetchBooks(String requestUrl) {
-        // Create URL object
-        URL url = createUrl(requestUrl);
+        return fetchBooks(requestUrl, null);
+    }
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+    /**
+     * Query the Google API dataset and return a list of {@link Book} objects, going through the
+     * given cache.
+     *
+     * @return the books, or null on error.
+     * @see #fetchBooks(Transport, String, BooksCache, FetchEngine.Cancellation)
+     */
+    public static List<Book> fetchBooks(String requestUrl, BooksCache cache) {
         try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+            return fetchBooks(new OkHttpTransport(), requestUrl, cache,
+                    new FetchEngine.Cancellation());
+        } catch (IOException | FetchException e) {
+            Log.e(LOG_TAG, "Problem retrieving the books JSON results.", e);
+            return null;
         }
+    }
 
-        // Extract relevant fields from the JSON response and create an {@link Event} object
-        List<Book> books = extractBooks(jsonResponse);
+    /**
+     * Query the Google API dataset and return a list of {@link Book} objects, going through the
+     * given cache.
+     * <p>
+     * Fresh cached results are returned straight away. Stale ones are revalidated with a
+     * conditional request and reused without downloading or parsing anything if the server
+     * answers 304 Not Modified, or if it is overloaded.
+     *
+     * @param transport    sends the request.
+     * @param cache        where results and their validators are stored, null to skip caching.
+     * @param cancellation cancels the request and the parsing of the response.
+     * @throws IOException    if the request fails or is cancelled.
+     * @throws FetchException if the server answers with an error or a malformed response.
+     */
+    static List<Book> fetchBooks(Transport transport, String requestUrl, BooksCache cache,
+                                 FetchEngine.Cancellation cancellation)
+            throws IOException, FetchException {
+        return fetchBooks(transport, requestUrl, cache, cancellation, null);
+    }
 
-        // Return the {@link Event}
-        return books;
+    /**
+     * Same as {@link #fetchBooks(Transport, String, BooksCache, FetchEngine.Cancellation)},
+     * handing the books to the listener in batches while the response is parsed.
+     *
+     * @param listener receives the batches, may be null. Cached results are not handed to it.
+     */
+    static List<Book> fetchBooks(Transport transport, String requestUrl, BooksCache cache,
+                                 FetchEngine.Cancellation cancellation, BatchListener listener)
+            throws IOException, FetchException {
+        BooksCache.Entry cached = null;
+        BooksCache.Entry validated = null;
+        if (cache != null) {
+            cached = cache.getEntry(requestUrl);
+            if (cached != null && cache.isFreshFor(cached, requestUrl)) {
+                return cached.getBooks();
+            }
+            // The validators of a lighter plan's response would confirm its thinner books
+            if (cached != null && BooksCache.covers(cached.getRequestUrl(), requestUrl)) {
+                validated = cached;
+            }
+        }
+
+        // Perform HTTP request to the URL and parse the JSON response while it is being received
+        BooksCache.Entry response;
+        long start = MetricsRegistry.begin(MetricsRegistry.HTTP_REQUEST);
+        try {
+            response = makeHttpRequest(transport, requestUrl, validated, cancellation, listener);
+        } catch (FetchException e) {
+            // While the server is throttling or failing, stale books beat an error
+            if (cached != null && e.getStatus() == FetchResult.Status.HTTP_ERROR
+                    && ResilientTransport.isOverloaded(e.getHttpCode())) {
+                Log.w(LOG_TAG, "Serving stale books, " + e.getMessage());
+                ResilienceMetrics.get().onStaleServed();
+                return cached.getBooks();
+            }
+            throw e;
+        } finally {
+            MetricsRegistry.end(MetricsRegistry.HTTP_REQUEST, start);
+        }
+
+        // Store the result and its validators, empty results are not worth keeping
+        if (cache != null && !response.getBooks().isEmpty()) {
+            cache.put(requestUrl, response);
+        }
+
+        // Return the list of {@link Book}s
+        return response.getBooks();
+    }
+
+    /**
+     * Returns the task fetching the books of the url on the {@link FetchEngine}, going through
+     * the given cache.
+     *
+     * @param cache where results and their validators are stored, may be null.
+     */
+    public static FetchEngine.Task<List<Book>> fetchTask(final String requestUrl,
+                                                         final BooksCache cache) {
+        return fetchTask(requestUrl, cache, null);
+    }
+
+    /**
+     * Returns the task fetching the books of the url on the {@link FetchEngine}, going through
+     * the given cache and handing the books to the listener in batches while they are parsed.
+     *
+     * @param cache    where results and their validators are stored, may be null.
+     * @param listener receives the batches, may be null.
+     */
+    public static FetchEngine.Task<List<Book>> fetchTask(final String requestUrl,
+                                                         final BooksCache cache,
+                                                         final BatchListener listener) {
+        return new FetchEngine.Task<List<Book>>() {
+            @Override
+            public List<Book> run(Transport transport, FetchEngine.Cancellation cancellation)
+                    throws IOException, FetchException {
+                return fetchBooks(transport, requestUrl, cache, cancellation, listener);
+            }
+        };
     }
 
     /**
      * Return a list of {@link Book} objects that has been built up from
      * parsing the given JSON response.
+     * <p>
+     * Each volume is parsed on its own: missing or malformed fields get a default, and only a
+     * volume without a title is skipped, so one bad volume doesn't drop the rest of the page.
+     * Volumes are counted in the {@link ParseMetrics}.
      */
     public static List<Book> extractBooks(String jsonResponse) {
 
@@ -75,57 +207,22 @@ public final class QueryUtils {
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
         try {
             JSONObject jsonRootObject = new JSONObject(jsonResponse);
-            //Extract “items”(Books) JSONArray
-            JSONArray booksArray = jsonRootObject.optJSONArray("items");
+            //Extract “items”(Books) JSONArray, missing when there are no results
+            JSONArray booksArray = jsonRootObject.optJSONArray(VolumeFields.ITEMS);
+            if (booksArray == null) {
+                return books;
+            }
 
             //Loop through each book in the array
             for (int i = 0; i < booksArray.length(); i++) {
                 //Get the book JSONObject at position i
-                JSONObject bookObject = booksArray.getJSONObject(i);
-
-                //Get “volumeInfo” JSONObject from the bookObject
-                JSONObject volumeInfo = bookObject.getJSONObject("volumeInfo");
-
-                //Get "saleInfo" JSONObject from the bookObject
-                JSONObject saleInfo = bookObject.getJSONObject("saleInfo");
-
-                //Extract “title” for the book's title
-                String title = volumeInfo.getString("title");
-                //Extract "url" of the book in Google Store.
-                String url = saleInfo.optString("buyLink");
-
-                //Extract the first “author” of the book
-                //As the author array is optional, assert the author variable with an empty string
-                String author = "";
-                JSONArray authorArray = volumeInfo.optJSONArray("authors");
-                if (authorArray != null) {
-                    author = authorArray.getString(0);
-                }
-
-                //Extract "description" of the book
-                String description = volumeInfo.optString("description");
-                //Extract the "price" of the book with the currency code attached to it
-                JSONObject retailPrice = saleInfo.optJSONObject("retailPrice");
-
-                //As retailPrice is optional, assert the price and currency values
-                String price = "";
-                String currency = "";
-                if (retailPrice != null) {
-                    price = String.valueOf(retailPrice.getDouble("amount"));
-                    //Extract the currency code of the price
-                    currency = retailPrice.getString("currencyCode");
+                JSONObject bookObject = booksArray.optJSONObject(i);
+                Book book = bookObject != null ? readBook(bookObject) : null;
+                if (book != null) {
+                    books.add(book);
+                } else {
+                    ParseMetrics.get().onSkipped();
                 }
-
-                // Extract the "language" of the book
-                String language = volumeInfo.getString("language");
-
-                //Extract the thumbnail for the book
-                JSONObject imageLinks = volumeInfo.getJSONObject("imageLinks");
-                String thumbnailString = imageLinks.getString("thumbnail");
-                Uri thumbnailUri = Uri.parse(thumbnailString);
-
-                //Add earthquake to list of earthquakes
-                books.add(new Book(title, url, description, price, author, language, currency, thumbnailUri));
             }
 
         } catch (JSONException e) {
@@ -140,75 +237,547 @@ public final class QueryUtils {
     }
 
     /**
-     * Returns new URL object from the given string URL.
+     * Builds a book from a volume object, with defaults for its missing or malformed fields.
+     *
+     * @return the {@link Book} or null if the volume has no title.
+     */
+    private static Book readBook(JSONObject bookObject) {
+        //Get “volumeInfo” JSONObject from the bookObject
+        JSONObject volumeInfo = bookObject.optJSONObject(VolumeFields.VOLUME_INFO);
+        //Extract “title” for the book's title
+        String title = volumeInfo != null ? optText(volumeInfo, VolumeFields.TITLE) : null;
+        if (TextUtils.isEmpty(title)) {
+            return null;
+        }
+        //Set as soon as a field is missing or malformed and gets a default
+        boolean partial = false;
+
+        //Extract the volume "id" of the book
+        String id = optText(bookObject, VolumeFields.ID);
+
+        //Extract the first “author” of the book
+        //As the author array is optional, assert the author variable with an empty string
+        String author = null;
+        Object authors = volumeInfo.opt(VolumeFields.AUTHORS);
+        if (authors instanceof JSONArray) {
+            JSONArray authorArray = (JSONArray) authors;
+            author = authorArray.length() > 0 ? optText(authorArray.opt(0)) : "";
+        }
+        partial |= author == null && authors != null && authors != JSONObject.NULL;
+
+        //Extract "description" of the book
+        String description = optText(volumeInfo, VolumeFields.DESCRIPTION);
+        // Extract the "language" of the book
+        String language = optText(volumeInfo, VolumeFields.LANGUAGE);
+        //Extract the thumbnail for the book, the small one if it is the only one
+        JSONObject imageLinks = volumeInfo.optJSONObject(VolumeFields.IMAGE_LINKS);
+        String thumbnailString = null;
+        if (imageLinks != null) {
+            thumbnailString = optText(imageLinks, VolumeFields.THUMBNAIL);
+            if (thumbnailString == null) {
+                thumbnailString = optText(imageLinks, VolumeFields.SMALL_THUMBNAIL);
+            }
+        }
+        partial |= language == null || thumbnailString == null;
+
+        //Get "saleInfo" JSONObject from the bookObject
+        JSONObject saleInfo = bookObject.optJSONObject(VolumeFields.SALE_INFO);
+        String url = null;
+        long priceMicros = Book.NO_PRICE;
+        String currency = "";
+        if (saleInfo != null) {
+            //Extract "url" of the book in Google Store.
+            url = optText(saleInfo, VolumeFields.BUY_LINK);
+            //Extract the "price" of the book with the currency code attached to it
+            Object retailPrice = saleInfo.opt(VolumeFields.RETAIL_PRICE);
+            if (retailPrice instanceof JSONObject) {
+                priceMicros = toPriceMicros(
+                        optText((JSONObject) retailPrice, VolumeFields.AMOUNT));
+                //Extract the currency code of the price
+                currency = optText((JSONObject) retailPrice, VolumeFields.CURRENCY_CODE);
+            }
+            // A price is only kept along with its currency
+            if (retailPrice != null && retailPrice != JSONObject.NULL
+                    && (priceMicros == Book.NO_PRICE || currency == null)) {
+                partial = true;
+                priceMicros = Book.NO_PRICE;
+                currency = "";
+            }
+        } else {
+            partial = true;
+        }
+
+        return newBook(partial, id, title, url, description, priceMicros, author, language,
+                currency, thumbnailString);
+    }
+
+    /**
+     * @return the string or number value of the field, null if it is missing or has another type.
+     */
+    private static String optText(JSONObject object, String name) {
+        return optText(object.opt(name));
+    }
+
+    private static String optText(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        return null;
+    }
+
+    /**
+     * @return the price in micros, or {@link Book#NO_PRICE} if the amount is missing or isn't a
+     * number.
+     */
+    private static long toPriceMicros(String amount) {
+        if (amount == null) {
+            return Book.NO_PRICE;
+        }
+        try {
+            double value = Double.parseDouble(amount);
+            return value >= 0 && !Double.isInfinite(value) ? Book.toMicros(value) : Book.NO_PRICE;
+        } catch (NumberFormatException e) {
+            return Book.NO_PRICE;
+        }
+    }
+
+    /**
+     * Builds the book of a parsed volume, with empty strings for the fields not found, and
+     * counts it in the {@link ParseMetrics}.
+     *
+     * @param partial whether a field was missing or malformed.
+     */
+    private static Book newBook(boolean partial, String id, String title, String url,
+                                String description, long priceMicros, String author,
+                                String language, String currency, String thumbnailUrl) {
+        if (partial) {
+            ParseMetrics.get().onPartial();
+        } else {
+            ParseMetrics.get().onComplete();
+        }
+        return new Book(orEmpty(id), title, orEmpty(url), orEmpty(description), priceMicros,
+                orEmpty(author), orEmpty(language), orEmpty(currency), orEmpty(thumbnailUrl));
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Return a list of {@link Book} objects parsed straight from the given JSON stream.
+     * <p>
+     * Unlike {@link #extractBooks(String)} this never holds the whole document in memory, the
+     * books are built while the response is read and the subtrees we never use (accessInfo,
+     * searchInfo, industryIdentifiers...) are skipped without being materialized.
+     * It produces the same list as {@link #extractBooks(String)}, with the same defaults for
+     * missing or malformed fields. If the document itself is malformed, e.g. cut short, the
+     * books read before the error are kept.
+     */
+    public static List<Book> extractBooks(InputStream jsonStream) {
+
+        // If there is no stream to read from, then return early.
+        if (jsonStream == null) {
+            return null;
+        }
+
+        // Create an empty List that we can start adding books to
+        List<Book> books = new ArrayList<>();
+        try {
+            readBooks(jsonStream, books, null);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // If the stream is malformed or can't be read keep the books parsed so far
+            // and print a log message with the message from the exception.
+            Log.e(LOG_TAG, "Problem parsing the books JSON stream", e);
+        }
+
+        // Return the list of books
+        return books;
+    }
+
+    /**
+     * Reads the books of the JSON stream into books, skipping the volumes without a title.
+     *
+     * @param listener receives the books in batches while they are read, may be null.
+     * @throws IOException           if the stream can't be read, or is malformed
+     *                               ({@link MalformedJsonException}).
+     * @throws IllegalStateException if the document isn't an object.
      */
-    private static URL createUrl(String stringUrl) {
-        URL url = null;
+    private static void readBooks(InputStream jsonStream, List<Book> books,
+                                  BatchListener listener) throws IOException {
+        long start = MetricsRegistry.begin(MetricsRegistry.PARSE_EXTRACT_BOOKS);
         try {
-            url = new URL(stringUrl);
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Error with creating URL ", e);
+            parseBooks(jsonStream, books, listener);
+        } finally {
+            MetricsRegistry.end(MetricsRegistry.PARSE_EXTRACT_BOOKS, start);
+        }
+    }
+
+    private static void parseBooks(InputStream jsonStream, List<Book> books,
+                                   BatchListener listener) throws IOException {
+        // The reader is not closed here, the stream belongs to the caller
+        JsonReader reader = new JsonReader(new InputStreamReader(jsonStream, UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            //Only the “items”(Books) JSONArray is of interest, skip everything else
+            if (!reader.nextName().equals(VolumeFields.ITEMS)) {
+                reader.skipValue();
+                continue;
+            }
+            if (!beginArray(reader)) {
+                continue;
+            }
+
+            //Loop through each book in the array
+            int delivered = books.size();
+            while (reader.hasNext()) {
+                Book book = beginObject(reader) ? readBook(reader) : null;
+                if (book != null) {
+                    books.add(book);
+                } else {
+                    ParseMetrics.get().onSkipped();
+                }
+                //Hand the new books over while the next ones are still downloading
+                if (listener != null && books.size() - delivered >= BATCH_SIZE) {
+                    listener.onBatch(new ArrayList<>(books.subList(delivered, books.size())));
+                    delivered = books.size();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the rest of a volume object from the reader, with defaults for its missing or
+     * malformed fields.
+     *
+     * @return the {@link Book} or null if the volume has no title.
+     */
+    private static Book readBook(JsonReader reader) throws IOException {
+        //Fields of the volume, null until found
+        String id = null;
+        String title = null;
+        String url = null;
+        String author = null;
+        String description = null;
+        String language = null;
+        String thumbnailString = null;
+        String smallThumbnailString = null;
+        String amount = null;
+        String currency = null;
+        boolean hasAuthors = false;
+        boolean hasSaleInfo = false;
+        boolean hasRetailPrice = false;
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            if (name.equals(VolumeFields.ID)) {
+                id = nextText(reader);
+            } else if (name.equals(VolumeFields.VOLUME_INFO)) {
+                if (!beginObject(reader)) {
+                    continue;
+                }
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (skipNull(reader)) {
+                        continue;
+                    }
+                    switch (field) {
+                        case VolumeFields.TITLE:
+                            title = nextText(reader);
+                            break;
+                        case VolumeFields.AUTHORS:
+                            //Keep only the first author of the book
+                            hasAuthors = true;
+                            if (!beginArray(reader)) {
+                                break;
+                            }
+                            author = reader.hasNext() ? nextText(reader) : "";
+                            while (reader.hasNext()) {
+                                reader.skipValue();
+                            }
+                            reader.endArray();
+                            break;
+                        case VolumeFields.DESCRIPTION:
+                            description = nextText(reader);
+                            break;
+                        case VolumeFields.LANGUAGE:
+                            language = nextText(reader);
+                            break;
+                        case VolumeFields.IMAGE_LINKS:
+                            if (!beginObject(reader)) {
+                                break;
+                            }
+                            while (reader.hasNext()) {
+                                String link = reader.nextName();
+                                if (link.equals(VolumeFields.THUMBNAIL)) {
+                                    thumbnailString = nextText(reader);
+                                } else if (link.equals(VolumeFields.SMALL_THUMBNAIL)) {
+                                    smallThumbnailString = nextText(reader);
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (name.equals(VolumeFields.SALE_INFO)) {
+                if (!beginObject(reader)) {
+                    continue;
+                }
+                hasSaleInfo = true;
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (skipNull(reader)) {
+                        continue;
+                    }
+                    if (field.equals(VolumeFields.BUY_LINK)) {
+                        url = nextText(reader);
+                    } else if (field.equals(VolumeFields.RETAIL_PRICE)) {
+                        //Price and currency code of the book
+                        hasRetailPrice = true;
+                        if (!beginObject(reader)) {
+                            continue;
+                        }
+                        while (reader.hasNext()) {
+                            String priceField = reader.nextName();
+                            if (priceField.equals(VolumeFields.AMOUNT)) {
+                                amount = nextText(reader);
+                            } else if (priceField.equals(VolumeFields.CURRENCY_CODE)) {
+                                currency = nextText(reader);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (TextUtils.isEmpty(title)) {
             return null;
         }
-        return url;
+        // Same defaults as the tree parser
+        if (thumbnailString == null) {
+            thumbnailString = smallThumbnailString;
+        }
+        boolean partial = hasAuthors && author == null;
+        partial |= language == null || thumbnailString == null || !hasSaleInfo;
+        long priceMicros = Book.NO_PRICE;
+        if (hasRetailPrice) {
+            priceMicros = toPriceMicros(amount);
+            // A price is only kept along with its currency
+            if (priceMicros == Book.NO_PRICE || currency == null) {
+                partial = true;
+                priceMicros = Book.NO_PRICE;
+                currency = null;
+            }
+        }
+        return newBook(partial, id, title, url, description, priceMicros, author, language,
+                currency, thumbnailString);
+    }
+
+    /**
+     * @return the next value if it is a string or a number, else it is skipped and null is
+     * returned.
+     */
+    private static String nextText(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Begins the next value if it is an object, else it is skipped.
+     *
+     * @return true if an object was begun.
+     */
+    private static boolean beginObject(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            return true;
+        }
+        reader.skipValue();
+        return false;
+    }
+
+    /**
+     * Begins the next value if it is an array, else it is skipped.
+     *
+     * @return true if an array was begun.
+     */
+    private static boolean beginArray(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            return true;
+        }
+        reader.skipValue();
+        return false;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Consumes the next value if it is a JSON null.
+     *
+     * @return true if a null was skipped.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
 
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+    /**
+     * Make an HTTP request to the given URL and return the books parsed from the response, along
+     * with its validators.
+     *
+     * @param cached       previous result for the url, its validators make the request
+     *                     conditional.
+     * @param cancellation cancels the request, which also stops the parsing of the response.
+     * @param listener     receives the books in batches while they are parsed, may be null.
+     * @return the new result, or the revalidated cached one on 304 Not Modified.
+     * @throws IOException    if the request fails or is cancelled.
+     * @throws FetchException if the server answers with an error or a malformed response.
+     */
+    private static BooksCache.Entry makeHttpRequest(Transport transport, String url,
+                                                    BooksCache.Entry cached,
+                                                    FetchEngine.Cancellation cancellation,
+                                                    BatchListener listener)
+            throws IOException, FetchException {
+        // Ask the server to only send the body if it changed since we cached it
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                headers.put("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                headers.put("If-Modified-Since", cached.getLastModified());
+            }
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        long sentAt = System.currentTimeMillis();
+        Transport.Response response = FetchEngine.open(transport, url, headers, cancellation);
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            int responseCode = response.code();
+            long receivedAt = System.currentTimeMillis();
+            // The time to the headers and the speed of the body tell how good the network is
+            NetworkQuality.get().onResponse(receivedAt - sentAt, receivedAt);
+            long maxAgeMillis = parseMaxAge(response.header("Cache-Control"));
+            String eTag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+            // then parse the input stream as it is received.
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                List<Book> books = new ArrayList<>();
+                NetworkQuality.MeasuringInputStream body =
+                        new NetworkQuality.MeasuringInputStream(response.body());
+                try {
+                    readBooks(body, books, listener);
+                } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+                    throw FetchException.parse(e);
+                }
+                NetworkQuality.get().onBody(body.getBytes(), body.getReadNanos(),
+                        System.currentTimeMillis());
+                // A cancelled parse stops early, its partial result is not worth keeping
+                cancellation.throwIfCancelled();
+                return new BooksCache.Entry(books, receivedAt, maxAgeMillis, eTag, lastModified);
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // The cached books are still valid, nothing to download or parse
+                return cached.revalidated(receivedAt, maxAgeMillis, eTag, lastModified);
+            }
+            if (responseCode != HttpURLConnection.HTTP_BAD_REQUEST || !VolumeFields.isProjected(url)) {
+                throw FetchException.httpStatus(responseCode);
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // Closing the response returns the connection to the pool instead of tearing it down
+            response.close();
+        }
+
+        // The server may not accept the fields projection, ask for the full resources. Only if
+        // they are served was the projection the problem, the next urls then leave it out
+        BooksCache.Entry entry = makeHttpRequest(transport, VolumeFields.strip(url), cached,
+                cancellation, listener);
+        VolumeFields.onProjectionRejected();
+        return entry;
+    }
+
+    /**
+     * Returns the max-age of a Cache-Control header in milliseconds, 0 for no-cache,
+     * {@link BooksCache.Entry#NO_STORE} for no-store, or {@link BooksCache.Entry#NO_MAX_AGE} if
+     * the header doesn't set it.
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return BooksCache.Entry.NO_MAX_AGE;
+        }
+        long maxAgeMillis = BooksCache.Entry.NO_MAX_AGE;
+        boolean noCache = false;
+        // no-store wins over the other directives, wherever it is
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-store")) {
+                return BooksCache.Entry.NO_STORE;
             }
-            if (inputStream != null) {
-                inputStream.close();
+            if (directive.equals("no-cache")) {
+                noCache = true;
+            } else if (directive.startsWith("max-age=")) {
+                try {
+                    maxAgeMillis = Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                } catch (NumberFormatException e) {
+                    maxAgeMillis = BooksCache.Entry.NO_MAX_AGE;
+                }
             }
         }
-        return jsonResponse;
+        return noCache ? 0 : maxAgeMillis;
     }
 
     /**
      * Convert the {@link InputStream} into a String which contains the
      * whole JSON response from the server.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    static String readFromStream(InputStream inputStream) throws IOException {
+        long start = MetricsRegistry.begin(MetricsRegistry.PARSE_READ_FROM_STREAM);
+        try {
+            if (inputStream == null) {
+                return "";
             }
+            // The bytes are decoded once, the network responses don't come through here, they
+            // are parsed as they are read by the streaming parser
+            byte[] buffer = new byte[READ_BUFFER_BYTES];
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return new String(buffer, 0, length, UTF_8);
+        } finally {
+            MetricsRegistry.end(MetricsRegistry.PARSE_READ_FROM_STREAM, start);
         }
-        return output.toString();
     }
 }
@@ -0,0 +1,91 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Counters of the retries and of the circuit breaker of the {@link ResilientTransport}, to see
+ * how often Google Books throttles or fails the requests.
+ */
+public final class ResilienceMetrics {
+
+    private static final ResilienceMetrics sInstance = new ResilienceMetrics();
+
+    //Requests sent again after a 429 or 5xx
+    private long mRetries;
+    //Retries that waited for the time asked by the server with Retry-After
+    private long mRetryAfterHonored;
+    //Times the circuit breaker opened
+    private long mBreakerOpened;
+    //Times the circuit breaker closed again after a successful trial request
+    private long mBreakerClosed;
+    //Requests refused without reaching the server while the breaker was open
+    private long mShortCircuited;
+    //Stale cached results served because the server was unavailable
+    private long mStaleServed;
+
+    /**
+     * Create a private constructor, the counters are shared through {@link #get()}.
+     */
+    private ResilienceMetrics() {
+    }
+
+    /**
+     * @return the counters of the whole process.
+     */
+    public static ResilienceMetrics get() {
+        return sInstance;
+    }
+
+    public synchronized void onRetry(boolean retryAfter) {
+        mRetries++;
+        if (retryAfter) {
+            mRetryAfterHonored++;
+        }
+    }
+
+    public synchronized void onBreakerOpened() {
+        mBreakerOpened++;
+    }
+
+    public synchronized void onBreakerClosed() {
+        mBreakerClosed++;
+    }
+
+    public synchronized void onShortCircuited() {
+        mShortCircuited++;
+    }
+
+    public synchronized void onStaleServed() {
+        mStaleServed++;
+    }
+
+    public synchronized long getRetries() {
+        return mRetries;
+    }
+
+    public synchronized long getRetryAfterHonored() {
+        return mRetryAfterHonored;
+    }
+
+    public synchronized long getBreakerOpened() {
+        return mBreakerOpened;
+    }
+
+    public synchronized long getBreakerClosed() {
+        return mBreakerClosed;
+    }
+
+    public synchronized long getShortCircuited() {
+        return mShortCircuited;
+    }
+
+    public synchronized long getStaleServed() {
+        return mStaleServed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResilienceMetrics[retries=" + mRetries + ",retryAfterHonored=" + mRetryAfterHonored
+                + ",breakerOpened=" + mBreakerOpened + ",breakerClosed=" + mBreakerClosed
+                + ",shortCircuited=" + mShortCircuited
+                + ",staleServed=" + mStaleServed + "]";
+    }
+}
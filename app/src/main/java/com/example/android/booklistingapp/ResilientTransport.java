@@ -0,0 +1,235 @@
+package com.example.android.booklistingapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Transport} that copes with Google Books throttling (429) or failing (5xx) requests.
+ * <p>
+ * Such responses are retried after a bounded exponential backoff with full jitter, or after the
+ * time the server asked with Retry-After. The ones the server wants delayed longer than the max
+ * backoff are not retried. Every overloaded response counts towards a {@link CircuitBreaker},
+ * once open the requests are answered with a 503 without reaching the server, so pressing the
+ * search button again doesn't add to the overload. Callers with a cached result serve it
+ * instead, see {@link QueryUtils}.
+ * <p>
+ * A request waiting for its retry keeps its thread of the {@link FetchEngine}, cancelling the
+ * call ends the wait right away.
+ */
+public class ResilientTransport implements Transport {
+
+    /**
+     * Default configuration of the transport of the app
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 8000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+    private final Transport mDelegate;
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final CircuitBreaker mBreaker;
+    private final Random mRandom = new Random();
+
+    /**
+     * Constructs a {@link ResilientTransport} with the default configuration.
+     */
+    public ResilientTransport(Transport delegate) {
+        this(delegate, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS));
+    }
+
+    /**
+     * Constructs a new {@link ResilientTransport}.
+     *
+     * @param delegate        sends the requests.
+     * @param maxAttempts     max number of times a request is sent, the first one included.
+     * @param baseDelayMillis max delay before the first retry, doubled for each retry.
+     * @param maxDelayMillis  max delay before any retry, longer Retry-After are not waited for.
+     * @param breaker         opened by the overloaded responses.
+     */
+    public ResilientTransport(Transport delegate, int maxAttempts, long baseDelayMillis,
+                              long maxDelayMillis, CircuitBreaker breaker) {
+        mDelegate = delegate;
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mBreaker = breaker;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return mBreaker;
+    }
+
+    /**
+     * @return whether the status code means the server is overloaded and the request can be
+     * sent again later.
+     */
+    public static boolean isOverloaded(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    @Override
+    public Call newCall(final String url, final Map<String, String> headers) {
+        return new Call() {
+
+            private final CountDownLatch mCancelled = new CountDownLatch(1);
+            private volatile Call mCurrent;
+
+            @Override
+            public Response execute() throws IOException {
+                for (int attempt = 1; ; attempt++) {
+                    if (!mBreaker.allowRequest()) {
+                        ResilienceMetrics.get().onShortCircuited();
+                        return unavailable(mBreaker.getRemainingOpenMillis());
+                    }
+
+                    Response response;
+                    try {
+                        response = send();
+                    } catch (IOException e) {
+                        mBreaker.onIgnored();
+                        throw e;
+                    }
+                    if (!isOverloaded(response.code())) {
+                        if (mBreaker.onSuccess()) {
+                            ResilienceMetrics.get().onBreakerClosed();
+                        }
+                        return response;
+                    }
+
+                    long retryAfterMillis = parseRetryAfter(response.header(RETRY_AFTER),
+                            System.currentTimeMillis());
+                    boolean retry = attempt < mMaxAttempts && retryAfterMillis <= mMaxDelayMillis;
+                    if (mBreaker.onFailure(retryAfterMillis)) {
+                        ResilienceMetrics.get().onBreakerOpened();
+                        retry = false;
+                    } else if (retryAfterMillis > mMaxDelayMillis) {
+                        // Nothing will get through before then, don't even try
+                        if (mBreaker.open(retryAfterMillis)) {
+                            ResilienceMetrics.get().onBreakerOpened();
+                        }
+                    }
+                    if (!retry) {
+                        return response;
+                    }
+
+                    response.close();
+                    long delayMillis = retryAfterMillis >= 0
+                            ? retryAfterMillis : backoffMillis(attempt);
+                    ResilienceMetrics.get().onRetry(retryAfterMillis >= 0);
+                    try {
+                        if (mCancelled.await(delayMillis, TimeUnit.MILLISECONDS)) {
+                            throw new InterruptedIOException("Cancelled");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted");
+                    }
+                }
+            }
+
+            private Response send() throws IOException {
+                Call call = mDelegate.newCall(url, headers);
+                mCurrent = call;
+                // A cancel between the two lines would miss the new call
+                if (mCancelled.getCount() == 0) {
+                    throw new InterruptedIOException("Cancelled");
+                }
+                return call.execute();
+            }
+
+            @Override
+            public void cancel() {
+                mCancelled.countDown();
+                Call call = mCurrent;
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the delay before the retry following the attempt: a random time up to the base
+     * delay doubled for each previous attempt, bounded by the max delay
+     */
+    long backoffMillis(int attempt) {
+        long bound = mBaseDelayMillis << Math.min(attempt - 1, 30);
+        if (bound <= 0 || bound > mMaxDelayMillis) {
+            bound = mMaxDelayMillis;
+        }
+        // Full jitter, so clients throttled together don't all come back at the same time
+        return (long) (mRandom.nextDouble() * bound);
+    }
+
+    /**
+     * Returns the time asked by a Retry-After header, in delay-seconds or HTTP-date, or -1 if
+     * the response doesn't have a valid one.
+     */
+    static long parseRetryAfter(String retryAfter, long nowMillis) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(retryAfter);
+            return Math.max(0, date.getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Response of a request refused while the breaker is open
+     */
+    private static Response unavailable(final long retryAfterMillis) {
+        return new Response() {
+            @Override
+            public int code() {
+                return 503;
+            }
+
+            @Override
+            public String header(String name) {
+                if (RETRY_AFTER.equalsIgnoreCase(name)) {
+                    return String.valueOf((retryAfterMillis + 999) / 1000);
+                }
+                return null;
+            }
+
+            @Override
+            public InputStream body() {
+                return EMPTY;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+
+/**
+ * Delays the searches triggered while the user types, only the query typed before a pause of
+ * the debounce delay is searched. The queries typed on the way are not kept in the
+ * {@link QueryHistory}, only the ones searched explicitly or left in the search view long
+ * enough to be read.
+ */
+class SearchDebouncer {
+
+    private final Handler mHandler;
+    private final long mDebounceMillis;
+    private final long mKeepMillis;
+    private final Listener mListener;
+    /**
+     * Query typed last, searched once the debounce delay elapsed
+     */
+    private CharSequence mQuery;
+
+    /**
+     * Receives the searches on the thread of the handler.
+     */
+    interface Listener {
+
+        /**
+         * Called to search for the query.
+         */
+        void onSearch(CharSequence query);
+
+        /**
+         * Called when the query searched is the one the user settled on, to be recorded.
+         */
+        void onSearchKept(CharSequence query);
+    }
+
+    private final Runnable mDebouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onSearch(mQuery);
+            mHandler.postDelayed(mKeptSearch, mKeepMillis);
+        }
+    };
+
+    private final Runnable mKeptSearch = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onSearchKept(mQuery);
+        }
+    };
+
+    /**
+     * Constructs a new {@link SearchDebouncer}.
+     *
+     * @param handler        where the delayed searches run.
+     * @param debounceMillis delay after the last keystroke before searching.
+     * @param keepMillis     delay after a search as the user types before it is kept.
+     */
+    SearchDebouncer(Handler handler, long debounceMillis, long keepMillis, Listener listener) {
+        mHandler = handler;
+        mDebounceMillis = debounceMillis;
+        mKeepMillis = keepMillis;
+        mListener = listener;
+    }
+
+    /**
+     * Called on each change of the query typed, the pending search is replaced with it.
+     * A blank query isn't searched.
+     */
+    void onQueryChanged(CharSequence query) {
+        SearchMetrics.get().onKeystroke();
+        cancel();
+        if (query.toString().trim().length() > 0) {
+            mQuery = query;
+            mHandler.postDelayed(mDebouncedSearch, mDebounceMillis);
+        }
+    }
+
+    /**
+     * Searches for the query right away, when the user submits it, the pending search is
+     * dropped. A blank query isn't searched.
+     */
+    void searchNow(CharSequence query) {
+        cancel();
+        if (query.toString().trim().length() == 0) {
+            return;
+        }
+        mQuery = query;
+        mListener.onSearch(query);
+        mListener.onSearchKept(query);
+    }
+
+    /**
+     * Drops the pending search, if any
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mDebouncedSearch);
+        mHandler.removeCallbacks(mKeptSearch);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Counters of the searches triggered from the {@link android.widget.SearchView}, to compare the
+ * requests actually issued with the keystrokes typed.
+ */
+public final class SearchMetrics {
+
+    private static final SearchMetrics sInstance = new SearchMetrics();
+
+    //Query text changes typed by the user
+    private long mKeystrokes;
+    //Searches that started a request
+    private long mRequests;
+    //Searches that joined the identical request already in flight
+    private long mCoalesced;
+    //Requests cancelled while in flight because a newer search replaced them
+    private long mCancelled;
+
+    /**
+     * Create a private constructor, the counters are shared through {@link #get()}.
+     */
+    private SearchMetrics() {
+    }
+
+    /**
+     * @return the counters of the whole process.
+     */
+    public static SearchMetrics get() {
+        return sInstance;
+    }
+
+    public synchronized void onKeystroke() {
+        mKeystrokes++;
+    }
+
+    public synchronized void onRequest() {
+        mRequests++;
+    }
+
+    public synchronized void onCoalesced() {
+        mCoalesced++;
+    }
+
+    public synchronized void onCancelled() {
+        mCancelled++;
+    }
+
+    public synchronized long getKeystrokes() {
+        return mKeystrokes;
+    }
+
+    public synchronized long getRequests() {
+        return mRequests;
+    }
+
+    public synchronized long getCoalesced() {
+        return mCoalesced;
+    }
+
+    public synchronized long getCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SearchMetrics[keystrokes=" + mKeystrokes + ",requests=" + mRequests
+                + ",coalesced=" + mCoalesced + ",cancelled=" + mCancelled + "]";
+    }
+}
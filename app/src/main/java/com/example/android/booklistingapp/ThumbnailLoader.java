@@ -0,0 +1,217 @@
+package com.example.android.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.widget.ImageView;
+
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.OkHttp3Downloader;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.Cache;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Okio;
+
+/**
+ * Loads the book thumbnails through a {@link Picasso} instance configured for them.
+ * <p>
+ * Thumbnails are decoded at the size of the view in RGB_565, half the memory of the default
+ * ARGB_8888, as covers are opaque. Decoded bitmaps are kept in a memory cache sized from the
+ * memory class of the device, and the downloaded images in a disk cache, through the client
+ * shared with the searches so they also share its connection pool.
+ * <p>
+ * The thumbnails of prefetched results are downloaded into the disk cache only, see
+ * {@link #warm(Context, Uri)}.
+ */
+public final class ThumbnailLoader {
+
+    /**
+     * Tag of every thumbnail request, to pause them while the list is flung
+     */
+    public static final Object TAG = new Object();
+    /**
+     * Fraction of the memory class of the app used for the decoded thumbnails
+     */
+    public static final int MEMORY_CACHE_FRACTION = 8;
+    /**
+     * Size of the disk cache of the downloaded thumbnails
+     */
+    public static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    /**
+     * Time a thumbnail is cached on disk when the server doesn't say, covers rarely change
+     */
+    public static final int DEFAULT_MAX_AGE_SECONDS = 7 * 24 * 60 * 60;
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    private static Picasso sPicasso;
+    private static OkHttpClient sClient;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ThumbnailLoader}
+     * object, it only holds static methods.
+     */
+    private ThumbnailLoader() {
+    }
+
+    /**
+     * @return the Picasso instance of the thumbnails, created on first use.
+     */
+    public static synchronized Picasso get(Context context) {
+        if (sPicasso == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+
+            sPicasso = new Picasso.Builder(appContext)
+                    .memoryCache(new LruCache(memoryCacheBytes(activityManager.getMemoryClass())))
+                    .downloader(new OkHttp3Downloader(client(appContext)))
+                    .build();
+            // Hit rate of the thumbnail caches and bytes decoded so far, in the dump of the app
+            final Picasso picasso = sPicasso;
+            MetricsRegistry.get().registerCounters("thumbnails", new Object() {
+                @Override
+                public String toString() {
+                    return picasso.getSnapshot().toString();
+                }
+            });
+        }
+        return sPicasso;
+    }
+
+    /**
+     * @return the client of the thumbnails, with their disk cache, created on first use.
+     */
+    private static synchronized OkHttpClient client(Context appContext) {
+        if (sClient == null) {
+            sClient = BooksHttpClient.get().newBuilder()
+                    .cache(new Cache(new File(appContext.getCacheDir(), DISK_CACHE_DIRECTORY),
+                            DISK_CACHE_BYTES))
+                    // The HTTP stages of the metrics are the ones of the searches
+                    .eventListener(EventListener.NONE)
+                    .addNetworkInterceptor(new Interceptor() {
+                        @Override
+                        public Response intercept(Chain chain) throws IOException {
+                            Response response = chain.proceed(chain.request());
+                            // Without a max-age every thumbnail would be downloaded again
+                            if (response.header("Cache-Control") == null) {
+                                return response.newBuilder()
+                                        .header("Cache-Control", "max-age=" + DEFAULT_MAX_AGE_SECONDS)
+                                        .build();
+                            }
+                            return response;
+                        }
+                    })
+                    .build();
+        }
+        return sClient;
+    }
+
+    /**
+     * Shows the thumbnail in the view, replacing the request of the book previously shown in it.
+     */
+    public static void load(ImageView view, Uri thumbnail) {
+        request(view.getContext(), thumbnail)
+                .placeholder(R.drawable.thumbnail_placeholder)
+                .error(R.drawable.thumbnail_placeholder)
+                .into(view, MetricsRegistry.isEnabled() ? new LoadTimer() : null);
+    }
+
+    /**
+     * Downloads and decodes the thumbnail into the memory cache, so it shows right away when its
+     * row is bound.
+     */
+    public static void prefetch(Context context, Uri thumbnail) {
+        request(context, thumbnail)
+                .priority(Picasso.Priority.LOW)
+                .fetch();
+    }
+
+    /**
+     * Downloads the thumbnail into the disk cache without decoding it, for the prefetch in
+     * background. Blocks, called off the main thread.
+     *
+     * @return the bytes downloaded, 0 if the thumbnail was already cached.
+     */
+    public static long warm(Context context, Uri thumbnail) throws IOException {
+        Request request = new Request.Builder().url(toHttps(thumbnail).toString()).build();
+        Response response = client(context.getApplicationContext()).newCall(request).execute();
+        try {
+            if (!response.isSuccessful() || response.networkResponse() == null
+                    || response.networkResponse().code() == 304) {
+                return 0;
+            }
+            // Reading the body is what writes it to the cache
+            return response.body().source().readAll(Okio.blackhole());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Cancels the request of the view, its row was recycled.
+     */
+    public static void cancel(ImageView view) {
+        get(view.getContext()).cancelRequest(view);
+    }
+
+    /**
+     * Prefetches and views share the same request, so a prefetched thumbnail has the same memory
+     * cache key as the one loaded into the view.
+     */
+    private static RequestCreator request(Context context, Uri thumbnail) {
+        return get(context)
+                .load(toHttps(thumbnail))
+                .resizeDimen(R.dimen.thumbnail_width, R.dimen.thumbnail_height)
+                .centerCrop()
+                .onlyScaleDown()
+                .config(Bitmap.Config.RGB_565)
+                .tag(TAG);
+    }
+
+    /**
+     * Times a thumbnail from its request to it being shown, from memory or not
+     */
+    private static class LoadTimer implements Callback {
+
+        private final long mStart = MetricsRegistry.now();
+
+        @Override
+        public void onSuccess() {
+            MetricsRegistry.record(MetricsRegistry.THUMBNAIL_LOAD, mStart);
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    }
+
+    /**
+     * Returns the size of the memory cache for a memory class in megabytes.
+     */
+    static int memoryCacheBytes(int memoryClass) {
+        return memoryClass * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+    }
+
+    /**
+     * Google returns http links to the thumbnails, they are requested over https so they can
+     * be loaded despite cleartext traffic being blocked and without a redirect.
+     */
+    static Uri toHttps(Uri thumbnail) {
+        if (thumbnail == null || !"http".equals(thumbnail.getScheme())) {
+            return thumbnail;
+        }
+        return thumbnail.buildUpon().scheme("https").build();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.booklistingapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Sends the HTTP requests of the {@link FetchEngine}.
+ * <p>
+ * The engine only sees this interface, so its scheduling, cancellation and error typing can be
+ * tested on the JVM with a fake transport. {@link OkHttpTransport} is the one used by the app.
+ */
+public interface Transport {
+
+    /**
+     * Prepares a GET request for the url, it is sent by {@link Call#execute()}.
+     *
+     * @param headers request headers, e.g. the validators of a conditional request.
+     */
+    Call newCall(String url, Map<String, String> headers);
+
+    /**
+     * A request that can be cancelled from any thread.
+     */
+    interface Call {
+
+        /**
+         * Sends the request and returns once the response headers are received.
+         *
+         * @throws IOException if the request fails or was cancelled.
+         */
+        Response execute() throws IOException;
+
+        /**
+         * Closes the socket of the request, a blocked {@link #execute()} or read of the body
+         * fails right away with an {@link IOException}.
+         */
+        void cancel();
+    }
+
+    /**
+     * A response, closing it releases its connection.
+     */
+    interface Response extends Closeable {
+
+        int code();
+
+        /**
+         * @return the value of the header, or null if the response doesn't have it.
+         */
+        String header(String name);
+
+        /**
+         * @return the body, read as it is received.
+         */
+        InputStream body() throws IOException;
+    }
+}
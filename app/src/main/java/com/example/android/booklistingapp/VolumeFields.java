@@ -0,0 +1,232 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The fields of the volumes resource the app reads, declared once for the parsers and for the
+ * requests.
+ * <p>
+ * The parsers in {@link QueryUtils} read the fields by these names and the urls ask the server
+ * for only the fields of {@link #SPEC}, or of the lighter spec of a
+ * {@link NetworkQuality.Plan}, through the partial response {@code fields=} parameter, so a
+ * volume is a few hundred bytes instead of several kilobytes. If the server rejects the
+ * projection the requests are sent again without it, and the next urls don't ask for it for a
+ * while, then try it again.
+ */
+public final class VolumeFields {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = VolumeFields.class.getSimpleName();
+
+    //Names of the fields read by the parsers
+    public static final String ITEMS = "items";
+    public static final String TOTAL_ITEMS = "totalItems";
+    public static final String ID = "id";
+    public static final String VOLUME_INFO = "volumeInfo";
+    public static final String TITLE = "title";
+    public static final String AUTHORS = "authors";
+    public static final String DESCRIPTION = "description";
+    public static final String LANGUAGE = "language";
+    public static final String IMAGE_LINKS = "imageLinks";
+    public static final String THUMBNAIL = "thumbnail";
+    public static final String SMALL_THUMBNAIL = "smallThumbnail";
+    public static final String SALE_INFO = "saleInfo";
+    public static final String BUY_LINK = "buyLink";
+    public static final String RETAIL_PRICE = "retailPrice";
+    public static final String AMOUNT = "amount";
+    public static final String CURRENCY_CODE = "currencyCode";
+
+    /**
+     * Every field shown for a book, as a tree rooted at the response object. The parsers also
+     * read {@link #SMALL_THUMBNAIL} when the thumbnail is missing.
+     */
+    public static final Field SPEC = spec(true, THUMBNAIL);
+
+    /**
+     * Value of the fields parameter selecting the fields of {@link #SPEC}
+     */
+    public static final String PROJECTION = SPEC.childrenToString();
+
+    private static final String PARAMETER = "fields=";
+
+    /**
+     * How long and for how many urls the projection isn't asked for once the server rejected it
+     */
+    static final long REJECTION_MILLIS = 30 * 60 * 1000;
+    static final int REJECTION_URLS = 100;
+
+    /**
+     * Time the server rejected the projection, 0 if it didn't, the next urls are built without it
+     */
+    private static volatile long sRejectedAt;
+    private static final AtomicInteger sUrlsWithoutProjection = new AtomicInteger();
+
+    /**
+     * A field of the response and the fields read inside it, if it is an object or an array of
+     * objects.
+     */
+    public static final class Field {
+
+        private final String mName;
+        private final Field[] mChildren;
+
+        Field(String name, Field... children) {
+            mName = name;
+            mChildren = children;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Field[] getChildren() {
+            return mChildren;
+        }
+
+        /**
+         * @return the field named name inside this one, or null if it isn't read.
+         */
+        public Field getChild(String name) {
+            for (Field child : mChildren) {
+                if (child.mName.equals(name)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the fields inside this one in the partial response syntax,
+         * e.g. {@code id,volumeInfo(title,imageLinks(thumbnail))}
+         */
+        String childrenToString() {
+            StringBuilder builder = new StringBuilder();
+            for (Field child : mChildren) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(child.mName);
+                if (child.mChildren.length > 0) {
+                    builder.append('(').append(child.childrenToString()).append(')');
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link VolumeFields}
+     * object, it only holds the spec and static methods.
+     */
+    private VolumeFields() {
+    }
+
+    /**
+     * Returns the fields read from a response, as a tree rooted at the response object
+     *
+     * @param descriptions   whether the descriptions of the books are asked for.
+     * @param thumbnailField {@link #THUMBNAIL} or {@link #SMALL_THUMBNAIL}, null not to ask for
+     *                       the thumbnails.
+     */
+    static Field spec(boolean descriptions, String thumbnailField) {
+        List<Field> volumeInfo = new ArrayList<>();
+        volumeInfo.add(new Field(TITLE));
+        volumeInfo.add(new Field(AUTHORS));
+        if (descriptions) {
+            volumeInfo.add(new Field(DESCRIPTION));
+        }
+        volumeInfo.add(new Field(LANGUAGE));
+        if (thumbnailField != null) {
+            volumeInfo.add(new Field(IMAGE_LINKS, new Field(thumbnailField)));
+        }
+        return new Field(null,
+                new Field(ITEMS,
+                        new Field(ID),
+                        new Field(VOLUME_INFO, volumeInfo.toArray(new Field[0])),
+                        new Field(SALE_INFO,
+                                new Field(BUY_LINK),
+                                new Field(RETAIL_PRICE,
+                                        new Field(AMOUNT), new Field(CURRENCY_CODE)))),
+                new Field(TOTAL_ITEMS));
+    }
+
+    /**
+     * Returns the url asking for only the fields the app reads, or the url unchanged if the
+     * server rejected the projection before.
+     */
+    public static String project(String url) {
+        return project(url, PROJECTION);
+    }
+
+    /**
+     * Returns the url asking for only the fields of the plan, or the url unchanged if the
+     * server rejected the projection before.
+     */
+    public static String project(String url, NetworkQuality.Plan plan) {
+        return project(url, plan.getProjection());
+    }
+
+    private static String project(String url, String projection) {
+        if (isProjectionRejected()) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + PARAMETER + projection;
+    }
+
+    /**
+     * @return whether the url asks for a projection.
+     */
+    public static boolean isProjected(String url) {
+        return url.contains("?" + PARAMETER) || url.contains("&" + PARAMETER);
+    }
+
+    /**
+     * Returns the url without its fields parameter, asking for the full resources.
+     */
+    public static String strip(String url) {
+        return url.replaceAll("([?&])" + PARAMETER + "[^&]*&?", "$1").replaceAll("[?&]$", "");
+    }
+
+    /**
+     * Helper method that counts a url built without the projection, the rejection expires after
+     * {@link #REJECTION_MILLIS} or {@link #REJECTION_URLS} urls
+     */
+    private static boolean isProjectionRejected() {
+        long rejectedAt = sRejectedAt;
+        if (rejectedAt == 0) {
+            return false;
+        }
+        if (System.currentTimeMillis() - rejectedAt < REJECTION_MILLIS
+                && sUrlsWithoutProjection.incrementAndGet() <= REJECTION_URLS) {
+            return true;
+        }
+        Log.i(LOG_TAG, "Asking for the fields projection again");
+        resetProjectionRejected();
+        return false;
+    }
+
+    /**
+     * Called when the server rejected a projected url and accepted it without the projection,
+     * the next urls are built without it for a while.
+     */
+    public static void onProjectionRejected() {
+        if (sRejectedAt == 0) {
+            Log.w(LOG_TAG, "The server rejected the fields projection, requesting full resources");
+            sUrlsWithoutProjection.set(0);
+            sRejectedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Lets the next urls ask for the projection again.
+     */
+    static void resetProjectionRejected() {
+        sRejectedAt = 0;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the {@link BookIndex} on the SQLite of Robolectric: the results stored by request url,
+ * read back by a new process while offline, the fields kept when a book is fetched again without
+ * them, and the searches typed with quotes and FTS operators.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookIndexTest {
+
+    private static final String DATABASE_NAME = "book_index_test.db";
+
+    private BookIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new BookIndex(RuntimeEnvironment.application, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mIndex.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void result_isReadBackInOrder_andReplacedByTheNextOne() {
+        String url = BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.DEFAULT_PLAN);
+        mIndex.putResult(url, Arrays.asList(book("b", "Stone"), book("a", "Chamber")), 1);
+
+        List<Book> result = mIndex.getResult(Collections.singletonList(url));
+        assertEquals(2, result.size());
+        assertEquals("b", result.get(0).getId());
+        assertEquals("a", result.get(1).getId());
+
+        mIndex.putResult(url, Collections.singletonList(book("c", "Prisoner")), 2);
+        result = mIndex.getResult(Collections.singletonList(url));
+        assertEquals(1, result.size());
+        assertEquals("c", result.get(0).getId());
+        // The books of the previous result stay searchable
+        assertEquals(3, mIndex.size());
+    }
+
+    @Test
+    public void results_ofSeveralUrls_areMergedWithoutDuplicates() {
+        List<String> urls = BooksViewModel.toFanOutUrls("harry", NetworkQuality.DEFAULT_PLAN);
+        mIndex.putResult(urls.get(0), Arrays.asList(book("a", "Stone"), book("b", "Chamber")), 1);
+        mIndex.putResult(urls.get(1), Arrays.asList(book("b", "Chamber"), book("c", "Goblet")), 1);
+
+        List<Book> result = mIndex.getResult(urls);
+
+        assertEquals(3, result.size());
+        assertEquals("c", result.get(2).getId());
+    }
+
+    @Test
+    public void result_isReadBackOffline_byANewProcess() {
+        String url = BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.Plan.EXCELLENT);
+        mIndex.putResult(url, Collections.singletonList(book("a", "Stone")), 1);
+        mIndex.close();
+
+        // Only the database file is left, read back under a url of another plan
+        mIndex = new BookIndex(RuntimeEnvironment.application, DATABASE_NAME);
+        List<Book> result = mIndex.getResult(Collections.singletonList(
+                BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.Plan.POOR)));
+
+        assertEquals(1, result.size());
+        QueryUtilsTest.assertSameBook("stored", book("a", "Stone"), result.get(0));
+    }
+
+    @Test
+    public void oldestResults_areDropped_withTheBooksNoOtherResultHolds() {
+        mIndex.putResult(BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.DEFAULT_PLAN),
+                Arrays.asList(book("a", "Stone"), book("b", "Chamber")), 1);
+        for (int i = 0; i < BookIndex.MAX_STORED_RESULTS; i++) {
+            String url = BooksViewModel.toGoogleQueryUrl("potter " + i, 0,
+                    NetworkQuality.DEFAULT_PLAN);
+            mIndex.putResult(url, Collections.singletonList(book("b", "Chamber")), 2 + i);
+        }
+
+        assertEquals(0, mIndex.getResult(Collections.singletonList(
+                BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.DEFAULT_PLAN))).size());
+        // The book only the dropped result held is gone from both tables
+        assertEquals(1, mIndex.size());
+        assertEquals(0, mIndex.search("stone", 10).size());
+        assertEquals(1, mIndex.search("chamber", 10).size());
+    }
+
+    @Test
+    public void bookFetchedWithoutDescriptionOrThumbnail_keepsTheIndexedOnes() {
+        mIndex.addAll(Collections.singletonList(book("a", "Stone")));
+        // Fetched again on a slow network, with a new price
+        mIndex.addAll(Collections.singletonList(new Book("a", "Stone", "url", "", 5990000,
+                "Rowling", "en", "USD", "")));
+
+        Book book = mIndex.search("stone", 10).get(0);
+
+        assertEquals("The boy who lived", book.getDescription());
+        assertEquals("http://books.example.com/a.jpg", book.getThumbnailUrl());
+        assertEquals(5990000, book.getPriceMicros());
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void search_findsEveryWord_withTheLastOneAsAPrefix() {
+        mIndex.addAll(Arrays.asList(book("a", "Philosopher Stone"), book("b", "Chamber")));
+
+        assertEquals(1, mIndex.search("rowling philo", 10).size());
+        assertEquals(2, mIndex.search("rowling", 10).size());
+        assertEquals(0, mIndex.search("tolkien", 10).size());
+    }
+
+    @Test
+    public void search_ranksTitleHitsFirst_andStopsAtTheLimit() {
+        mIndex.addAll(Arrays.asList(
+                new Book("a", "Chamber", "url", "A stone in the castle", 0, "Rowling", "en",
+                        "USD", ""),
+                book("b", "Philosopher Stone"),
+                new Book("c", "Goblet", "url", "", 0, "Stone", "en", "USD", "")));
+
+        List<Book> books = mIndex.search("stone", 10);
+
+        // Title, then author, then description
+        assertEquals(3, books.size());
+        assertEquals("b", books.get(0).getId());
+        assertEquals("c", books.get(1).getId());
+        assertEquals("a", books.get(2).getId());
+        assertEquals(1, mIndex.search("stone", 1).size());
+    }
+
+    @Test
+    public void quotesAndOperators_areSearchedAsWords() {
+        mIndex.addAll(Arrays.asList(book("a", "Philosopher Stone"), book("b", "Chamber")));
+
+        assertEquals(1, mIndex.search("\"stone\" (rowl", 10).size());
+        // Lower cased, OR is a word no book contains instead of an operator
+        assertEquals(0, mIndex.search("stone OR chamber", 10).size());
+        assertEquals(0, mIndex.search("\"unterminated -NEAR *", 10).size());
+        assertEquals(0, mIndex.search("\" * - ( )", 10).size());
+    }
+
+    @Test
+    public void matchExpression_onlyKeepsLettersAndDigits() {
+        assertEquals("harry or potter*", BookIndex.toMatchExpression("\"Harry\" OR potter"));
+        assertEquals("near 2 pot ter*", BookIndex.toMatchExpression("NEAR/2 -pot*ter"));
+        assertEquals("魔法使い*", BookIndex.toMatchExpression("魔法使い"));
+        assertNull(BookIndex.toMatchExpression(" \" * - ( ) "));
+    }
+
+    private static Book book(String id, String title) {
+        return new Book(id, title, "url", "The boy who lived", 9990000, "Rowling", "en", "USD",
+                "http://books.example.com/" + id + ".jpg");
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compact representation of {@link Book}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookTest {
+
+    @Test
+    public void codes_areShared() {
+        Book first = book(new String("en"), new String("USD"), 9990000, "");
+        Book second = book(new String("en"), new String("USD"), 9990000, "");
+
+        assertSame(first.getLanguage(), second.getLanguage());
+        assertSame(first.getCurrencyCode(), second.getCurrencyCode());
+    }
+
+    @Test
+    public void price_isStoredAsMicros() {
+        Book book = book("en", "USD", Book.toMicros(3.86), "");
+
+        assertEquals(3860000, book.getPriceMicros());
+        assertEquals("3.86", book.getPrice());
+        assertTrue(book.hasPrice());
+        assertFalse(book("en", "", Book.NO_PRICE, "").hasPrice());
+        assertEquals("", book("en", "", Book.NO_PRICE, "").getPrice());
+    }
+
+    @Test
+    public void prices_areFormattedForTheLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            assertEquals("$3.86", PriceFormatter.format(Book.toMicros(3.86), "USD"));
+            assertEquals("¥1,200", PriceFormatter.format(Book.toMicros(1200), "JPY"));
+            // The cached formats follow a change of locale
+            Locale.setDefault(Locale.GERMANY);
+            String euros = PriceFormatter.format(Book.toMicros(3.86), "EUR");
+            assertTrue(euros, euros.startsWith("3,86") && euros.endsWith("€"));
+            assertEquals("ABC 3,86", PriceFormatter.format(Book.toMicros(3.86), "ABC"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void longDescriptions_areTruncatedForTheList() {
+        StringBuilder description = new StringBuilder();
+        while (description.length() < 1000) {
+            description.append("wizard ");
+        }
+        Book book = book("en", "USD", 0, description.toString());
+
+        assertEquals(description.toString(), book.getDescription());
+        String listDescription = book.getListDescription();
+        assertTrue(listDescription.length() <= Book.LIST_DESCRIPTION_LENGTH + 1);
+        assertTrue(listDescription.endsWith("wizard…"));
+        // Computed once, not on each bind
+        assertSame(listDescription, book.getListDescription());
+        assertEquals("Short", book("en", "USD", 0, "Short").getListDescription());
+    }
+
+    @Test
+    public void cjkDescriptions_areKeptAsTheyAre() {
+        Book book = book("ja", "JPY", 0, "魔法使いの少年の物語");
+
+        assertEquals("魔法使いの少年の物語", book.getDescription());
+        assertSame(book.getDescription(), book.getListDescription());
+        assertTrue(book.hasSameDescription(book("ja", "JPY", 0, "魔法使いの少年の物語")));
+    }
+
+    private static Book book(String language, String currency, long priceMicros, String description) {
+        return new Book("id", "Title", "https://play.google.com/store/books/details?id=id",
+                description, priceMicros, "Author", language, currency,
+                "http://books.google.com/books/content?id=id");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link BooksAdapter} tells the rows of two lists apart, the diff of the lists only
+ * updates the rows that changed. The frame times of the list while it is flung are measured on
+ * a device by {@link BooksActivityBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BooksAdapterTest {
+
+    @Test
+    public void sameVolume_isTheSameRow_withItsNewContents() {
+        Book before = book("volume1", "Title", 9990000);
+        Book after = book("volume1", "Title", 4990000);
+
+        assertTrue(BooksAdapter.DIFF_CALLBACK.areItemsTheSame(before, after));
+        assertFalse(BooksAdapter.DIFF_CALLBACK.areContentsTheSame(before, after));
+        assertTrue(BooksAdapter.DIFF_CALLBACK.areContentsTheSame(before,
+                book("volume1", "Title", 9990000)));
+    }
+
+    @Test
+    public void volumesWithoutId_areToldApartByTitleAndAuthor() {
+        Book first = book("", "First", 0);
+        Book second = book("", "Second", 0);
+
+        assertNotEquals(first.getKey(), second.getKey());
+        assertFalse(BooksAdapter.DIFF_CALLBACK.areItemsTheSame(first, second));
+        assertTrue(BooksAdapter.DIFF_CALLBACK.areItemsTheSame(first, book("", "First", 0)));
+        // A volume id is never mistaken for the key of a volume without one
+        assertEquals("volume1", book("volume1", "First", 0).getKey());
+        assertFalse(BooksAdapter.DIFF_CALLBACK.areItemsTheSame(first, book("volume1", "First", 0)));
+    }
+
+    private static Book book(String id, String title, long priceMicros) {
+        return new Book(id, title, "https://play.google.com/store/books/details?id=" + id,
+                "Description", priceMicros, "Author", "en", "USD", "");
+    }
+}
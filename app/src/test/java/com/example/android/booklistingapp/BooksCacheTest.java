@@ -0,0 +1,216 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the two tiers of {@link BooksCache}: the LRU eviction of the memory tier, the expiry
+ * of the entries, the round trip through the disk tier and the recovery from corrupt files.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BooksCacheTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private List<Book> mBooks;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder();
+        mBooks = QueryUtils.extractBooks(QueryUtilsTest.readFixture("volumes_small.json"));
+    }
+
+    @Test
+    public void memoryTier_evictsTheLeastRecentlyUsedEntry() {
+        BooksCache cache = newCache(2);
+        cache.put("a", mBooks);
+        cache.put("b", mBooks);
+        // a is now more recent than b
+        cache.get("a");
+        cache.put("c", mBooks);
+
+        assertEquals(1, cache.getEvictionCount());
+        cache.get("a");
+        cache.get("c");
+        assertEquals(3, cache.getMemoryHitCount());
+        // b is only on disk anymore
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    @Test
+    public void expiredEntries_areOnlyServedStale() {
+        BooksCache cache = newCache(4);
+        long storedAt = System.currentTimeMillis() - 2 * HOUR_MILLIS;
+        cache.put("old", new BooksCache.Entry(mBooks, storedAt, HOUR_MILLIS, null, null));
+        cache.put("fresh", new BooksCache.Entry(mBooks, storedAt, 4 * HOUR_MILLIS, null, null));
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("fresh"));
+        assertEquals(mBooks.size(), cache.getStale("old").size());
+        assertNotNull(cache.getEntry("old"));
+
+        // The stale lookups are counted on their own
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(2, cache.getStaleHitCount());
+    }
+
+    @Test
+    public void diskTier_survivesTheProcess() {
+        long storedAt = System.currentTimeMillis();
+        newCache(4).put("harry", new BooksCache.Entry(mBooks, storedAt, HOUR_MILLIS, "\"v1\"",
+                "Tue, 13 Oct 2026 10:00:00 GMT"));
+
+        // A new cache over the same directory only has the disk tier
+        BooksCache restored = newCache(4);
+        BooksCache.Entry entry = restored.getEntry("  HARRY ");
+
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals("Tue, 13 Oct 2026 10:00:00 GMT", entry.getLastModified());
+        assertEquals(mBooks.size(), entry.getBooks().size());
+        for (int i = 0; i < mBooks.size(); i++) {
+            QueryUtilsTest.assertSameBook("#" + i, mBooks.get(i), entry.getBooks().get(i));
+        }
+        assertEquals(1, restored.getDiskHitCount());
+        // No temporary file is left behind
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void diskTier_isTrimmedToItsMaxSize() {
+        BooksCache cache = new BooksCache(mDirectory, 1, 1, BooksCache.DEFAULT_TTL_MILLIS);
+        cache.put("a", mBooks);
+        cache.put("b", mBooks);
+
+        // Even the last file is over the max size
+        assertEquals(0, mDirectory.list().length);
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void interruptedWrite_isDeletedByTheNextOne() throws IOException {
+        // Left by a crash in the middle of a write
+        File interrupted = new File(mDirectory, "write-61.tmp");
+        assertTrue(interrupted.createNewFile());
+        assertTrue(interrupted.setLastModified(System.currentTimeMillis() - HOUR_MILLIS));
+
+        newCache(4).put("harry", mBooks);
+
+        assertFalse(interrupted.exists());
+        assertEquals(mBooks.size(), newCache(4).get("harry").size());
+    }
+
+    @Test
+    public void truncatedFile_isTreatedAsEmpty() throws IOException {
+        newCache(4).put("harry", mBooks);
+        File file = onlyFile();
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() / 2);
+        truncated.close();
+
+        BooksCache restored = newCache(4);
+
+        assertNull(restored.getStale("harry"));
+        assertEquals(1, restored.getMissCount());
+        assertFalse(file.exists());
+        // The next result is stored again
+        restored.put("harry", mBooks);
+        assertEquals(mBooks.size(), newCache(4).get("harry").size());
+    }
+
+    @Test
+    public void corruptLength_isTreatedAsEmpty() throws IOException {
+        newCache(4).put("harry", mBooks);
+        File file = onlyFile();
+        // The version followed by a negative length for the key
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(5);
+        out.writeInt(-7);
+        out.close();
+
+        assertNull(newCache(4).getEntry("harry"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void noStoreEntry_replacesNothing() {
+        BooksCache cache = newCache(4);
+        cache.put("harry", mBooks);
+
+        cache.put("harry", new BooksCache.Entry(mBooks, System.currentTimeMillis(),
+                BooksCache.Entry.NO_STORE, null, null));
+
+        assertNull(cache.getEntry("harry"));
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void plans_shareTheirEntries_withTheLighterOnes() {
+        BooksCache cache = newCache(4);
+        String poor = BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.Plan.POOR);
+        String excellent = BooksViewModel.toGoogleQueryUrl("harry", 0,
+                NetworkQuality.Plan.EXCELLENT);
+        cache.put(poor, mBooks);
+
+        assertEquals(BooksCache.keyFor(poor), BooksCache.keyFor(excellent));
+        // Fewer books without descriptions, only served stale to a richer plan
+        assertNull(cache.get(excellent));
+        assertNotNull(cache.getStale(excellent));
+        cache.put(excellent, mBooks);
+        assertNotNull(cache.get(poor));
+        // Another page or another filter is another entry
+        assertNull(cache.get(BooksViewModel.toGoogleQueryUrl("harry", 10,
+                NetworkQuality.Plan.POOR)));
+        assertNull(cache.get(poor.replace("paid-ebooks", "free-ebooks")));
+    }
+
+    @Test
+    public void covers_onlyTheSameOrLighterPlans() {
+        String poor = BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.Plan.POOR);
+        String moderate = BooksViewModel.toGoogleQueryUrl("harry", 0,
+                NetworkQuality.Plan.MODERATE);
+        String good = BooksViewModel.toGoogleQueryUrl("harry", 0, NetworkQuality.Plan.GOOD);
+
+        assertTrue(BooksCache.covers(good, poor));
+        assertTrue(BooksCache.covers(good, moderate));
+        assertFalse(BooksCache.covers(poor, good));
+        assertFalse(BooksCache.covers(moderate, good));
+        // The full resources cover every projection, a projection never covers them
+        assertTrue(BooksCache.covers(VolumeFields.strip(good), moderate));
+        assertFalse(BooksCache.covers(good, VolumeFields.strip(good)));
+    }
+
+    private BooksCache newCache(int memoryEntries) {
+        return new BooksCache(mDirectory, memoryEntries, 1024 * 1024,
+                BooksCache.DEFAULT_TTL_MILLIS);
+    }
+
+    private File onlyFile() {
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+}
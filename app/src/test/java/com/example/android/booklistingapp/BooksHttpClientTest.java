@@ -0,0 +1,94 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link QueryUtils} goes through the shared {@link BooksHttpClient}: gzip is
+ * negotiated transparently and connections are reused between searches.
+ * The latency with a cold and a warm connection pool is measured by {@link HttpClientBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BooksHttpClientTest {
+
+    private FakeBooksServer mServer;
+    private byte[] mBody;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeBooksServer();
+        mBody = QueryUtilsTest.readFixture("volumes_40.json").getBytes(Charset.forName("UTF-8"));
+        mServer.body = mBody;
+        BooksHttpClient.get().connectionPool().evictAll();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+        BooksHttpClient.configure(BooksHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                BooksHttpClient.DEFAULT_READ_TIMEOUT_MILLIS,
+                BooksHttpClient.DEFAULT_MAX_IDLE_CONNECTIONS,
+                BooksHttpClient.DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    @Test
+    public void responses_areGzippedTransparently() {
+        mServer.gzip = true;
+
+        List<Book> books = QueryUtils.fetchBooks(mServer.url("harry"));
+
+        assertEquals(40, books.size());
+        assertEquals("gzip", mServer.getRequest(0).getFirst("Accept-Encoding"));
+        assertTrue(mServer.getBytesSent() < mBody.length);
+    }
+
+    @Test
+    public void connections_areReusedBetweenRequests() {
+        QueryUtils.fetchBooks(mServer.url("harry"));
+        QueryUtils.fetchBooks(mServer.url("potter"));
+        QueryUtils.fetchBooks(mServer.url("hermione"));
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, BooksHttpClient.get().connectionPool().connectionCount());
+    }
+
+    @Test
+    public void sharedClient_usesTheDefaultConfiguration() {
+        OkHttpClient client = BooksHttpClient.get();
+
+        assertSame(client, BooksHttpClient.get());
+        assertEquals(BooksHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, client.connectTimeoutMillis());
+        assertEquals(BooksHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, client.readTimeoutMillis());
+        assertTrue(client.protocols().contains(Protocol.HTTP_2));
+    }
+
+    @Test
+    public void configure_replacesTheSharedClient() {
+        OkHttpClient previous = BooksHttpClient.get();
+
+        BooksHttpClient.configure(2000, 3000, 1, 1000);
+        OkHttpClient client = BooksHttpClient.get();
+
+        assertNotSame(previous, client);
+        assertEquals(2000, client.connectTimeoutMillis());
+        assertEquals(3000, client.readTimeoutMillis());
+        // The configured client is the one the requests go through
+        assertEquals(40, QueryUtils.fetchBooks(mServer.url("harry")).size());
+        assertEquals(1, client.connectionPool().connectionCount());
+    }
+}
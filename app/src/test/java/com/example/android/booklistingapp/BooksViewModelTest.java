@@ -0,0 +1,336 @@
+package com.example.android.booklistingapp;
+
+import androidx.lifecycle.SavedStateHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates the recreation of {@link BooksActivity} around {@link BooksViewModel} and counts the
+ * fetches: a rotation keeps the view model and a process restore reads the books back from the
+ * cache, neither fetches anything.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BooksViewModelTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mCacheDirectory;
+    private List<Book> mBooks;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDirectory = mFolder.newFolder();
+        mBooks = QueryUtils.extractBooks(QueryUtilsTest.readFixture("volumes_40.json"));
+    }
+
+    @Test
+    public void rotation_redrawsWithoutFetching() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 20));
+
+        // The new activity gets the same view model and shows its books right away
+        assertEquals(20, viewModel.getBooks().getValue().size());
+        assertEquals(1, viewModel.fetches.size());
+    }
+
+    @Test
+    public void processRestore_readsTheBooksFromTheCache() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 20));
+        viewModel.loadNextPage();
+        viewModel.completeLoad(mBooks.subList(20, 40));
+        viewModel.setScrollPosition(25);
+        List<Book> shown = viewModel.getBooks().getValue();
+
+        // A new process only has the saved state and the disk cache
+        FakeViewModel restored = new FakeViewModel(saveAndRestore(viewModel.state), newCache());
+
+        assertEquals(0, restored.fetches.size());
+        assertEquals("harry", restored.getQuery());
+        assertEquals(25, restored.getScrollPosition());
+        assertEquals(shown.size(), restored.getBooks().getValue().size());
+        for (int i = 0; i < shown.size(); i++) {
+            QueryUtilsTest.assertSameBook("#" + i, shown.get(i), restored.getBooks().getValue().get(i));
+        }
+
+        // Paging goes on after the restored pages
+        restored.loadNextPage();
+        assertEquals(1, restored.fetches.size());
+        assertTrue(restored.fetches.get(0).get(0).contains("startIndex=40"));
+    }
+
+    @Test
+    public void pages_followThePlanOfTheNetwork() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.plan = NetworkQuality.Plan.POOR;
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 10));
+
+        // The network got better while the user scrolled
+        viewModel.plan = NetworkQuality.Plan.EXCELLENT;
+        viewModel.loadNextPage();
+
+        assertTrue(viewModel.fetches.get(0).get(0).contains("maxResults=10"));
+        assertTrue(viewModel.fetches.get(1).get(0).contains("maxResults=40&startIndex=10"));
+    }
+
+    @Test
+    public void nextPage_startsAfterTheBooksReceived() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.plan = NetworkQuality.Plan.EXCELLENT;
+        viewModel.search("harry");
+        // A short page, or one cached for a plan with smaller pages
+        viewModel.completeLoad(mBooks.subList(0, 15));
+
+        viewModel.loadNextPage();
+
+        assertTrue(viewModel.fetches.get(1).get(0).contains("startIndex=15"));
+    }
+
+    @Test
+    public void partialRows_areKept_whenTheRestOfThePageFails() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.onPartialResult(new ArrayList<>(mBooks.subList(0, QueryUtils.BATCH_SIZE)));
+
+        // The connection dropped in the middle of the response
+        viewModel.onPageLoaded(FetchResult.<List<Book>>failure(FetchResult.Status.NETWORK_ERROR,
+                0, new IOException("unexpected end of stream")));
+
+        assertEquals(QueryUtils.BATCH_SIZE, viewModel.getBooks().getValue().size());
+        assertEquals(0, (int) viewModel.getMessage().getValue());
+    }
+
+    @Test
+    public void failedPage_isLoadedAgain_whenTheUserRetries() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 20));
+        viewModel.loadNextPage();
+        viewModel.failLoad();
+
+        assertTrue(viewModel.hasPageFailed().getValue());
+        assertFalse(Boolean.TRUE.equals(viewModel.state.get(BooksViewModel.KEY_LAST_PAGE_REACHED)));
+        // Scrolling doesn't retry it on its own
+        viewModel.loadNextPage();
+        assertEquals(2, viewModel.fetches.size());
+
+        viewModel.retryPage();
+
+        assertFalse(viewModel.hasPageFailed().getValue());
+        assertEquals(3, viewModel.fetches.size());
+        assertEquals(viewModel.fetches.get(1), viewModel.fetches.get(2));
+        viewModel.completeLoad(mBooks.subList(20, 40));
+        assertEquals(40, viewModel.getBooks().getValue().size());
+    }
+
+    @Test
+    public void emptyPage_endsTheSearch() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 20));
+        viewModel.loadNextPage();
+        viewModel.completeLoad(new ArrayList<Book>());
+
+        viewModel.loadNextPage();
+
+        assertEquals(2, viewModel.fetches.size());
+        assertFalse(viewModel.hasPageFailed().getValue());
+        assertEquals(20, viewModel.getBooks().getValue().size());
+    }
+
+    @Test
+    public void volumesWithoutId_areAllShown() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            books.add(new Book("", "Title " + i, "", "", Book.NO_PRICE, "Author", "en", "", ""));
+        }
+        viewModel.completeLoad(books);
+
+        assertEquals(3, viewModel.getBooks().getValue().size());
+        // The same volumes on the next page are still duplicates
+        viewModel.loadNextPage();
+        viewModel.completeLoad(books);
+        assertEquals(3, viewModel.getBooks().getValue().size());
+    }
+
+    @Test
+    public void newQuery_cancelsTheSupersededLoad() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        long coalesced = SearchMetrics.get().getCoalesced();
+        viewModel.search("harr");
+        viewModel.search("harry");
+
+        assertEquals(1, viewModel.cancelledLoads);
+        assertEquals(2, viewModel.fetches.size());
+
+        // The same query again waits for the load in flight
+        viewModel.search(" harry ");
+        assertEquals(2, viewModel.fetches.size());
+        assertEquals(1, viewModel.cancelledLoads);
+        assertEquals(coalesced + 1, SearchMetrics.get().getCoalesced());
+    }
+
+    @Test
+    public void queryTerms_areEncoded() {
+        String url = BooksViewModel.toGoogleQueryUrl("  tom & jerry   c++ #1 ", 0,
+                NetworkQuality.DEFAULT_PLAN);
+
+        assertTrue(url, url.contains("?q=tom+%26+jerry+c%2B%2B+%231&filter="));
+        assertTrue(BooksViewModel.toFanOutUrls("harry potter", NetworkQuality.DEFAULT_PLAN)
+                .get(2).contains("q=intitle:harry+potter&"));
+    }
+
+    @Test
+    public void processRestore_withoutCachedPages_searchesAgain() {
+        FakeViewModel viewModel = new FakeViewModel(new SavedStateHandle(), newCache());
+        viewModel.search("harry");
+        viewModel.completeLoad(mBooks.subList(0, 20));
+        // The pages were evicted from the disk cache
+        for (File file : mCacheDirectory.listFiles()) {
+            assertTrue(file.delete());
+        }
+
+        FakeViewModel restored = new FakeViewModel(saveAndRestore(viewModel.state), newCache());
+
+        assertEquals(1, restored.fetches.size());
+        assertTrue(restored.fetches.get(0).get(0).contains("q=harry"));
+    }
+
+    @Test
+    public void processRestore_beforeAnySearch_doesNothing() {
+        FakeViewModel restored = new FakeViewModel(new SavedStateHandle(), newCache());
+
+        assertEquals(0, restored.fetches.size());
+        assertEquals(null, restored.getBooks().getValue());
+    }
+
+    /**
+     * A cache over the same directory, as a new process would open it
+     */
+    private BooksCache newCache() {
+        return new BooksCache(mCacheDirectory, 4, 1024 * 1024, BooksCache.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Copies the saved state, as it is written to and read back from the saved instance state
+     */
+    private static SavedStateHandle saveAndRestore(SavedStateHandle state) {
+        Map<String, Object> saved = new HashMap<>();
+        for (String key : state.keys()) {
+            saved.put(key, state.get(key));
+        }
+        return new SavedStateHandle(saved);
+    }
+
+    /**
+     * Runs the tasks posted to it when asked to, like a thread pool and a main thread would
+     * once the view model is constructed
+     */
+    private static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * View model recording the loads instead of running them, the test completes them
+     */
+    private static class FakeViewModel extends BooksViewModel {
+
+        final SavedStateHandle state;
+        final BooksCache cache;
+        final List<List<String>> fetches = new ArrayList<>();
+        //Loads cancelled while in flight
+        int cancelledLoads;
+        private boolean mLoading;
+        NetworkQuality.Plan plan = NetworkQuality.DEFAULT_PLAN;
+
+        FakeViewModel(SavedStateHandle state, BooksCache cache) {
+            this(state, cache, new QueuedExecutor());
+        }
+
+        private FakeViewModel(SavedStateHandle state, BooksCache cache, QueuedExecutor executor) {
+            super(null, state, cache, null, false, executor, executor);
+            this.state = state;
+            this.cache = cache;
+            executor.runAll();
+        }
+
+        @Override
+        void startLoad(List<String> urls, boolean connected) {
+            fetches.add(urls);
+            mLoading = true;
+        }
+
+        @Override
+        void cancelLoad() {
+            if (mLoading) {
+                cancelledLoads++;
+                mLoading = false;
+            }
+            super.cancelLoad();
+        }
+
+        @Override
+        boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        NetworkQuality.Plan getPlan() {
+            return plan;
+        }
+
+        /**
+         * Completes the last load as the fetch layer would, storing its page in the cache
+         */
+        void completeLoad(List<Book> books) {
+            List<String> urls = fetches.get(fetches.size() - 1);
+            cache.put(urls.get(0), new ArrayList<>(books));
+            mLoading = false;
+            onPageLoaded(FetchResult.success((List<Book>) new ArrayList<>(books)));
+        }
+
+        /**
+         * Fails the last load as a dropped connection would
+         */
+        void failLoad() {
+            mLoading = false;
+            onPageLoaded(FetchResult.<List<Book>>failure(FetchResult.Status.NETWORK_ERROR, 0,
+                    new IOException("timeout")));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.android.booklistingapp;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the Google Books API, in the spirit of MockWebServer.
+ * It serves a fixed body with the configured validators, gzipped when the client accepts it,
+ * and answers conditional requests with 304 Not Modified, recording every request it receives.
+ * Responses can be delayed or replaced with an error status, scripted request by request, and
+ * requests with a fields projection can be rejected.
+ */
+class FakeBooksServer {
+
+    private final HttpServer mServer;
+    private final List<Headers> mRequests = new ArrayList<>();
+    private final List<String> mRequestQueries = new ArrayList<>();
+    private final Queue<Integer> mScript = new ConcurrentLinkedQueue<>();
+    private int mBodiesServed;
+    private long mBytesSent;
+
+    //Response configuration
+    volatile byte[] body;
+    volatile String eTag;
+    volatile String lastModified;
+    volatile String cacheControl;
+    volatile boolean gzip;
+    volatile int status = 200;
+    volatile long delayMillis;
+    volatile boolean rejectFields;
+    //Writes the body in chunks of this size with a pause after each one, 0 to write it at once
+    volatile int chunkBytes;
+    volatile long chunkDelayMillis;
+    //Sent with the error responses
+    volatile String retryAfter;
+
+    FakeBooksServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        // Requests are served in parallel, so a slow response doesn't delay the others
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    /**
+     * @return the url of the volumes endpoint for the given query
+     */
+    String url(String query) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/books/v1/volumes?q=" + query + "&filter=paid-ebooks&maxResults=20";
+    }
+
+    /**
+     * Answers the next requests with these statuses, one each, then with {@link #status}
+     */
+    void script(Integer... statuses) {
+        mScript.addAll(Arrays.asList(statuses));
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+    }
+
+    synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    synchronized Headers getRequest(int index) {
+        return mRequests.get(index);
+    }
+
+    /**
+     * @return the query string of the request at the index
+     */
+    synchronized String getRequestQuery(int index) {
+        return mRequestQueries.get(index);
+    }
+
+    synchronized int getBodiesServed() {
+        return mBodiesServed;
+    }
+
+    /**
+     * @return the number of body bytes written to the wire
+     */
+    synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        String query = exchange.getRequestURI().getRawQuery();
+        synchronized (this) {
+            mRequests.add(request);
+            mRequestQueries.add(query);
+        }
+        pause(delayMillis);
+        Integer scripted = mScript.poll();
+        int status = scripted != null ? scripted : this.status;
+        //Like a server that doesn't support partial responses
+        boolean projected = query != null && query.contains("fields=");
+        if (status != 200 || (rejectFields && projected)) {
+            if (status != 200 && retryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After", retryAfter);
+            }
+            exchange.sendResponseHeaders(status != 200 ? status : 400, -1);
+            exchange.close();
+            return;
+        }
+
+        Headers response = exchange.getResponseHeaders();
+        if (eTag != null) {
+            response.set("ETag", eTag);
+        }
+        if (lastModified != null) {
+            response.set("Last-Modified", lastModified);
+        }
+        if (cacheControl != null) {
+            response.set("Cache-Control", cacheControl);
+        }
+
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        boolean notModified = (eTag != null && eTag.equals(ifNoneMatch))
+                || (ifNoneMatch == null && lastModified != null && lastModified.equals(ifModifiedSince));
+        if (notModified) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] payload = body;
+        String acceptEncoding = request.getFirst("Accept-Encoding");
+        if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            payload = gzip(body);
+            response.set("Content-Encoding", "gzip");
+        }
+        synchronized (this) {
+            mBodiesServed++;
+            mBytesSent += payload.length;
+        }
+        response.set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, payload.length);
+        OutputStream out = exchange.getResponseBody();
+        int chunk = chunkBytes > 0 ? chunkBytes : payload.length;
+        for (int offset = 0; offset < payload.length; offset += chunk) {
+            out.write(payload, offset, Math.min(chunk, payload.length - offset));
+            if (chunkBytes > 0) {
+                out.flush();
+                pause(chunkDelayMillis);
+            }
+        }
+        out.close();
+    }
+
+    private static void pause(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link FanOutSearch} merges the results of its sub-queries without duplicates,
+ * runs them in parallel on the {@link FetchEngine} and still returns the results of the healthy
+ * ones when others fail or time out.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FanOutSearchTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private FetchEngine mEngine;
+    private FakeBooksServer mSmall;
+    private FakeBooksServer mLarge;
+
+    @Before
+    public void setUp() throws IOException {
+        mEngine = new FetchEngine(new OkHttpTransport(), FetchEngine.MAX_PARALLEL_REQUESTS);
+        mSmall = new FakeBooksServer();
+        mSmall.body = fixture("volumes_small.json");
+        mLarge = new FakeBooksServer();
+        mLarge.body = fixture("volumes_40.json");
+    }
+
+    @After
+    public void tearDown() {
+        mSmall.shutdown();
+        mLarge.shutdown();
+    }
+
+    @Test
+    public void results_areMergedWithoutDuplicates() {
+        int small = QueryUtils.fetchBooks(mSmall.url("harry")).size();
+
+        List<Book> books = fetch(TIMEOUT_MILLIS, null, mSmall.url("harry"), mLarge.url("harry"),
+                mSmall.url("intitle:harry")).getValue();
+
+        assertEquals(small + 40, books.size());
+        Set<String> ids = new HashSet<>();
+        for (Book book : books) {
+            assertTrue(ids.add(book.getId()));
+        }
+    }
+
+    @Test
+    public void partialResults_areReportedBeforeTheSlowestSubQuery() {
+        mLarge.delayMillis = 500;
+        List<Integer> partialSizes = new ArrayList<>();
+
+        List<Book> books = fetch(TIMEOUT_MILLIS, partialSizes, mLarge.url("harry"),
+                mSmall.url("harry")).getValue();
+
+        // The fast sub-query is merged first even though it was submitted last
+        assertEquals(1, partialSizes.size());
+        assertEquals(books.size() - 40, (int) partialSizes.get(0));
+    }
+
+    @Test
+    public void totalTime_isBoundedBySlowestSubQuery() {
+        mSmall.delayMillis = 400;
+        mLarge.delayMillis = 400;
+
+        long start = System.nanoTime();
+        fetch(TIMEOUT_MILLIS, null, mSmall.url("harry"), mLarge.url("harry"),
+                mSmall.url("potter"), mLarge.url("potter"));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1200);
+    }
+
+    @Test
+    public void failedSubQueries_areSkipped() {
+        mSmall.status = 500;
+
+        List<Book> books = fetch(TIMEOUT_MILLIS, null, mSmall.url("harry"),
+                mLarge.url("harry")).getValue();
+
+        assertEquals(40, books.size());
+    }
+
+    @Test
+    public void slowSubQueries_timeOut() {
+        mSmall.delayMillis = 3000;
+
+        long start = System.nanoTime();
+        List<Book> books = fetch(500, null, mSmall.url("harry"), mLarge.url("harry")).getValue();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(40, books.size());
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 2000);
+    }
+
+    @Test
+    public void everySubQueryFailing_returnsTheFirstFailure() {
+        mSmall.status = 500;
+        mLarge.status = 503;
+        mLarge.delayMillis = 300;
+
+        FetchResult<List<Book>> result = fetch(TIMEOUT_MILLIS, null, mSmall.url("harry"),
+                mLarge.url("harry"));
+
+        assertEquals(FetchResult.Status.HTTP_ERROR, result.getStatus());
+        assertEquals(500, result.getHttpCode());
+        assertNull(result.getValue());
+    }
+
+    @Test
+    public void streamedSubQuery_reportsItsBooksInOrderBeforeTheEndOfTheResponse()
+            throws InterruptedException {
+        // About 2 books per chunk over more than half a second
+        mLarge.chunkBytes = 1024;
+        mLarge.chunkDelayMillis = 20;
+        final List<List<Book>> partials = new ArrayList<>();
+        final FetchResult<?>[] result = new FetchResult<?>[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        final String url = mLarge.url("harry");
+        FanOutSearch.SubQuery subQuery = new FanOutSearch.SubQuery() {
+            @Override
+            public FetchEngine.Task<List<Book>> newTask(QueryUtils.BatchListener listener) {
+                return QueryUtils.fetchTask(url, null, listener);
+            }
+        };
+
+        FanOutSearch.startStreaming(mEngine, FetchEngine.Priority.USER_SEARCH, null,
+                Collections.singletonList(subQuery), 0, new FanOutSearch.Listener() {
+                    @Override
+                    public void onPartialResult(List<Book> books) {
+                        partials.add(books);
+                    }
+
+                    @Override
+                    public void onComplete(FetchResult<List<Book>> complete) {
+                        result[0] = complete;
+                        done.countDown();
+                    }
+                });
+        assertTrue(done.await(TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS));
+
+        @SuppressWarnings("unchecked")
+        List<Book> books = ((FetchResult<List<Book>>) result[0]).getValue();
+        assertEquals(40, books.size());
+        assertEquals(40 / QueryUtils.BATCH_SIZE, partials.size());
+        // Each partial result is the start of the final one, without duplicates
+        int previousSize = 0;
+        for (List<Book> partial : partials) {
+            assertTrue(partial.size() > previousSize);
+            for (int i = 0; i < partial.size(); i++) {
+                assertEquals(books.get(i).getId(), partial.get(i).getId());
+            }
+            previousSize = partial.size();
+        }
+    }
+
+    /**
+     * Runs a search for the urls and waits for its result.
+     *
+     * @param partialSizes receives the sizes of the partial results, may be null.
+     */
+    private FetchResult<List<Book>> fetch(long timeoutMillis, final List<Integer> partialSizes,
+                                          String... urls) {
+        List<FetchEngine.Task<List<Book>>> tasks = new ArrayList<>();
+        for (String url : urls) {
+            tasks.add(QueryUtils.fetchTask(url, null));
+        }
+        final FetchResult<?>[] result = new FetchResult<?>[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        FanOutSearch.start(mEngine, FetchEngine.Priority.USER_SEARCH, tasks, timeoutMillis,
+                new FanOutSearch.Listener() {
+                    @Override
+                    public void onPartialResult(List<Book> books) {
+                        if (partialSizes != null) {
+                            partialSizes.add(books.size());
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(FetchResult<List<Book>> complete) {
+                        result[0] = complete;
+                        done.countDown();
+                    }
+                });
+        try {
+            assertTrue(done.await(TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        @SuppressWarnings("unchecked")
+        FetchResult<List<Book>> books = (FetchResult<List<Book>>) result[0];
+        return books;
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        return QueryUtilsTest.readFixture(name).getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the scheduling, cancellation and error typing of {@link FetchEngine} on the JVM,
+ * through a fake {@link Transport}.
+ */
+public class FetchEngineTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final FakeTransport mTransport = new FakeTransport();
+
+    @Test
+    public void waitingJobs_runByPriorityThenSubmission() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // Keeps the only thread busy while the other jobs are queued
+        engine.submit(FetchEngine.Priority.BACKGROUND_REFRESH, new FetchEngine.Task<String>() {
+            @Override
+            public String run(Transport transport, FetchEngine.Cancellation cancellation) {
+                awaitQuietly(release);
+                return null;
+            }
+        }, null);
+        engine.submit(FetchEngine.Priority.BACKGROUND_REFRESH, record(order, "refresh"), null);
+        engine.submit(FetchEngine.Priority.PREFETCH, record(order, "prefetch 1"), null);
+        engine.submit(FetchEngine.Priority.USER_SEARCH, record(order, "search"), null);
+        FetchEngine.Job<String> last =
+                engine.submit(FetchEngine.Priority.PREFETCH, record(order, "prefetch 2"), null);
+        FetchEngine.Job<String> refresh = engine.submit(FetchEngine.Priority.BACKGROUND_REFRESH,
+                record(order, "refresh 2"), null);
+        release.countDown();
+
+        refresh.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertTrue(last.await(0, TimeUnit.MILLISECONDS).isSuccess());
+        assertEquals(Arrays.asList("search", "prefetch 1", "prefetch 2", "refresh", "refresh 2"),
+                order);
+    }
+
+    @Test
+    public void runningJobs_areBounded() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<FetchEngine.Job<String>> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            jobs.add(engine.submit(FetchEngine.Priority.USER_SEARCH, new FetchEngine.Task<String>() {
+                @Override
+                public String run(Transport transport, FetchEngine.Cancellation cancellation)
+                        throws IOException {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }
+            }, null));
+        }
+        for (FetchEngine.Job<String> job : jobs) {
+            assertTrue(job.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).isSuccess());
+        }
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void cancellingARunningJob_closesItsRequest() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 1);
+        mTransport.hang("slow");
+
+        FetchEngine.Job<String> job = engine.submit(FetchEngine.Priority.USER_SEARCH,
+                fetch("slow"), null);
+        assertTrue(mTransport.started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        job.cancel();
+        FetchResult<String> result = job.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(FetchResult.Status.CANCELLED, result.getStatus());
+        assertEquals(1, mTransport.cancelledCalls.get());
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void cancellingAWaitingJob_dropsItWithoutRunningIt() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 1);
+        mTransport.hang("slow");
+        mTransport.respond("fast", 200, "1");
+        final List<FetchResult<String>> results = new ArrayList<>();
+
+        FetchEngine.Job<String> running = engine.submit(FetchEngine.Priority.USER_SEARCH,
+                fetch("slow"), null);
+        FetchEngine.Job<String> waiting = engine.submit(FetchEngine.Priority.USER_SEARCH,
+                fetch("fast"), new FetchEngine.Callback<String>() {
+                    @Override
+                    public void onResult(FetchResult<String> result) {
+                        results.add(result);
+                    }
+                });
+        assertTrue(mTransport.started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        waiting.cancel();
+        running.cancel();
+
+        // Delivered right away on the cancelling thread
+        assertEquals(1, results.size());
+        assertEquals(FetchResult.Status.CANCELLED, results.get(0).getStatus());
+        running.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(Collections.singletonList("slow"), mTransport.requested);
+    }
+
+    @Test
+    public void failures_areTyped() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 2);
+        mTransport.respond("ok", 200, "42");
+        mTransport.respond("unavailable", 503, "");
+        mTransport.respond("malformed", 200, "{not a number");
+
+        FetchResult<String> ok = run(engine, fetch("ok"));
+        FetchResult<String> network = run(engine, fetch("unreachable"));
+        FetchResult<String> http = run(engine, fetch("unavailable"));
+        FetchResult<String> parse = run(engine, fetch("malformed"));
+
+        assertEquals("42", ok.getValue());
+        assertEquals(FetchResult.Status.NETWORK_ERROR, network.getStatus());
+        assertEquals(FetchResult.Status.HTTP_ERROR, http.getStatus());
+        assertEquals(503, http.getHttpCode());
+        assertEquals(FetchResult.Status.PARSE_ERROR, parse.getStatus());
+    }
+
+    @Test
+    public void concurrentSharedJobs_sendOneRequest() throws Exception {
+        final FetchEngine engine = new FetchEngine(mTransport, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        mTransport.hold("shared", 200, "7", release);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<FetchEngine.Job<String>> jobs =
+                Collections.synchronizedList(new ArrayList<FetchEngine.Job<String>>());
+
+        // Every caller submits at the same time, while the request is held in flight
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(go);
+                    jobs.add(engine.submitShared("shared", FetchEngine.Priority.USER_SEARCH,
+                            fetch("shared"), null));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+        release.countDown();
+
+        assertEquals(8, jobs.size());
+        for (FetchEngine.Job<String> job : jobs) {
+            assertEquals("7", job.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getValue());
+        }
+        assertEquals(Collections.singletonList("shared"), mTransport.requested);
+        assertEquals(7, engine.getCoalesced());
+    }
+
+    @Test
+    public void cancellingOneSharedJob_keepsTheRequestForTheOthers() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        mTransport.hold("shared", 200, "7", release);
+
+        FetchEngine.Job<String> first = engine.submitShared("shared",
+                FetchEngine.Priority.USER_SEARCH, fetch("shared"), null);
+        FetchEngine.Job<String> second = engine.submitShared("shared",
+                FetchEngine.Priority.USER_SEARCH, fetch("shared"), null);
+        assertTrue(mTransport.started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        first.cancel();
+        release.countDown();
+
+        assertEquals(FetchResult.Status.CANCELLED,
+                first.await(0, TimeUnit.MILLISECONDS).getStatus());
+        assertEquals("7", second.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getValue());
+        assertEquals(0, mTransport.cancelledCalls.get());
+        assertEquals(Collections.singletonList("shared"), mTransport.requested);
+    }
+
+    @Test
+    public void cancellingEverySharedJob_cancelsTheRequest() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 2);
+        mTransport.hang("slow");
+
+        FetchEngine.Job<String> first = engine.submitShared("slow",
+                FetchEngine.Priority.USER_SEARCH, fetch("slow"), null);
+        FetchEngine.Job<String> second = engine.submitShared("slow",
+                FetchEngine.Priority.PREFETCH, fetch("slow"), null);
+        assertTrue(mTransport.started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        first.cancel();
+        assertEquals(0, mTransport.cancelledCalls.get());
+        second.cancel();
+
+        assertEquals(1, mTransport.cancelledCalls.get());
+        assertEquals(FetchResult.Status.CANCELLED,
+                second.await(0, TimeUnit.MILLISECONDS).getStatus());
+
+        // The next job with the key sends a request of its own
+        mTransport.respond("slow", 200, "3");
+        FetchEngine.Job<String> next = engine.submitShared("slow",
+                FetchEngine.Priority.USER_SEARCH, fetch("slow"), null);
+        assertEquals("3", next.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getValue());
+        assertEquals(Arrays.asList("slow", "slow"), mTransport.requested);
+    }
+
+    @Test
+    public void sharedJobJoinedWithAHigherPriority_movesUp() throws Exception {
+        FetchEngine engine = new FetchEngine(mTransport, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // Keeps the only thread busy while the other jobs are queued
+        engine.submit(FetchEngine.Priority.USER_SEARCH, new FetchEngine.Task<String>() {
+            @Override
+            public String run(Transport transport, FetchEngine.Cancellation cancellation) {
+                awaitQuietly(release);
+                return null;
+            }
+        }, null);
+        FetchEngine.Job<String> refresh = engine.submitShared("shared",
+                FetchEngine.Priority.BACKGROUND_REFRESH, record(order, "shared"), null);
+        FetchEngine.Job<String> prefetch = engine.submit(FetchEngine.Priority.PREFETCH,
+                record(order, "prefetch"), null);
+        FetchEngine.Job<String> search = engine.submitShared("shared",
+                FetchEngine.Priority.USER_SEARCH, record(order, "search"), null);
+        release.countDown();
+
+        prefetch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals("shared", refresh.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getValue());
+        assertEquals("shared", search.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getValue());
+        assertEquals(Arrays.asList("shared", "prefetch"), order);
+    }
+
+    private static FetchResult<String> run(FetchEngine engine, FetchEngine.Task<String> task)
+            throws InterruptedException {
+        return engine.submit(FetchEngine.Priority.USER_SEARCH, task, null)
+                .await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Task requesting the url and parsing its body as a number
+     */
+    private static FetchEngine.Task<String> fetch(final String url) {
+        return new FetchEngine.Task<String>() {
+            @Override
+            public String run(Transport transport, FetchEngine.Cancellation cancellation)
+                    throws IOException, FetchException {
+                Transport.Response response = FetchEngine.open(transport, url,
+                        Collections.<String, String>emptyMap(), cancellation);
+                try {
+                    if (response.code() != 200) {
+                        throw FetchException.httpStatus(response.code());
+                    }
+                    String body = read(response.body());
+                    try {
+                        return String.valueOf(Integer.parseInt(body));
+                    } catch (NumberFormatException e) {
+                        throw FetchException.parse(e);
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    private static FetchEngine.Task<String> record(final List<String> order, final String name) {
+        return new FetchEngine.Task<String>() {
+            @Override
+            public String run(Transport transport, FetchEngine.Cancellation cancellation) {
+                order.add(name);
+                return name;
+            }
+        };
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), Charset.forName("UTF-8"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        awaitQuietly(latch, TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return whether the latch was released in time.
+     */
+    private static boolean awaitQuietly(CountDownLatch latch, long timeoutMillis) {
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Transport answering canned responses, held until a latch is released, or hanging until
+     * its call is cancelled. Unknown urls fail as unreachable hosts.
+     */
+    private static class FakeTransport implements Transport {
+
+        final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger cancelledCalls = new AtomicInteger();
+        private final Map<String, Object[]> mResponses = new HashMap<>();
+
+        void respond(String url, int code, String body) {
+            mResponses.put(url, new Object[]{code, body});
+        }
+
+        void hang(String url) {
+            mResponses.put(url, null);
+        }
+
+        void hold(String url, int code, String body, CountDownLatch release) {
+            mResponses.put(url, new Object[]{code, body, release});
+        }
+
+        @Override
+        public Call newCall(final String url, Map<String, String> headers) {
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            return new Call() {
+                @Override
+                public Response execute() throws IOException {
+                    requested.add(url);
+                    if (!mResponses.containsKey(url)) {
+                        throw new IOException("Unable to resolve host " + url);
+                    }
+                    final Object[] response = mResponses.get(url);
+                    if (response == null) {
+                        // Blocked on the socket until it is closed
+                        started.countDown();
+                        awaitQuietly(cancelled);
+                        throw new IOException("Socket closed");
+                    }
+                    if (response.length > 2) {
+                        // Waiting for the response until released, or closed
+                        started.countDown();
+                        CountDownLatch release = (CountDownLatch) response[2];
+                        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+                        while (!awaitQuietly(release, 10)) {
+                            if (cancelled.getCount() == 0
+                                    || System.currentTimeMillis() > deadline) {
+                                throw new IOException("Socket closed");
+                            }
+                        }
+                    }
+                    return new Response() {
+                        @Override
+                        public int code() {
+                            return (Integer) response[0];
+                        }
+
+                        @Override
+                        public String header(String name) {
+                            return null;
+                        }
+
+                        @Override
+                        public InputStream body() {
+                            return new ByteArrayInputStream(
+                                    ((String) response[1]).getBytes(Charset.forName("UTF-8")));
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                }
+
+                @Override
+                public void cancel() {
+                    cancelledCalls.incrementAndGet();
+                    cancelled.countDown();
+                }
+            };
+        }
+    }
+}
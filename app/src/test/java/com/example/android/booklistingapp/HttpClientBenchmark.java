@@ -0,0 +1,69 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.Charset;
+
+/**
+ * Benchmarks a fetch of a recorded response from a local server through the shared
+ * {@link BooksHttpClient}, opening a new connection each time and reusing the pooled one.
+ * Run with {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'}, the results
+ * are written to app/build/benchmarks/HttpClientBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HttpClientBenchmark {
+
+    private static final Microbenchmark sBenchmark = new Microbenchmark("HttpClientBenchmark");
+
+    private FakeBooksServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Microbenchmark.isEnabled());
+        mServer = new FakeBooksServer();
+        mServer.body = QueryUtilsTest.readFixture("volumes_40.json")
+                .getBytes(Charset.forName("UTF-8"));
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sBenchmark.writeReport();
+    }
+
+    @Test
+    public void fetchBooks_coldConnection() throws Exception {
+        final String url = mServer.url("harry");
+        sBenchmark.measure("fetchBooks_coldConnection", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                // Drop the pooled connection so every request opens a new one
+                BooksHttpClient.get().connectionPool().evictAll();
+                return QueryUtils.fetchBooks(url);
+            }
+        });
+    }
+
+    @Test
+    public void fetchBooks_warmConnection() throws Exception {
+        final String url = mServer.url("harry");
+        sBenchmark.measure("fetchBooks_warmConnection", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return QueryUtils.fetchBooks(url);
+            }
+        });
+    }
+}
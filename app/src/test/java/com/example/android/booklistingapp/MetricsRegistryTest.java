@@ -0,0 +1,100 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the percentiles of {@link Histogram} and the timing of the stages by the
+ * {@link MetricsRegistry}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MetricsRegistryTest {
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.setEnabled(false);
+        MetricsRegistry.get().reset();
+    }
+
+    @Test
+    public void percentiles_areWithinTheBucketPrecision() {
+        Histogram histogram = new Histogram("test");
+        // 1ms to 1000ms, uniformly
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1000000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertClose(500e6, histogram.getPercentileNanos(0.5));
+        assertClose(950e6, histogram.getPercentileNanos(0.95));
+        assertClose(990e6, histogram.getPercentileNanos(0.99));
+        assertEquals(1000000000L, histogram.getMaxNanos());
+        assertEquals(500500000L, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void buckets_coverEveryDuration() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long micros = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = Histogram.bucketOf(micros);
+            assertTrue(Histogram.lowerBoundMicros(bucket) <= micros);
+            if (micros < (1L << 40)) {
+                assertTrue(micros < Histogram.lowerBoundMicros(bucket + 1));
+            }
+        }
+    }
+
+    @Test
+    public void disabledRegistry_recordsNothing() {
+        long start = MetricsRegistry.begin(MetricsRegistry.PARSE_EXTRACT_BOOKS);
+        MetricsRegistry.end(MetricsRegistry.PARSE_EXTRACT_BOOKS, start);
+        MetricsRegistry.record(MetricsRegistry.SEARCH_TOTAL, MetricsRegistry.now());
+
+        assertEquals(0, start);
+        MetricsRegistry registry = MetricsRegistry.get();
+        assertEquals(0, registry.histogram(MetricsRegistry.PARSE_EXTRACT_BOOKS).getCount());
+        assertEquals(0, registry.histogram(MetricsRegistry.SEARCH_TOTAL).getCount());
+    }
+
+    @Test
+    public void stages_areRecordedAndExported() throws Exception {
+        MetricsRegistry.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            long start = MetricsRegistry.begin(MetricsRegistry.PARSE_EXTRACT_BOOKS);
+            QueryUtils.extractBooks(QueryUtilsTest.openFixture("volumes_40.json"));
+            MetricsRegistry.end(MetricsRegistry.PARSE_EXTRACT_BOOKS, start);
+        }
+
+        JSONObject json = MetricsRegistry.get().toJson();
+        // Timed by the parser itself as well
+        JSONObject parse = json.getJSONObject(MetricsRegistry.PARSE_EXTRACT_BOOKS);
+        assertEquals(6, parse.getLong("count"));
+        assertTrue(parse.getLong("p50Nanos") > 0);
+        assertTrue(parse.getLong("p99Nanos") <= parse.getLong("maxNanos"));
+        assertTrue(MetricsRegistry.get().dump().startsWith(MetricsRegistry.PARSE_EXTRACT_BOOKS));
+    }
+
+    @Test
+    public void counters_areDumpedAfterTheStages() {
+        MetricsRegistry.get().registerCounters("search", SearchMetrics.get());
+        SearchMetrics.get().onKeystroke();
+
+        // Written as they are when dumped
+        String dump = MetricsRegistry.get().dump();
+        assertTrue(dump, dump.contains("search: " + SearchMetrics.get() + "\n"));
+    }
+
+    private static void assertClose(double expected, long actual) {
+        assertTrue("expected about " + expected + ", got " + actual,
+                Math.abs(actual - expected) <= expected * 0.07);
+    }
+}
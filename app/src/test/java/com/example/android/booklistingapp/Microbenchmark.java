@@ -0,0 +1,172 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Small benchmark harness for the JVM benchmarks, run as unit tests.
+ * <p>
+ * Each benchmark is warmed up, then timed over {@link #SAMPLES} samples of as many operations
+ * as fit in {@link #SAMPLE_NANOS}, so the timer resolution doesn't matter. The time per
+ * operation of the samples, and the bytes allocated per operation, are written to
+ * {@code <benchmark.dir>/<suite>.json} to be compared between commits. When
+ * {@code benchmark.baseline} points to the results of a previous run, the change of each
+ * median is added to the results and printed.
+ * <p>
+ * Benchmarks only run when the {@code benchmark} system property is set, see build.gradle.
+ */
+class Microbenchmark {
+
+    static final int SAMPLES = 30;
+    static final long WARMUP_NANOS = 1000L * 1000 * 1000;
+    static final long SAMPLE_NANOS = 20L * 1000 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Operation measured, its result is consumed so it can't be optimized away
+     */
+    interface Body {
+        Object run() throws Exception;
+    }
+
+    private final String mSuite;
+    private final JSONArray mResults = new JSONArray();
+    //Consumes the results of the operations
+    private volatile int mSink;
+
+    Microbenchmark(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * @return whether the benchmarks were asked for, they take a while.
+     */
+    static boolean isEnabled() {
+        return System.getProperty("benchmark") != null;
+    }
+
+    /**
+     * Measures the body and adds its results to the report of the suite.
+     */
+    void measure(String name, Body body) throws Exception {
+        // Warm up, which also finds how many operations fill a sample
+        long operations = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NANOS) {
+            consume(body.run());
+            operations++;
+        }
+        long opsPerSample = Math.max(1,
+                operations * SAMPLE_NANOS / Math.max(1, System.nanoTime() - start));
+
+        long[] nanosPerOp = new long[SAMPLES];
+        long allocated = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            long allocatedBefore = allocatedBytes();
+            long sampleStart = System.nanoTime();
+            for (long op = 0; op < opsPerSample; op++) {
+                consume(body.run());
+            }
+            nanosPerOp[sample] = (System.nanoTime() - sampleStart) / opsPerSample;
+            allocated += allocatedBytes() - allocatedBefore;
+        }
+        Arrays.sort(nanosPerOp);
+
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("samples", SAMPLES);
+        result.put("opsPerSample", opsPerSample);
+        result.put("minNanos", nanosPerOp[0]);
+        result.put("medianNanos", nanosPerOp[SAMPLES / 2]);
+        result.put("p90Nanos", nanosPerOp[SAMPLES * 9 / 10]);
+        result.put("allocatedBytesPerOp", allocated / (SAMPLES * opsPerSample));
+        compareWithBaseline(result);
+        mResults.put(result);
+        System.out.println(mSuite + "." + name + ": " + result);
+    }
+
+    /**
+     * Writes the results of the suite, called once every benchmark of the suite ran.
+     */
+    void writeReport() throws IOException, JSONException {
+        if (mResults.length() == 0) {
+            return;
+        }
+        JSONObject report = new JSONObject();
+        report.put("suite", mSuite);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("vm", System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version"));
+        report.put("benchmarks", mResults);
+
+        File directory = new File(System.getProperty("benchmark.dir", "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, mSuite + ".json")), UTF_8);
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Adds the median of the same benchmark in the baseline results, if any, and its change
+     */
+    private void compareWithBaseline(JSONObject result) throws IOException, JSONException {
+        String baseline = System.getProperty("benchmark.baseline");
+        if (baseline == null) {
+            return;
+        }
+        File file = new File(baseline, mSuite + ".json");
+        if (!file.isFile()) {
+            return;
+        }
+        JSONArray previous = new JSONObject(read(file)).getJSONArray("benchmarks");
+        for (int i = 0; i < previous.length(); i++) {
+            JSONObject before = previous.getJSONObject(i);
+            if (before.getString("name").equals(result.getString("name"))) {
+                long beforeNanos = before.getLong("medianNanos");
+                result.put("baselineMedianNanos", beforeNanos);
+                result.put("change", beforeNanos == 0 ? 0
+                        : (double) (result.getLong("medianNanos") - beforeNanos) / beforeNanos);
+                return;
+            }
+        }
+    }
+
+    private void consume(Object result) {
+        mSink += System.identityHashCode(result);
+    }
+
+    private static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return QueryUtils.readFromStream(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the current thread
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the plans {@link NetworkQuality} picks from the samples of the fetches and from the
+ * link, on simulated 2G, 3G and Wi-Fi networks.
+ */
+public class NetworkQualityTest {
+
+    private static final long NOW = 1000000000L;
+
+    private final NetworkQuality mQuality = new NetworkQuality();
+
+    @Test
+    public void withoutSamples_theLinkDecides() {
+        assertEquals(NetworkQuality.DEFAULT_PLAN, mQuality.getPlan(NOW));
+
+        mQuality.onLink(-1, true);
+        assertEquals(NetworkQuality.Plan.EXCELLENT, mQuality.getPlan(NOW));
+
+        mQuality.onLink(50, false);
+        assertEquals(NetworkQuality.Plan.POOR, mQuality.getPlan(NOW));
+    }
+
+    @Test
+    public void slowFetches_pickSmallPagesWithoutDescriptionsNorThumbnails() {
+        // 2G: 20 KB in 2 s after 2.5 s of round trips, even though the link claims better
+        mQuality.onLink(1000, false);
+        mQuality.onResponse(2500, NOW);
+        mQuality.onBody(20 * 1024, 2000000000L, NOW);
+
+        NetworkQuality.Plan plan = mQuality.getPlan(NOW);
+
+        assertEquals(NetworkQuality.Plan.POOR, plan);
+        assertEquals(10, plan.getPageSize());
+        assertTrue(!plan.hasDescriptions() && plan.getThumbnailField() == null);
+    }
+
+    @Test
+    public void moderateFetches_pickSmallThumbnails() {
+        // 3G: 40 KB in 1 s
+        mQuality.onResponse(600, NOW);
+        mQuality.onBody(40 * 1024, 1000000000L, NOW);
+
+        assertEquals(NetworkQuality.Plan.MODERATE, mQuality.getPlan(NOW));
+        assertEquals(VolumeFields.SMALL_THUMBNAIL, NetworkQuality.Plan.MODERATE.getThumbnailField());
+    }
+
+    @Test
+    public void fastFetches_pickFullPages() {
+        // Wi-Fi: 40 KB in 20 ms
+        mQuality.onResponse(150, NOW);
+        mQuality.onBody(40 * 1024, 20000000L, NOW);
+
+        assertEquals(NetworkQuality.Plan.EXCELLENT, mQuality.getPlan(NOW));
+        assertEquals(40, NetworkQuality.Plan.EXCELLENT.getPageSize());
+    }
+
+    @Test
+    public void samples_areAveraged_andSmallBodiesIgnored() {
+        mQuality.onBody(40 * 1024, 20000000L, NOW);
+        // One slow fetch doesn't drop the plan to the lowest one
+        mQuality.onBody(40 * 1024, 4000000000L, NOW);
+        // Over in a single read, it says nothing of the bandwidth
+        mQuality.onBody(512, 1, NOW);
+
+        assertEquals(NetworkQuality.Plan.EXCELLENT, mQuality.getPlan(NOW));
+        assertTrue(mQuality.getBandwidthKbps() < 16384 * 0.8);
+    }
+
+    @Test
+    public void oldSamples_areForgotten() {
+        mQuality.onLink(-1, true);
+        mQuality.onResponse(2500, NOW);
+        assertEquals(NetworkQuality.Plan.POOR, mQuality.getPlan(NOW));
+
+        long later = NOW + NetworkQuality.SAMPLE_MAX_AGE_MILLIS;
+        assertEquals(NetworkQuality.Plan.EXCELLENT, mQuality.getPlan(later));
+        mQuality.onResponse(100, later);
+        assertEquals(100, mQuality.getResponseMillis(), 0);
+    }
+
+    @Test
+    public void plans_areCounted() {
+        mQuality.getPlan(NOW);
+        mQuality.getPlan(NOW);
+        mQuality.onLink(50, false);
+        mQuality.getPlan(NOW);
+
+        assertEquals(2, mQuality.getDecisions(NetworkQuality.DEFAULT_PLAN));
+        assertEquals(1, mQuality.getDecisions(NetworkQuality.Plan.POOR));
+        assertTrue(mQuality.toString().contains("poor=1"));
+    }
+
+    @Test
+    public void measuringStream_countsTheBytesRead() throws IOException {
+        InputStream body = new NetworkQuality.MeasuringInputStream(
+                new ByteArrayInputStream(new byte[10000]));
+        byte[] buffer = new byte[4096];
+        while (body.read(buffer) != -1) {
+            body.read();
+        }
+
+        NetworkQuality.MeasuringInputStream measured = (NetworkQuality.MeasuringInputStream) body;
+        assertEquals(10000, measured.getBytes());
+        assertTrue(measured.getReadNanos() > 0);
+    }
+}
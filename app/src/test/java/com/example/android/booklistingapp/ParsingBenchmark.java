@@ -0,0 +1,158 @@
+package com.example.android.booklistingapp;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Benchmarks the hot paths of a search on the JVM: parsing the recorded Google Books responses
+ * with both parsers and with the fields projection, reading a response into a String, building
+ * the query urls and the books.
+ * Run with {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'}, the results
+ * are written to app/build/benchmarks/ParsingBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ParsingBenchmark {
+
+    private static final String[] FIXTURES = {
+            "volumes_small.json", "volumes_40.json", "volumes_long_descriptions.json"};
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Microbenchmark sBenchmark = new Microbenchmark("ParsingBenchmark");
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Microbenchmark.isEnabled());
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sBenchmark.writeReport();
+    }
+
+    @Test
+    public void extractBooks_streaming() throws Exception {
+        for (String fixture : FIXTURES) {
+            final byte[] response = QueryUtilsTest.readFixture(fixture).getBytes(UTF_8);
+            sBenchmark.measure("extractBooks_streaming_" + name(fixture),
+                    new Microbenchmark.Body() {
+                        @Override
+                        public Object run() {
+                            return QueryUtils.extractBooks(new ByteArrayInputStream(response));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void extractBooks_projected() throws Exception {
+        for (String fixture : FIXTURES) {
+            // The response as the server sends it with the fields projection
+            final byte[] response = VolumeFieldsTest.project(QueryUtilsTest.readFixture(fixture))
+                    .getBytes(UTF_8);
+            sBenchmark.measure("extractBooks_projected_" + name(fixture),
+                    new Microbenchmark.Body() {
+                        @Override
+                        public Object run() {
+                            return QueryUtils.extractBooks(new ByteArrayInputStream(response));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void extractBooks_tree() throws Exception {
+        for (String fixture : FIXTURES) {
+            final String response = QueryUtilsTest.readFixture(fixture);
+            sBenchmark.measure("extractBooks_tree_" + name(fixture), new Microbenchmark.Body() {
+                @Override
+                public Object run() {
+                    return QueryUtils.extractBooks(response);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void readFromStream() throws Exception {
+        for (String fixture : FIXTURES) {
+            final byte[] response = QueryUtilsTest.readFixture(fixture).getBytes(UTF_8);
+            sBenchmark.measure("readFromStream_" + name(fixture), new Microbenchmark.Body() {
+                @Override
+                public Object run() throws IOException {
+                    return QueryUtils.readFromStream(new ByteArrayInputStream(response));
+                }
+            });
+            sBenchmark.measure("readFromStream_lines_" + name(fixture),
+                    new Microbenchmark.Body() {
+                        @Override
+                        public Object run() throws IOException {
+                            return readLines(new ByteArrayInputStream(response));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void toGoogleQueryUrl() throws Exception {
+        sBenchmark.measure("toGoogleQueryUrl", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return BooksViewModel.toGoogleQueryUrl("  the lord   of the rings ", 40,
+                        NetworkQuality.DEFAULT_PLAN);
+            }
+        });
+        sBenchmark.measure("toFanOutUrls", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return BooksViewModel.toFanOutUrls("  the lord   of the rings ",
+                        NetworkQuality.DEFAULT_PLAN);
+            }
+        });
+    }
+
+    @Test
+    public void bookConstruction() throws Exception {
+        // Fresh strings, as the parser hands them
+        final String description = QueryUtilsTest.readFixture("volumes_long_descriptions.json")
+                .substring(0, 2000);
+        sBenchmark.measure("bookConstruction", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return new Book(new String("zyTCAlFPjgYC"), new String("The Google Story"),
+                        new String("https://play.google.com/store/books/details?id=zyTCAlFPjgYC"),
+                        new String(description), Book.toMicros(9.99), new String("David A. Vise"),
+                        new String("en"), new String("USD"),
+                        new String("http://books.google.com/books/content?id=zyTCAlFPjgYC"));
+            }
+        });
+    }
+
+    /**
+     * The previous QueryUtils.readFromStream, line by line into a StringBuilder, for comparison
+     */
+    private static String readLines(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        return output.toString();
+    }
+
+    private static String name(String fixture) {
+        return fixture.substring("volumes_".length(), fixture.length() - ".json".length());
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the queries picked by {@link QueryHistory} for the prefetch and the accounting of the
+ * {@link PrefetchLedger}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PrefetchTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String URL = "https://www.googleapis.com/books/v1/volumes?q=dune";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void history_returnsTheRecentQueriesThenTheFrequentOnes() {
+        QueryHistory history = new QueryHistory(new File(mFolder.getRoot(), "history"));
+        history.record("dune", 1);
+        history.record("dune", 2);
+        history.record("dune", 3);
+        history.record("  Harry   Potter ", 4);
+        history.record("tolkien", 5);
+        history.record("harry potter", 6);
+        history.record("asimov", 7);
+
+        assertEquals(Arrays.asList("asimov", "harry potter"), history.getQueriesToPrefetch(2, 0));
+        assertEquals(Arrays.asList("asimov", "harry potter", "dune"),
+                history.getQueriesToPrefetch(2, 2));
+    }
+
+    @Test
+    public void history_isReadBackAndBounded() {
+        File file = new File(mFolder.getRoot(), "prefetch");
+        QueryHistory history = new QueryHistory(file);
+        for (int i = 0; i <= QueryHistory.MAX_QUERIES; i++) {
+            history.record("query " + i, i);
+        }
+
+        QueryHistory restored = new QueryHistory(file);
+        assertEquals(QueryHistory.MAX_QUERIES,
+                restored.getQueriesToPrefetch(Integer.MAX_VALUE, 0).size());
+        // The oldest query was dropped
+        assertEquals(Arrays.asList("query " + QueryHistory.MAX_QUERIES),
+                restored.getQueriesToPrefetch(1, 0));
+        assertFalse(restored.getQueriesToPrefetch(Integer.MAX_VALUE, 0).contains("query 0"));
+    }
+
+    @Test
+    public void ledger_spendsTheBudgetOfTheDay() {
+        PrefetchLedger ledger = new PrefetchLedger(new File(mFolder.getRoot(), "ledger"), 1000);
+        long today = 100 * DAY_MILLIS;
+        ledger.onPrefetched(URL, 600, today);
+        ledger.onSpent(300, today + 1000);
+
+        assertEquals(100, ledger.getRemainingBytes(today + 2000));
+        ledger.onSpent(300, today + 3000);
+        assertEquals(0, ledger.getRemainingBytes(today + 4000));
+        // A new budget the next day
+        assertEquals(1000, ledger.getRemainingBytes(today + DAY_MILLIS));
+        assertEquals(1200, ledger.getPrefetchedBytes());
+    }
+
+    @Test
+    public void ledger_countsThePrefetchedResultsServedOnce() {
+        File file = new File(mFolder.getRoot(), "prefetch");
+        PrefetchLedger ledger = new PrefetchLedger(file, 1000);
+        ledger.onPrefetched(URL, 600, 0);
+        ledger.onPrefetched(URL + "+herbert", 200, 0);
+
+        ledger.onServedFromCache(URL.toUpperCase());
+        ledger.onServedFromCache(URL);
+        // Downloaded again by the search, the prefetch was wasted
+        ledger.onDownloaded(URL + "+herbert");
+        ledger.onServedFromCache(URL + "+herbert");
+
+        assertEquals(600, ledger.getUsedBytes());
+        PrefetchLedger restored = new PrefetchLedger(file, 1000);
+        assertEquals(600, restored.getUsedBytes());
+        assertEquals(800, restored.getPrefetchedBytes());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses recorded Google Books responses with random fields removed or replaced by values of
+ * other types, and checks that both parsers of {@link QueryUtils} keep every volume that has a
+ * title, and agree on the books they make of them.
+ * Each case is seeded, a failure names the seed to replay it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryUtilsFuzzTest {
+
+    private static final String[] FIXTURES = {
+            "volumes_small.json", "volumes_40.json", "volumes_long_descriptions.json"};
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CASES_PER_FIXTURE = 150;
+    private static final int MAX_MUTATIONS = 8;
+
+    @Test
+    public void mutatedResponses_keepEveryVolumeWithATitle() throws Exception {
+        for (String fixture : FIXTURES) {
+            String original = QueryUtilsTest.readFixture(fixture);
+            for (int seed = 0; seed < CASES_PER_FIXTURE; seed++) {
+                Random random = new Random(seed);
+                JSONObject response = new JSONObject(original);
+                int mutations = 1 + random.nextInt(MAX_MUTATIONS);
+                for (int i = 0; i < mutations; i++) {
+                    mutate(response.getJSONArray(VolumeFields.ITEMS), random);
+                }
+                String message = fixture + " seed " + seed;
+                String json = response.toString();
+
+                List<Book> tree = QueryUtils.extractBooks(json);
+                List<Book> streaming = QueryUtils.extractBooks(
+                        new ByteArrayInputStream(json.getBytes(UTF_8)));
+
+                assertNotNull(message, streaming);
+                assertEquals(message, countTitled(response), streaming.size());
+                assertEquals(message, tree.size(), streaming.size());
+                for (int i = 0; i < tree.size(); i++) {
+                    QueryUtilsTest.assertSameBook(message + " #" + i, tree.get(i), streaming.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void truncatedResponses_keepTheBooksBeforeTheCut() throws IOException {
+        byte[] response = QueryUtilsTest.readFixture("volumes_40.json").getBytes(UTF_8);
+        List<Book> all = QueryUtils.extractBooks(new ByteArrayInputStream(response));
+        Random random = new Random(42);
+        for (int i = 0; i < CASES_PER_FIXTURE; i++) {
+            int length = random.nextInt(response.length);
+            List<Book> books = QueryUtils.extractBooks(
+                    new ByteArrayInputStream(response, 0, length));
+
+            assertNotNull("cut at " + length, books);
+            assertTrue("cut at " + length, books.size() <= all.size());
+            for (int n = 0; n < books.size(); n++) {
+                QueryUtilsTest.assertSameBook("cut at " + length + " #" + n, all.get(n),
+                        books.get(n));
+            }
+        }
+    }
+
+    /**
+     * Removes a random field of a random volume, or replaces it with a value of another type
+     */
+    private static void mutate(JSONArray items, Random random) throws JSONException {
+        List<Object[]> fields = new ArrayList<>();
+        collectFields(items, fields);
+        Object[] field = fields.get(random.nextInt(fields.size()));
+        Object replacement = randomValue(random);
+        if (field[0] instanceof JSONObject) {
+            JSONObject parent = (JSONObject) field[0];
+            if (replacement == null) {
+                parent.remove((String) field[1]);
+            } else {
+                parent.put((String) field[1], replacement);
+            }
+        } else {
+            ((JSONArray) field[0]).put((Integer) field[1],
+                    replacement == null ? JSONObject.NULL : replacement);
+        }
+    }
+
+    /**
+     * Adds every field under the value, as its parent and its name or index
+     */
+    private static void collectFields(Object value, List<Object[]> fields) throws JSONException {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Iterator<String> names = object.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                fields.add(new Object[]{object, name});
+                collectFields(object.get(name), fields);
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                fields.add(new Object[]{array, i});
+                collectFields(array.get(i), fields);
+            }
+        }
+    }
+
+    /**
+     * @return a value of a random type, or null to remove the field.
+     */
+    private static Object randomValue(Random random) throws JSONException {
+        switch (random.nextInt(8)) {
+            case 0:
+                return null;
+            case 1:
+                return JSONObject.NULL;
+            case 2:
+                return random.nextInt(1000);
+            case 3:
+                return random.nextBoolean();
+            case 4:
+                return "";
+            case 5:
+                return "fuzz" + random.nextInt(1000);
+            case 6:
+                return new JSONObject().put("fuzz", random.nextInt(1000));
+            default:
+                return new JSONArray().put("fuzz");
+        }
+    }
+
+    /**
+     * Number of volumes with a title, the ones the parsers must keep
+     */
+    private static int countTitled(JSONObject response) throws JSONException {
+        JSONArray items = response.getJSONArray(VolumeFields.ITEMS);
+        int titled = 0;
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.optJSONObject(i);
+            JSONObject volumeInfo = item != null
+                    ? item.optJSONObject(VolumeFields.VOLUME_INFO) : null;
+            Object title = volumeInfo != null ? volumeInfo.opt(VolumeFields.TITLE) : null;
+            if ((title instanceof String && !((String) title).isEmpty())
+                    || title instanceof Number) {
+                titled++;
+            }
+        }
+        return titled;
+    }
+}
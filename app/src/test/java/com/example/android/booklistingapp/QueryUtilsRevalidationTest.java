@@ -0,0 +1,161 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the conditional requests made by {@link QueryUtils#fetchBooks(String, BooksCache)}
+ * against a local {@link FakeBooksServer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryUtilsRevalidationTest {
+
+    private static final String E_TAG = "\"v1-abc\"";
+    private static final String LAST_MODIFIED = "Tue, 13 Oct 2026 10:00:00 GMT";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeBooksServer mServer;
+    private BooksCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeBooksServer();
+        mServer.body = QueryUtilsTest.readFixture("volumes_small.json").getBytes(Charset.forName("UTF-8"));
+        // A TTL of 0 makes every entry without max-age stale straight away
+        mCache = new BooksCache(mFolder.newFolder(), 4, 1024 * 1024, 0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void staleEntry_revalidatedWithETag_reusesCachedBooks() {
+        mServer.eTag = E_TAG;
+        String url = mServer.url("harry");
+
+        List<Book> first = QueryUtils.fetchBooks(url, mCache);
+        List<Book> second = QueryUtils.fetchBooks(url, mCache);
+
+        assertEquals(5, first.size());
+        assertEquals(2, mServer.getRequestCount());
+        assertNull(mServer.getRequest(0).getFirst("If-None-Match"));
+        assertEquals(E_TAG, mServer.getRequest(1).getFirst("If-None-Match"));
+        // The second response was a 304, the body was only downloaded once
+        assertEquals(1, mServer.getBodiesServed());
+        assertSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void staleEntry_revalidatedWithLastModified_reusesCachedBooks() {
+        mServer.lastModified = LAST_MODIFIED;
+        String url = mServer.url("harry");
+
+        QueryUtils.fetchBooks(url, mCache);
+        List<Book> second = QueryUtils.fetchBooks(url, mCache);
+
+        assertEquals(LAST_MODIFIED, mServer.getRequest(1).getFirst("If-Modified-Since"));
+        assertEquals(1, mServer.getBodiesServed());
+        assertEquals(5, second.size());
+    }
+
+    @Test
+    public void changedResource_downloadsNewBody() {
+        mServer.eTag = E_TAG;
+        String url = mServer.url("harry");
+        QueryUtils.fetchBooks(url, mCache);
+
+        mServer.eTag = "\"v2-def\"";
+        QueryUtils.fetchBooks(url, mCache);
+        QueryUtils.fetchBooks(url, mCache);
+
+        // Only the request made with the outdated validator downloaded the body again
+        assertEquals(2, mServer.getBodiesServed());
+        assertEquals("\"v2-def\"", mServer.getRequest(2).getFirst("If-None-Match"));
+    }
+
+    @Test
+    public void freshEntry_withMaxAge_skipsTheNetwork() {
+        mServer.eTag = E_TAG;
+        mServer.cacheControl = "private, max-age=300";
+        String url = mServer.url("harry");
+
+        QueryUtils.fetchBooks(url, mCache);
+        List<Book> second = QueryUtils.fetchBooks(url, mCache);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(5, second.size());
+    }
+
+    @Test
+    public void validators_surviveTheMemoryTier() throws IOException {
+        mServer.eTag = E_TAG;
+        String url = mServer.url("harry");
+        QueryUtils.fetchBooks(url, mCache);
+
+        // A new cache over the same directory only has the disk tier
+        BooksCache restored = new BooksCache(mCache.getDirectory(), 4, 1024 * 1024, 0);
+        List<Book> books = QueryUtils.fetchBooks(url, restored);
+
+        assertEquals(E_TAG, mServer.getRequest(1).getFirst("If-None-Match"));
+        assertEquals(1, mServer.getBodiesServed());
+        assertEquals(5, books.size());
+    }
+
+    @Test
+    public void noStoreResponse_isNotCached() {
+        mServer.cacheControl = "no-store";
+        String url = mServer.url("harry");
+
+        QueryUtils.fetchBooks(url, mCache);
+
+        assertNull(mCache.getEntry(url));
+        assertEquals(0, mCache.getDirectory().list().length);
+    }
+
+    @Test
+    public void entryOfALighterPlan_isFetchedAgainForARicherOne() throws IOException {
+        mServer.eTag = E_TAG;
+        BooksCache cache = new BooksCache(mFolder.newFolder(), 4, 1024 * 1024,
+                BooksCache.DEFAULT_TTL_MILLIS);
+        String url = mServer.url("harry");
+        String poor = VolumeFields.project(url.replace("maxResults=20", "maxResults=10"),
+                NetworkQuality.Plan.POOR);
+        String good = VolumeFields.project(url, NetworkQuality.Plan.GOOD);
+
+        QueryUtils.fetchBooks(poor, cache);
+        QueryUtils.fetchBooks(good, cache);
+        QueryUtils.fetchBooks(poor, cache);
+
+        // The GOOD fetch downloaded the body again, unconditionally, and covers the POOR one
+        assertEquals(2, mServer.getRequestCount());
+        assertNull(mServer.getRequest(1).getFirst("If-None-Match"));
+        assertEquals(2, mServer.getBodiesServed());
+    }
+
+    @Test
+    public void parseMaxAge() {
+        assertEquals(300000, QueryUtils.parseMaxAge("private, max-age=300"));
+        assertEquals(0, QueryUtils.parseMaxAge("no-cache"));
+        assertEquals(0, QueryUtils.parseMaxAge("max-age=300, no-cache"));
+        assertEquals(BooksCache.Entry.NO_STORE, QueryUtils.parseMaxAge("max-age=300, no-store"));
+        assertEquals(BooksCache.Entry.NO_MAX_AGE, QueryUtils.parseMaxAge("private"));
+        assertEquals(BooksCache.Entry.NO_MAX_AGE, QueryUtils.parseMaxAge(null));
+    }
+}
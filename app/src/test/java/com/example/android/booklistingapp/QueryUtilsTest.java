@@ -0,0 +1,149 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the streaming parser of {@link QueryUtils} with the tree parser on recorded
+ * Google Books responses.
+ * Runs with Robolectric so android.util.JsonReader and org.json are available on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryUtilsTest {
+
+    private static final String[] FIXTURES = {
+            "volumes_small.json", "volumes_40.json", "volumes_long_descriptions.json"};
+
+    @Test
+    public void streamingParser_matchesTreeParser() throws IOException {
+        for (String fixture : FIXTURES) {
+            List<Book> expected = QueryUtils.extractBooks(readFixture(fixture));
+            List<Book> actual = QueryUtils.extractBooks(openFixture(fixture));
+
+            assertNotNull(fixture, actual);
+            assertEquals(fixture, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameBook(fixture + " #" + i, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void streamingParser_emptyResults() {
+        InputStream noItems = new java.io.ByteArrayInputStream(
+                "{\"kind\":\"books#volumes\",\"totalItems\":0}".getBytes());
+        assertTrue(QueryUtils.extractBooks(noItems).isEmpty());
+    }
+
+    @Test
+    public void treeParser_emptyResults() {
+        assertTrue(QueryUtils.extractBooks("{\"kind\":\"books#volumes\",\"totalItems\":0}")
+                .isEmpty());
+    }
+
+    @Test
+    public void badVolume_doesNotDropTheRestOfThePage() throws IOException {
+        String response = "{\"items\":["
+                + "{\"id\":\"a\",\"volumeInfo\":{\"title\":\"A\",\"language\":\"en\","
+                + "\"imageLinks\":{\"thumbnail\":\"http://t/a\"}},\"saleInfo\":{}},"
+                // No imageLinks nor language, a price without currency
+                + "{\"id\":\"b\",\"volumeInfo\":{\"title\":\"B\",\"authors\":[]},"
+                + "\"saleInfo\":{\"retailPrice\":{\"amount\":9.99}}},"
+                // No title
+                + "{\"id\":\"c\",\"volumeInfo\":{\"language\":\"en\"}},"
+                + "42,"
+                + "{\"id\":\"d\",\"volumeInfo\":{\"title\":\"D\",\"language\":\"fr\","
+                + "\"imageLinks\":{\"thumbnail\":\"http://t/d\"}},"
+                + "\"saleInfo\":{\"retailPrice\":{\"amount\":\"5\",\"currencyCode\":\"EUR\"}}}"
+                + "]}";
+        ParseMetrics metrics = ParseMetrics.get();
+        long complete = metrics.getComplete();
+        long partial = metrics.getPartial();
+        long skipped = metrics.getSkipped();
+
+        List<Book> books = QueryUtils.extractBooks(
+                new java.io.ByteArrayInputStream(response.getBytes("UTF-8")));
+
+        assertEquals(3, books.size());
+        assertEquals("A", books.get(0).getTitle());
+        Book partialBook = books.get(1);
+        assertEquals("B", partialBook.getTitle());
+        assertEquals("", partialBook.getLanguage());
+        assertEquals("", partialBook.getAuthor());
+        assertNull(partialBook.getThumbnailImage());
+        assertEquals(Book.NO_PRICE, partialBook.getPriceMicros());
+        assertEquals(5000000, books.get(2).getPriceMicros());
+        assertEquals(complete + 2, metrics.getComplete());
+        assertEquals(partial + 1, metrics.getPartial());
+        assertEquals(skipped + 2, metrics.getSkipped());
+
+        List<Book> treeBooks = QueryUtils.extractBooks(response);
+        assertEquals(books.size(), treeBooks.size());
+        for (int i = 0; i < books.size(); i++) {
+            assertSameBook("#" + i, treeBooks.get(i), books.get(i));
+        }
+    }
+
+    @Test
+    public void streamingParser_allocatesLessThanTreeParser() throws IOException {
+        String fixture = "volumes_long_descriptions.json";
+        // Warm up both paths so class loading is not counted
+        QueryUtils.extractBooks(readFixture(fixture));
+        QueryUtils.extractBooks(openFixture(fixture));
+
+        InputStream treeInput = openFixture(fixture);
+        long before = allocatedBytes();
+        QueryUtils.extractBooks(QueryUtils.readFromStream(treeInput));
+        long treeBytes = allocatedBytes() - before;
+
+        InputStream streamInput = openFixture(fixture);
+        before = allocatedBytes();
+        QueryUtils.extractBooks(streamInput);
+        long streamBytes = allocatedBytes() - before;
+
+        assertTrue("streaming parser allocated " + streamBytes + " bytes, tree parser "
+                + treeBytes, streamBytes < treeBytes);
+    }
+
+    /**
+     * Helper that checks every field of two books
+     */
+    static void assertSameBook(String message, Book expected, Book actual) {
+        assertEquals(message, expected.getId(), actual.getId());
+        assertEquals(message, expected.getTitle(), actual.getTitle());
+        assertEquals(message, expected.getUrl(), actual.getUrl());
+        assertEquals(message, expected.getDescription(), actual.getDescription());
+        assertEquals(message, expected.getPrice(), actual.getPrice());
+        assertEquals(message, expected.getAuthor(), actual.getAuthor());
+        assertEquals(message, expected.getLanguage(), actual.getLanguage());
+        assertEquals(message, expected.getCurrencyCode(), actual.getCurrencyCode());
+        assertEquals(message, expected.getThumbnailImage(), actual.getThumbnailImage());
+    }
+
+    static InputStream openFixture(String name) {
+        return QueryUtilsTest.class.getClassLoader().getResourceAsStream("fixtures/" + name);
+    }
+
+    static String readFixture(String name) throws IOException {
+        return QueryUtils.readFromStream(openFixture(name));
+    }
+
+    /**
+     * Bytes allocated so far by the current thread
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the retries and the circuit breaker of {@link ResilientTransport} against a
+ * {@link FakeBooksServer} scripted to throttle or fail requests.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ResilientTransportTest {
+
+    private static final long BASE_DELAY_MILLIS = 20;
+    private static final long MAX_DELAY_MILLIS = 2000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeBooksServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeBooksServer();
+        mServer.body = QueryUtilsTest.readFixture("volumes_small.json").getBytes(Charset.forName("UTF-8"));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void transientErrors_areRetried() throws IOException {
+        ResilientTransport transport = newTransport(3, new CircuitBreaker(10, 1000));
+        long retries = ResilienceMetrics.get().getRetries();
+        mServer.script(503, 500);
+
+        assertEquals(200, execute(transport));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(retries + 2, ResilienceMetrics.get().getRetries());
+    }
+
+    @Test
+    public void retries_areBounded() throws IOException {
+        ResilientTransport transport = newTransport(3, new CircuitBreaker(10, 1000));
+        mServer.status = 503;
+
+        assertEquals(503, execute(transport));
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retryAfter_isHonored() throws IOException {
+        ResilientTransport transport = newTransport(3, new CircuitBreaker(10, 1000));
+        long honored = ResilienceMetrics.get().getRetryAfterHonored();
+        mServer.retryAfter = "1";
+        mServer.script(429);
+
+        long start = System.nanoTime();
+        assertEquals(200, execute(transport));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 950);
+        assertEquals(honored + 1, ResilienceMetrics.get().getRetryAfterHonored());
+    }
+
+    @Test
+    public void longRetryAfter_isNotWaitedFor_andStopsTheNextRequests() throws IOException {
+        ResilientTransport transport = newTransport(3, new CircuitBreaker(10, 1000));
+        mServer.retryAfter = "120";
+        mServer.script(429);
+
+        assertEquals(429, execute(transport));
+        // Refused without reaching the server, which asked for two minutes
+        assertEquals(503, execute(transport));
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, transport.getBreaker().getState());
+        assertTrue(transport.getBreaker().getRemainingOpenMillis() > 60000);
+    }
+
+    @Test
+    public void backoff_isExponentialBoundedAndJittered() {
+        ResilientTransport transport = newTransport(10, new CircuitBreaker(10, 1000));
+        Set<Long> delays = new HashSet<>();
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long bound = Math.min(BASE_DELAY_MILLIS << (attempt - 1), MAX_DELAY_MILLIS);
+            for (int i = 0; i < 20; i++) {
+                long delay = transport.backoffMillis(attempt);
+                assertTrue(delay >= 0 && delay <= bound);
+                delays.add(delay);
+            }
+        }
+        assertTrue(delays.size() > 10);
+    }
+
+    @Test
+    public void breaker_opensAfterConsecutiveFailures_thenClosesAfterATrial() throws Exception {
+        ResilientTransport transport = newTransport(1, new CircuitBreaker(2, 300));
+        long shortCircuited = ResilienceMetrics.get().getShortCircuited();
+        mServer.status = 503;
+
+        assertEquals(503, execute(transport));
+        assertEquals(503, execute(transport));
+        assertEquals(503, execute(transport));
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, transport.getBreaker().getState());
+        assertEquals(shortCircuited + 1, ResilienceMetrics.get().getShortCircuited());
+
+        mServer.status = 200;
+        Thread.sleep(350);
+        assertEquals(200, execute(transport));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, transport.getBreaker().getState());
+    }
+
+    @Test
+    public void overloadedServer_servesStaleCachedBooks() throws Exception {
+        ResilientTransport transport = newTransport(2, new CircuitBreaker(1, 60000));
+        // A TTL of 0 makes every entry stale straight away
+        BooksCache cache = new BooksCache(mFolder.newFolder(), 4, 1024 * 1024, 0);
+        String url = mServer.url("harry");
+        List<Book> fresh = QueryUtils.fetchBooks(transport, url, cache,
+                new FetchEngine.Cancellation());
+        long staleServed = ResilienceMetrics.get().getStaleServed();
+
+        mServer.status = 503;
+        List<Book> first = QueryUtils.fetchBooks(transport, url, cache,
+                new FetchEngine.Cancellation());
+        // The breaker is open now, the server is not asked anymore
+        List<Book> second = QueryUtils.fetchBooks(transport, url, cache,
+                new FetchEngine.Cancellation());
+
+        assertEquals(fresh.size(), first.size());
+        assertEquals(fresh.size(), second.size());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(staleServed + 2, ResilienceMetrics.get().getStaleServed());
+
+        // Without a cached result the caller gets the status
+        try {
+            QueryUtils.fetchBooks(transport, mServer.url("potter"), cache,
+                    new FetchEngine.Cancellation());
+            fail();
+        } catch (FetchException e) {
+            assertEquals(503, e.getHttpCode());
+        }
+    }
+
+    @Test
+    public void cancel_endsTheWaitForARetry() throws Exception {
+        ResilientTransport transport = newTransport(3, new CircuitBreaker(10, 1000));
+        mServer.retryAfter = "1";
+        mServer.script(503);
+        final Transport.Call call = transport.newCall(mServer.url("harry"),
+                Collections.<String, String>emptyMap());
+        final AtomicLong cancelledAt = new AtomicLong();
+
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Once the first attempt was answered and the retry is waiting
+                    while (mServer.getRequestCount() == 0) {
+                        Thread.sleep(10);
+                    }
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                cancelledAt.set(System.nanoTime());
+                call.cancel();
+            }
+        });
+        canceller.start();
+        try {
+            call.execute().close();
+            fail();
+        } catch (InterruptedIOException e) {
+            // The retry was due 800ms later
+            long elapsedMillis = (System.nanoTime() - cancelledAt.get()) / 1000000;
+            assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 400);
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retryAfter_isParsedAsSecondsOrDate() {
+        long now = 1791966400000L;
+        assertEquals(120000, ResilientTransport.parseRetryAfter("120", now));
+        assertEquals(-1, ResilientTransport.parseRetryAfter("soon", now));
+        assertEquals(-1, ResilientTransport.parseRetryAfter(null, now));
+        // 30 seconds after now
+        assertEquals(30000, ResilientTransport.parseRetryAfter("Wed, 14 Oct 2026 08:27:10 GMT",
+                1791966400000L));
+    }
+
+    private ResilientTransport newTransport(int maxAttempts, CircuitBreaker breaker) {
+        return new ResilientTransport(new OkHttpTransport(), maxAttempts, BASE_DELAY_MILLIS,
+                MAX_DELAY_MILLIS, breaker);
+    }
+
+    /**
+     * Sends a request for the books of the server and returns the status code of the response
+     */
+    private int execute(Transport transport) throws IOException {
+        Transport.Response response = transport.newCall(mServer.url("harry"),
+                Collections.<String, String>emptyMap()).execute();
+        try {
+            return response.code();
+        } finally {
+            response.close();
+        }
+    }
+}
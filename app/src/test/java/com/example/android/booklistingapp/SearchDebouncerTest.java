@@ -0,0 +1,113 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Types queries into a {@link SearchDebouncer} on the main looper of the test, whose clock only
+ * moves when the test idles it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchDebouncerTest {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+    private static final long KEEP_MILLIS = 2000;
+
+    private final List<String> mSearches = new ArrayList<>();
+    private final List<String> mKept = new ArrayList<>();
+    private SearchDebouncer mDebouncer;
+
+    @Before
+    public void setUp() {
+        mDebouncer = new SearchDebouncer(new Handler(Looper.getMainLooper()), DEBOUNCE_MILLIS,
+                KEEP_MILLIS, new SearchDebouncer.Listener() {
+                    @Override
+                    public void onSearch(CharSequence query) {
+                        mSearches.add(query.toString());
+                    }
+
+                    @Override
+                    public void onSearchKept(CharSequence query) {
+                        mKept.add(query.toString());
+                    }
+                });
+    }
+
+    @Test
+    public void typing_searchesOnlyTheQueryBeforeAPause() {
+        long keystrokes = SearchMetrics.get().getKeystrokes();
+        type("h", "ha", "har", "harry");
+
+        assertEquals(0, mSearches.size());
+        idle(DEBOUNCE_MILLIS);
+
+        assertEquals(1, mSearches.size());
+        assertEquals("harry", mSearches.get(0));
+        assertEquals(keystrokes + 4, SearchMetrics.get().getKeystrokes());
+    }
+
+    @Test
+    public void searchAsYouType_isKept_onlyOnceTheUserStaysOnIt() {
+        type("harr");
+        idle(DEBOUNCE_MILLIS);
+        // The user goes on typing before the search is kept
+        type("harry");
+        idle(DEBOUNCE_MILLIS + KEEP_MILLIS);
+
+        assertEquals(2, mSearches.size());
+        assertEquals(1, mKept.size());
+        assertEquals("harry", mKept.get(0));
+    }
+
+    @Test
+    public void submit_replacesThePendingSearch() {
+        type("harr");
+        mDebouncer.searchNow("harry potter");
+        idle(DEBOUNCE_MILLIS + KEEP_MILLIS);
+
+        assertEquals(1, mSearches.size());
+        assertEquals("harry potter", mSearches.get(0));
+        assertEquals(1, mKept.size());
+    }
+
+    @Test
+    public void blankQuery_isNotSearched() {
+        type("harry", "  ");
+        idle(DEBOUNCE_MILLIS + KEEP_MILLIS);
+
+        assertEquals(0, mSearches.size());
+    }
+
+    @Test
+    public void blankSubmit_isNotSearched_andDropsThePendingSearch() {
+        type("harry");
+        mDebouncer.searchNow(" \t ");
+        idle(DEBOUNCE_MILLIS + KEEP_MILLIS);
+
+        assertEquals(0, mSearches.size());
+        assertEquals(0, mKept.size());
+    }
+
+    private void type(String... queries) {
+        for (String query : queries) {
+            mDebouncer.onQueryChanged(query);
+            idle(DEBOUNCE_MILLIS / 3);
+        }
+    }
+
+    private static void idle(long millis) {
+        ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+    }
+}
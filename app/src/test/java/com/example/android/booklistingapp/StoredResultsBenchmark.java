@@ -0,0 +1,120 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks the results stored in the {@link BookIndex} on the JVM: reading back a result of
+ * 1000 books, as a search does before its network results arrive, and storing one.
+ * Run with {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'}, the results
+ * are written to app/build/benchmarks/StoredResultsBenchmark.json. The SQLite of Robolectric
+ * is not the one of a device, compare the results between commits rather than with a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StoredResultsBenchmark {
+
+    private static final int RESULT_SIZE = 1000;
+    private static final int FAN_OUT_URLS = 4;
+
+    private static final Microbenchmark sBenchmark = new Microbenchmark("StoredResultsBenchmark");
+
+    private BookIndex mIndex;
+    private List<Book> mBooks;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Microbenchmark.isEnabled());
+        // In memory, the benchmark measures SQLite and the cursors rather than the disk
+        mIndex = new BookIndex(RuntimeEnvironment.application, null);
+        List<Book> page = QueryUtils.extractBooks(QueryUtilsTest.readFixture("volumes_40.json"));
+        mBooks = new ArrayList<>(RESULT_SIZE);
+        for (int i = 0; i < RESULT_SIZE; i++) {
+            Book book = page.get(i % page.size());
+            mBooks.add(new Book(book.getId() + i, book.getTitle(), book.getUrl(),
+                    book.getDescription(), book.getPriceMicros(), book.getAuthor(),
+                    book.getLanguage(), book.getCurrencyCode(), book.getThumbnailUrl()));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mIndex != null) {
+            mIndex.close();
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        sBenchmark.writeReport();
+    }
+
+    @Test
+    public void readResult_1k() throws Exception {
+        final List<String> urls = Collections.singletonList(url(0));
+        mIndex.putResult(urls.get(0), mBooks, 1);
+        assertOrder(mIndex.getResult(urls));
+
+        sBenchmark.measure("readResult_1k", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return mIndex.getResult(urls);
+            }
+        });
+    }
+
+    @Test
+    public void readResult_fanOut_1k() throws Exception {
+        // The sub-queries of a fan-out search, merged as they are read
+        final List<String> urls = new ArrayList<>();
+        int perUrl = RESULT_SIZE / FAN_OUT_URLS;
+        for (int i = 0; i < FAN_OUT_URLS; i++) {
+            urls.add(url(i));
+            mIndex.putResult(url(i), mBooks.subList(i * perUrl, (i + 1) * perUrl), 1);
+        }
+        assertOrder(mIndex.getResult(urls));
+
+        sBenchmark.measure("readResult_fanOut_1k", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                return mIndex.getResult(urls);
+            }
+        });
+    }
+
+    @Test
+    public void putResult_1k() throws Exception {
+        // Replaces the same result, its books are already indexed after the first run
+        sBenchmark.measure("putResult_1k", new Microbenchmark.Body() {
+            @Override
+            public Object run() {
+                mIndex.putResult(url(0), mBooks, System.currentTimeMillis());
+                return mIndex;
+            }
+        });
+        assertOrder(mIndex.getResult(Collections.singletonList(url(0))));
+    }
+
+    private void assertOrder(List<Book> stored) {
+        assertEquals(RESULT_SIZE, stored.size());
+        for (int i = 0; i < RESULT_SIZE; i++) {
+            QueryUtilsTest.assertSameBook("#" + i, mBooks.get(i), stored.get(i));
+        }
+    }
+
+    private static String url(int subQuery) {
+        return BooksViewModel.toGoogleQueryUrl("harry potter " + subQuery, 0,
+                NetworkQuality.DEFAULT_PLAN);
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.booklistingapp;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the thumbnail urls requested by {@link ThumbnailLoader} and the size of its memory cache.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ThumbnailLoaderTest {
+
+    @Test
+    public void httpThumbnails_areRequestedOverHttps() {
+        Uri thumbnail = Uri.parse("http://books.google.com/books/content?id=abc&printsec=frontcover"
+                + "&img=1&zoom=1&source=gbs_api");
+
+        assertEquals("https://books.google.com/books/content?id=abc&printsec=frontcover"
+                + "&img=1&zoom=1&source=gbs_api", ThumbnailLoader.toHttps(thumbnail).toString());
+    }
+
+    @Test
+    public void httpsThumbnails_areKept() {
+        Uri thumbnail = Uri.parse("https://books.google.com/books/content?id=abc");
+
+        assertEquals(thumbnail, ThumbnailLoader.toHttps(thumbnail));
+        assertNull(ThumbnailLoader.toHttps(null));
+    }
+
+    @Test
+    public void memoryCache_isAFractionOfTheMemoryClass() {
+        assertEquals(16 * 1024 * 1024, ThumbnailLoader.memoryCacheBytes(128));
+        assertEquals(4 * 1024 * 1024, ThumbnailLoader.memoryCacheBytes(32));
+    }
+}
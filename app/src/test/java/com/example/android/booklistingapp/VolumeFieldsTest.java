@@ -0,0 +1,204 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the fields projection of {@link VolumeFields} keeps every field the parsers read,
+ * and that it shrinks the recorded responses. The parse time with and without it is measured by
+ * {@link ParsingBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class VolumeFieldsTest {
+
+    private static final String[] FIXTURES = {
+            "volumes_small.json", "volumes_40.json", "volumes_long_descriptions.json"};
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @After
+    public void tearDown() {
+        VolumeFields.resetProjectionRejected();
+    }
+
+    @Test
+    public void projection_isBuiltFromTheSpec() {
+        assertEquals("items(id,volumeInfo(title,authors,description,language,imageLinks(thumbnail)),"
+                + "saleInfo(buyLink,retailPrice(amount,currencyCode))),totalItems",
+                VolumeFields.PROJECTION);
+    }
+
+    @Test
+    public void projectedUrls_canBeStripped() {
+        String url = "https://www.googleapis.com/books/v1/volumes?q=harry&maxResults=20";
+        String projected = VolumeFields.project(url);
+
+        assertTrue(VolumeFields.isProjected(projected));
+        assertFalse(VolumeFields.isProjected(url));
+        assertEquals(url, VolumeFields.strip(projected));
+        assertEquals(url + "&startIndex=20", VolumeFields.strip(
+                url + "&fields=" + VolumeFields.PROJECTION + "&startIndex=20"));
+    }
+
+    @Test
+    public void projectedResponses_parseToTheSameBooks() throws Exception {
+        for (String fixture : FIXTURES) {
+            List<Book> expected = QueryUtils.extractBooks(QueryUtilsTest.readFixture(fixture));
+            String projected = project(QueryUtilsTest.readFixture(fixture));
+
+            List<Book> fromTree = QueryUtils.extractBooks(projected);
+            List<Book> fromStream = QueryUtils.extractBooks(
+                    new ByteArrayInputStream(projected.getBytes(UTF_8)));
+
+            assertEquals(fixture, expected.size(), fromTree.size());
+            assertEquals(fixture, expected.size(), fromStream.size());
+            for (int i = 0; i < expected.size(); i++) {
+                QueryUtilsTest.assertSameBook(fixture + " #" + i, expected.get(i), fromTree.get(i));
+                QueryUtilsTest.assertSameBook(fixture + " #" + i, expected.get(i), fromStream.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void plans_askForLighterFields() throws Exception {
+        String json = QueryUtilsTest.readFixture("volumes_40.json");
+        List<Book> full = QueryUtils.extractBooks(json);
+        int[] lengths = new int[NetworkQuality.Plan.values().length];
+
+        assertEquals(VolumeFields.PROJECTION, NetworkQuality.DEFAULT_PLAN.getProjection());
+        for (NetworkQuality.Plan plan : NetworkQuality.Plan.values()) {
+            String projected = project(new JSONObject(json),
+                    VolumeFields.spec(plan.hasDescriptions(), plan.getThumbnailField())).toString();
+            List<Book> fromTree = QueryUtils.extractBooks(projected);
+            List<Book> fromStream = QueryUtils.extractBooks(
+                    new ByteArrayInputStream(projected.getBytes(UTF_8)));
+
+            lengths[plan.ordinal()] = projected.length();
+            assertEquals(plan.name(), full.size(), fromTree.size());
+            for (int i = 0; i < full.size(); i++) {
+                String message = plan + " #" + i;
+                QueryUtilsTest.assertSameBook(message, fromTree.get(i), fromStream.get(i));
+                assertEquals(message, full.get(i).getTitle(), fromTree.get(i).getTitle());
+                assertEquals(message, plan.hasDescriptions() ? full.get(i).getDescription() : "",
+                        fromTree.get(i).getDescription());
+            }
+            // The small thumbnails are read when they are the only ones
+            String thumbnail = fromTree.get(0).getThumbnailUrl();
+            if (plan.getThumbnailField() == null) {
+                assertEquals(plan.name(), "", thumbnail);
+            } else if (plan.getThumbnailField().equals(VolumeFields.SMALL_THUMBNAIL)) {
+                assertEquals(full.get(0).getThumbnailUrl().replace("zoom=1", "zoom=5"), thumbnail);
+            } else {
+                assertEquals(full.get(0).getThumbnailUrl(), thumbnail);
+            }
+        }
+        // Without descriptions the response is a fraction of the default one
+        assertTrue(lengths[NetworkQuality.Plan.POOR.ordinal()] * 2
+                < lengths[NetworkQuality.DEFAULT_PLAN.ordinal()]);
+    }
+
+    @Test
+    public void projection_shrinksThePayload() throws Exception {
+        for (String fixture : FIXTURES) {
+            byte[] full = QueryUtilsTest.readFixture(fixture).getBytes(UTF_8);
+            byte[] projected = project(QueryUtilsTest.readFixture(fixture)).getBytes(UTF_8);
+
+            assertTrue(fixture + ": " + projected.length + " bytes projected, " + full.length
+                    + " bytes full", projected.length < full.length);
+        }
+    }
+
+    @Test
+    public void rejectedProjection_fallsBackToFullResources() throws IOException {
+        FakeBooksServer server = new FakeBooksServer();
+        try {
+            server.body = QueryUtilsTest.readFixture("volumes_40.json").getBytes(UTF_8);
+            server.rejectFields = true;
+
+            List<Book> books = QueryUtils.fetchBooks(VolumeFields.project(server.url("harry")));
+
+            assertEquals(40, books.size());
+            assertEquals(2, server.getRequestCount());
+            assertFalse(server.getRequestQuery(1).contains("fields="));
+            // The next urls don't ask for the projection anymore
+            assertEquals(server.url("potter"), VolumeFields.project(server.url("potter")));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void badRequestWithoutTheProjection_keepsAskingForIt() throws IOException {
+        FakeBooksServer server = new FakeBooksServer();
+        try {
+            server.status = 400;
+
+            assertNull(QueryUtils.fetchBooks(VolumeFields.project(server.url("harry"))));
+
+            // The full resources were rejected too, the projection wasn't the problem
+            assertEquals(2, server.getRequestCount());
+            assertTrue(VolumeFields.isProjected(VolumeFields.project(server.url("potter"))));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectedProjection_isAskedForAgainAfterSomeUrls() {
+        String url = "https://www.googleapis.com/books/v1/volumes?q=harry&maxResults=20";
+        VolumeFields.onProjectionRejected();
+
+        for (int i = 0; i < VolumeFields.REJECTION_URLS; i++) {
+            assertEquals(url, VolumeFields.project(url));
+        }
+        assertTrue(VolumeFields.isProjected(VolumeFields.project(url)));
+    }
+
+    /**
+     * Helper that does what the server does with the fields parameter: keeps only the fields of
+     * the spec in the response
+     */
+    static String project(String json) throws JSONException {
+        return project(new JSONObject(json), VolumeFields.SPEC).toString();
+    }
+
+    private static Object project(Object value, VolumeFields.Field field) throws JSONException {
+        if (field.getChildren().length == 0) {
+            return value;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray projected = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                projected.put(project(array.get(i), field));
+            }
+            return projected;
+        }
+        JSONObject object = (JSONObject) value;
+        JSONObject projected = new JSONObject();
+        Iterator<String> names = object.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            VolumeFields.Field child = field.getChild(name);
+            if (child != null) {
+                projected.put(name, project(object.get(name), child));
+            }
+        }
+        return projected;
+    }
+}